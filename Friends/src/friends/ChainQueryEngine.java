@@ -0,0 +1,254 @@
+package friends;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Scanner;
+
+/**
+ * Answers shortest chain queries on a CsrGraph, for running many of them.
+ *
+ * Each query is a bidirectional breadth-first search: one search goes out from p1 and one
+ * from p2, a whole level at a time, always growing the side with the smaller frontier, and
+ * the query stops at the first member reached by both. The first member found that way is
+ * on a shortest chain: a member reached earlier by the other side, through a member of a
+ * lower level, would have been found by the other side's expansion instead.
+ *
+ * Every thread has its own workspace of int arrays (visit stamps, parents and frontiers
+ * for both sides), allocated on its first query and reused after that. A member counts
+ * as visited by a side only if its stamp is that side's stamp for the current query, so
+ * nothing has to be cleared between queries; the arrays are only cleared when the stamps
+ * wrap around.
+ *
+ * The chain found is always a shortest one, but when there are several, it may not be
+ * the same one Friends.shortestChain finds.
+ */
+public class ChainQueryEngine {
+
+	/**
+	 * Search state of one thread.
+	 */
+	static class Workspace {
+		// stamp of the side that reached each member in the current query
+		int[] stamp;
+		// member each member was reached from, for each side
+		int[] parentFrom, parentTo;
+		// current frontier of each side, and the next level being built
+		int[] frontierFrom, frontierTo, nextLevel;
+		// stamps of the two sides in the current query: 2*query+1 and 2*query+2
+		int epoch;
+
+		Workspace(int n) {
+			stamp = new int[n];
+			parentFrom = new int[n];
+			parentTo = new int[n];
+			frontierFrom = new int[n];
+			frontierTo = new int[n];
+			nextLevel = new int[n];
+		}
+
+		/**
+		 * Moves to the stamps of a new query.
+		 */
+		void nextQuery() {
+			if (epoch >= Integer.MAX_VALUE - 2) {
+				Arrays.fill(stamp, 0);
+				epoch = 0;
+			}
+			epoch += 2;
+		}
+	}
+
+	// graph searched
+	final CsrGraph g;
+
+	// workspace of each thread
+	final ThreadLocal<Workspace> workspaces = new ThreadLocal<Workspace>();
+
+	/**
+	 * Initializes an engine for a CSR graph.
+	 *
+	 * @param g Graph to search
+	 */
+	public ChainQueryEngine(CsrGraph g) {
+		this.g = g;
+	}
+
+	/**
+	 * Initializes an engine for a Graph, whose friend lists are copied into a CsrGraph.
+	 *
+	 * @param g Graph to search
+	 */
+	public ChainQueryEngine(Graph g) {
+		this(new CsrGraph(g));
+	}
+
+	/**
+	 * Returns the workspace of the current thread.
+	 */
+	Workspace workspace() {
+		Workspace ws = workspaces.get();
+		if (ws == null) {
+			ws = new Workspace(g.size());
+			workspaces.set(ws);
+		}
+		return ws;
+	}
+
+	/**
+	 * Finds a shortest chain of people from p1 to p2.
+	 *
+	 * @param p1 Person with whom the chain originates
+	 * @param p2 Person at whom the chain terminates
+	 * @return A shortest chain from p1 to p2, starting with p1 and ending with p2. Null
+	 *         if either person is not in the graph, or there is no path from p1 to p2
+	 */
+	public ArrayList<String> shortestChain(String p1, String p2) {
+		if (p1 == null || p2 == null) {
+			return null;
+		}
+		Integer from = g.map.get(p1), to = g.map.get(p2);
+		if (from == null || to == null) {
+			return null;
+		}
+		int[] chain = chain(from, to);
+		if (chain == null) {
+			return null;
+		}
+		ArrayList<String> names = new ArrayList<String>(chain.length);
+		for (int v : chain) {
+			names.add(g.names[v]);
+		}
+		return names;
+	}
+
+	/**
+	 * Finds a shortest chain of members from one member to another.
+	 *
+	 * @param from First member
+	 * @param to Last member
+	 * @return Members of the chain, in order from from to to; null if there is no path
+	 */
+	public int[] chain(int from, int to) {
+		if (from == to) {
+			return new int[] { from };
+		}
+		Workspace ws = workspace();
+		ws.nextQuery();
+		int stampFrom = ws.epoch - 1, stampTo = ws.epoch;
+		int[] stamp = ws.stamp;
+		stamp[from] = stampFrom;
+		stamp[to] = stampTo;
+		ws.frontierFrom[0] = from;
+		ws.frontierTo[0] = to;
+		int sizeFrom = 1, sizeTo = 1;
+
+		while (sizeFrom > 0 && sizeTo > 0) {
+			boolean forward = sizeFrom <= sizeTo;
+			int[] frontier = forward ? ws.frontierFrom : ws.frontierTo;
+			int[] parent = forward ? ws.parentFrom : ws.parentTo;
+			int mine = forward ? stampFrom : stampTo, theirs = forward ? stampTo : stampFrom;
+			int size = forward ? sizeFrom : sizeTo;
+			int[] next = ws.nextLevel;
+			int nextSize = 0;
+			for (int i=0; i < size; i++) {
+				int v = frontier[i];
+				for (int k = g.offsets[v]; k < g.offsets[v+1]; k++) {
+					int w = g.neighbors[k];
+					if (stamp[w] == theirs) {
+						// the two searches meet across the edge v-w
+						return forward ? join(ws, from, to, v, w) : join(ws, from, to, w, v);
+					}
+					if (stamp[w] != mine) {
+						stamp[w] = mine;
+						parent[w] = v;
+						next[nextSize++] = w;
+					}
+				}
+			}
+			// the new level becomes this side's frontier
+			ws.nextLevel = frontier;
+			if (forward) {
+				ws.frontierFrom = next;
+				sizeFrom = nextSize;
+			} else {
+				ws.frontierTo = next;
+				sizeTo = nextSize;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Builds the chain through an edge a-b, where a was reached from the first member
+	 * and b from the last.
+	 */
+	private static int[] join(Workspace ws, int from, int to, int a, int b) {
+		int lengthFrom = 1, lengthTo = 1;
+		for (int v = a; v != from; v = ws.parentFrom[v]) {
+			lengthFrom++;
+		}
+		for (int v = b; v != to; v = ws.parentTo[v]) {
+			lengthTo++;
+		}
+		int[] chain = new int[lengthFrom + lengthTo];
+		int i = lengthFrom - 1;
+		for (int v = a; v != from; v = ws.parentFrom[v]) {
+			chain[i--] = v;
+		}
+		chain[0] = from;
+		i = lengthFrom;
+		for (int v = b; v != to; v = ws.parentTo[v]) {
+			chain[i++] = v;
+		}
+		chain[i] = to;
+		return chain;
+	}
+
+	/**
+	 * Runs random chain queries on a friendship file, with Friends.shortestChain and with
+	 * this engine, checks that the chains have the same length, and prints the time per
+	 * query of each.
+	 *
+	 * Usage: ChainQueryEngine friendsFile [queries]
+	 */
+	public static void main(String[] args)
+	throws FileNotFoundException {
+		if (args.length < 1) {
+			System.out.println("Usage: ChainQueryEngine friendsFile [queries]");
+			return;
+		}
+		int queries = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+		Scanner sc = new Scanner(new File(args[0]));
+		CsrGraph g = new CsrGraph(sc);
+		sc.close();
+		ChainQueryEngine engine = new ChainQueryEngine(g);
+		Random random = new Random(1);
+		String[][] pairs = new String[queries][];
+		for (int q=0; q < queries; q++) {
+			pairs[q] = new String[] { g.names[random.nextInt(g.size())], g.names[random.nextInt(g.size())] };
+		}
+		for (int round=0; round < 3; round++) {
+			long start = System.nanoTime();
+			int[] lengths = new int[queries];
+			for (int q=0; q < queries; q++) {
+				ArrayList<String> chain = Friends.shortestChain(g, pairs[q][0], pairs[q][1]);
+				lengths[q] = chain == null ? 0 : chain.size();
+			}
+			double plain = (System.nanoTime() - start) / 1e3 / queries;
+			start = System.nanoTime();
+			int mismatches = 0;
+			for (int q=0; q < queries; q++) {
+				ArrayList<String> chain = engine.shortestChain(pairs[q][0], pairs[q][1]);
+				if ((chain == null ? 0 : chain.size()) != lengths[q]) {
+					mismatches++;
+				}
+			}
+			double bidirectional = (System.nanoTime() - start) / 1e3 / queries;
+			System.out.printf("%d queries: shortestChain %.1f us/query, bidirectional %.1f us/query, %.1fx, %d length mismatches%n",
+					queries, plain, bidirectional, plain / bidirectional, mismatches);
+		}
+	}
+}
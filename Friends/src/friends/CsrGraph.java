@@ -0,0 +1,124 @@
+package friends;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Scanner;
+import java.util.StringTokenizer;
+
+/**
+ * Friendship graph in compressed sparse row (CSR) form: the friends of member v are
+ * neighbors[offsets[v]] .. neighbors[offsets[v+1]-1]. Every friendship is stored once for
+ * each of its two members, so a graph of E friendships takes 2E ints of neighbors plus
+ * n+1 ints of offsets, and the friends of a member are read sequentially from one array.
+ *
+ * Members are numbered as in Graph, and the friends of each member come in the same order
+ * as in its Friend list (the friendship read last comes first), so traversals visit
+ * members in the same order on both.
+ */
+public class CsrGraph {
+
+	// member names, by number
+	String[] names;
+
+	// school of each member, null if the member is not a student
+	String[] schools;
+
+	// hash map to store the (name,num) association
+	HashMap<String,Integer> map;
+
+	// friends of member v are neighbors[offsets[v]..offsets[v+1]-1]
+	int[] offsets;
+	int[] neighbors;
+
+	// initialize graph from file, in the same format as Graph
+	public CsrGraph(Scanner sc) {
+		// first line is number of people
+		int n = Integer.parseInt(sc.nextLine());
+		names = new String[n];
+		schools = new String[n];
+		map = new HashMap<String,Integer>(n*2);
+		// next n lines are people's info
+		for (int i=0; i < n; i++) {
+			StringTokenizer st = new StringTokenizer(sc.nextLine(),"|");
+			names[i] = st.nextToken();
+			String yn = st.nextToken(); // student or not
+			if (yn.toLowerCase().charAt(0) == 'y') {
+				schools[i] = st.nextToken();
+			}
+			map.put(names[i],i);
+		}
+		// rest are friendships, kept as (i,j) pairs until the degrees are known
+		int[] edges = new int[1024];
+		int numEdges = 0;
+		while (sc.hasNextLine()) {
+			String line = sc.nextLine();
+			int bar = line.indexOf('|');
+			if (bar < 0) {
+				continue;
+			}
+			int end = line.indexOf('|', bar+1);
+			if (2*numEdges + 2 > edges.length) {
+				edges = Arrays.copyOf(edges, edges.length*2);
+			}
+			edges[2*numEdges] = map.get(line.substring(0, bar));
+			edges[2*numEdges+1] = map.get(end < 0 ? line.substring(bar+1) : line.substring(bar+1, end));
+			numEdges++;
+		}
+		build(n, edges, numEdges);
+	}
+
+	// initialize graph from the linked lists of a Graph
+	public CsrGraph(Graph g) {
+		int n = g.members.length;
+		names = new String[n];
+		schools = new String[n];
+		map = new HashMap<String,Integer>(g.map);
+		offsets = new int[n+1];
+		for (int i=0; i < n; i++) {
+			names[i] = g.members[i].name;
+			schools[i] = g.members[i].school;
+			offsets[i+1] = offsets[i] + g.degree(i);
+		}
+		neighbors = new int[offsets[n]];
+		for (int i=0; i < n; i++) {
+			g.copyFriends(i, neighbors, offsets[i]);
+		}
+	}
+
+	/**
+	 * Fills offsets and neighbors from a list of friendships. Since a Friend list has its
+	 * latest friendship first, each member's friends are written from the end of its range
+	 * backwards, in the order the friendships were read.
+	 */
+	private void build(int n, int[] edges, int numEdges) {
+		offsets = new int[n+1];
+		for (int e=0; e < 2*numEdges; e++) {
+			offsets[edges[e]+1]++;
+		}
+		for (int i=0; i < n; i++) {
+			offsets[i+1] += offsets[i];
+		}
+		neighbors = new int[offsets[n]];
+		// next free slot of each member, counting down from the end of its range
+		int[] fill = Arrays.copyOfRange(offsets, 1, n+1);
+		for (int e=0; e < numEdges; e++) {
+			int i = edges[2*e], j = edges[2*e+1];
+			neighbors[--fill[i]] = j;
+			neighbors[--fill[j]] = i;
+		}
+	}
+
+	/**
+	 * Returns the number of members.
+	 */
+	public int size() {
+		return names.length;
+	}
+
+	/**
+	 * Returns the number of friends of a member.
+	 */
+	public int degree(int v) {
+		return offsets[v+1] - offsets[v];
+	}
+}
@@ -1,6 +1,8 @@
 package friends;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 
 import structures.Queue;
 import structures.Stack;
@@ -71,7 +73,9 @@ public class Friends {
 	 * Finds all cliques of students in a given school.
 	 * 
 	 * Returns an array list of array lists - each constituent array list contains
-	 * the names of all students in a clique.
+	 * the names of all students in a clique, in the order they are listed in the graph.
+	 * The cliques are read from the school index and disjoint sets kept by the graph,
+	 * so this takes time proportional to the number of students in the school.
 	 * 
 	 * @param g Graph for which cliques are to be found.
 	 * @param school Name of school
@@ -81,163 +85,238 @@ public class Friends {
 	public static ArrayList<ArrayList<String>> cliques(Graph g, String school) {
 		/** COMPLETE THIS METHOD **/
 
-		if(g==null) {
+		if(g==null || school == null) {
 			return null;
 		}
-		ArrayList<ArrayList<String>> tmp = new ArrayList<ArrayList<String>>();
-		ArrayList<Boolean> Visited = new ArrayList<Boolean>();
-		ArrayList<Person> PList;
-		for(int i = 0; i < g.members.length; i++) {
-			if(g.members[i].school == null) {
-				Visited.add(true);
-			}
-			else if(!(g.members[i].school.equals(school))) {
-				Visited.add(true);
-			}
-			else {
-				Visited.add(false);
-			}
-		}
-		
-		
-		ArrayList<String> add;
-		for(int i = 0; i < g.members.length; i++) {
-			if(!Visited.get(i)) {
-				PList = new ArrayList<Person>();
-				Queue<Person> Que = new Queue<Person>();
-				Que.enqueue(g.members[i]);
-				Visited.set(i, true);
-				while(!Que.isEmpty()) {
-					Person Hold = Que.dequeue();
-					PList.add(Hold);
-					Friend PtrHold = Hold.first;
-					while(PtrHold != null) {
-						if(!Visited.get(PtrHold.fnum)) {
-							Que.enqueue(g.members[PtrHold.fnum]);
-							Visited.set(PtrHold.fnum, true);
-						}
-						PtrHold = PtrHold.next;
-					}
-				}
-				if(!PList.isEmpty()) {
-					add = Convert(PList, school);
-					if(add != null) {
-						tmp.add(add);
-					}
-				}
-			}
-		}
-		if(tmp.isEmpty()) {
+		Graph.School s = g.schools.get(school);
+		if(s == null) {
 			return null;
 		}
-		
-		return tmp;
-		
-	}
-	
-	private static ArrayList<String> Convert(ArrayList<Person> P, String school){
-		ArrayList<String> tmp = new ArrayList<String>();
-		if(P == null) {
-			return null;
-		}
-		for(int i = 0; i < P.size(); i++) {
-			if(P.get(i).school != null) {
-				if(P.get(i).school.equals(school)) {
-					tmp.add(P.get(i).name);
-				}
+		// a clique is a set of students of the school joined by friendships within it,
+		// so it is one disjoint set; cliques come in order of their first student
+		ArrayList<ArrayList<String>> tmp = new ArrayList<ArrayList<String>>();
+		HashMap<Integer,ArrayList<String>> byRoot = new HashMap<Integer,ArrayList<String>>(s.size*2);
+		for(int i = 0; i < s.size; i++) {
+			int v = s.students[i];
+			int root = g.find(v);
+			ArrayList<String> clique = byRoot.get(root);
+			if(clique == null) {
+				clique = new ArrayList<String>(g.setSize[root]);
+				byRoot.put(root, clique);
+				tmp.add(clique);
 			}
+			clique.add(g.members[v].name);
 		}
-		
-		if(tmp.isEmpty()) {
-			return null;
-		}
-		
 		return tmp;
+		
 	}
 	
 	/**
 	 * Finds and returns all connectors in the graph.
 	 * 
+	 * The graph's friend lists are copied into a CsrGraph, and the connectors are found
+	 * there with one iterative depth-first search per connected component, in time linear
+	 * in the size of the graph; see connectors(CsrGraph).
+	 * 
 	 * @param g Graph for which connectors needs to be found.
 	 * @return Names of all connectors. Null if there are no connectors.
 	 */
 	public static ArrayList<String> connectors(Graph g) {
 		/** COMPLETE THIS METHOD **/
 
-		ArrayList<String> tmp = new ArrayList<String>();
 		if(g == null || g.members.length <= 2) 
 			return null;
-		ArrayList<Integer> counter = new ArrayList<Integer>();
-		counter.add(1);
-		ArrayList<ArrayList<ArrayList<Integer>>> reIn = new ArrayList<ArrayList<ArrayList<Integer>>>();
-		for(int i = 0; i < g.members.length; i++) {
-			ArrayList<ArrayList<Integer>> Input = new ArrayList<ArrayList<Integer>>();
-			for(int j = 0; j < g.members.length; j++) {
-				Input.add(null);
-			}
-			Input.add(counter);
-			Input = Connect(Input, true, i, g);
-			reIn.add(Input);
+		return connectors(new CsrGraph(g));
+	}
+	
+	/**
+	 * Finds the shortest chain of people from p1 to p2 in a CSR graph. The chain is
+	 * the same as the one shortestChain finds in the Graph the CSR graph was built from:
+	 * the breadth-first search goes from p2 and visits friends in the same order, and it
+	 * stops as soon as p1 is reached, since a member's predecessor never changes once it
+	 * has been reached.
+	 * 
+	 * @param g Graph for which shortest chain is to be found.
+	 * @param p1 Person with whom the chain originates
+	 * @param p2 Person at whom the chain terminates
+	 * @return The shortest chain from p1 to p2. Null if there is no
+	 *         path from p1 to p2
+	 */
+	public static ArrayList<String> shortestChain(CsrGraph g, String p1, String p2) {
+		if(g==null || p1 == null || p2 == null) {
+			return null;
 		}
-		if(reIn.size() == 0) {
+		Integer from = g.map.get(p2), to = g.map.get(p1);
+		if(from == null || to == null) {
 			return null;
 		}
-		for(int i = 0; i < reIn.size(); i++) {
-			ArrayList<ArrayList<Integer>> Input = reIn.get(i);
-			for(int j = g.members.length +1; j < Input.size(); j++) {
-				if(compress(g.members[Input.get(j).get(0)].name, tmp))
-					tmp.add(g.members[Input.get(j).get(0)].name);
+		int[] prev = new int[g.size()];
+		Arrays.fill(prev, -1);
+		int[] queue = new int[g.size()];
+		int head = 0, tail = 0;
+		queue[tail++] = from;
+		prev[from] = from;
+		while(head < tail && prev[to] < 0) {
+			int v = queue[head++];
+			for(int k = g.offsets[v]; k < g.offsets[v+1]; k++) {
+				int w = g.neighbors[k];
+				if(prev[w] < 0) {
+					prev[w] = v;
+					queue[tail++] = w;
+				}
 			}
 		}
-		if(tmp.size() == 0) {
+		if(prev[to] < 0) {
 			return null;
 		}
-		return tmp;
+		ArrayList<String> chain = new ArrayList<String>();
+		for(int v = to; v != from; v = prev[v]) {
+			chain.add(g.names[v]);
+		}
+		chain.add(g.names[from]);
+		return chain;
 	}
 	
-	private static boolean compress(String test, ArrayList<String> tester) {
-		if(tester == null) {
-			return true;
+	/**
+	 * Finds all cliques of students in a given school in a CSR graph. The cliques come
+	 * in the same order as cliques on a Graph finds them, in order of their first
+	 * student, and the students of each clique are in member order as well.
+	 * 
+	 * @param g Graph for which cliques are to be found.
+	 * @param school Name of school
+	 * @return Array list of clique array lists. Null if there is no student in the
+	 *         given school
+	 */
+	public static ArrayList<ArrayList<String>> cliques(CsrGraph g, String school) {
+		if(g==null || school == null) {
+			return null;
+		}
+		int n = g.size();
+		// members of other schools count as visited
+		boolean[] visited = new boolean[n];
+		for(int i = 0; i < n; i++) {
+			visited[i] = !school.equals(g.schools[i]);
 		}
-		for(int i = 0; i < tester.size(); i++) {
-			if(tester.get(i).compareTo(test) == 0) {
-				return false;
+		ArrayList<ArrayList<String>> cliques = new ArrayList<ArrayList<String>>();
+		int[] queue = new int[n];
+		for(int i = 0; i < n; i++) {
+			if(visited[i]) {
+				continue;
 			}
+			int head = 0, tail = 0;
+			queue[tail++] = i;
+			visited[i] = true;
+			while(head < tail) {
+				int v = queue[head++];
+				for(int k = g.offsets[v]; k < g.offsets[v+1]; k++) {
+					int w = g.neighbors[k];
+					if(!visited[w]) {
+						visited[w] = true;
+						queue[tail++] = w;
+					}
+				}
+			}
+			// list the students in member order, as cliques on a Graph does
+			Arrays.sort(queue, 0, tail);
+			ArrayList<String> clique = new ArrayList<String>(tail);
+			for(int k = 0; k < tail; k++) {
+				clique.add(g.names[queue[k]]);
+			}
+			cliques.add(clique);
 		}
-		return true;
+		return cliques.isEmpty() ? null : cliques;
 	}
 	
-	private static ArrayList<ArrayList<Integer>> Connect(ArrayList<ArrayList<Integer>> List, boolean first, int Vertex, Graph g){
-		ArrayList<Integer> New = new ArrayList<Integer>();
-		New.add(List.get(g.members.length).get(0));
-		New.add(List.get(g.members.length).get(0));
-		List.set(Vertex, New);
-		List.get(g.members.length).set(0, List.get(g.members.length).get(0) + 1);
-		Friend ptr = g.members[Vertex].first;
-		while(ptr != null) {
-			int ptrIn = ptr.fnum;
-			if(List.get(ptrIn) != null) {
-				if(List.get(Vertex).get(1) > List.get(ptrIn).get(0)) {
-					List.get(Vertex).set(1, List.get(ptrIn).get(0));
+	/**
+	 * Finds and returns all connectors in a CSR graph, in the same order as connectors
+	 * on a Graph.
+	 * 
+	 * The connectors are found with one iterative depth-first search per connected
+	 * component, from its lowest numbered member r, keeping for each member its DFS
+	 * number and the lowest DFS number reachable from its subtree through one back edge.
+	 * A member other than r is a connector if some child's subtree reaches no lower than
+	 * the member itself; r is a connector if it has more than one child.
+	 * 
+	 * The connectors come in the order of the original connectors method, which searched
+	 * again from every member, and reported the connectors other than the root of each
+	 * search in the order they were found: the search from r finds all of the component's
+	 * connectors but r, in the order this search finds them, and r itself came first from
+	 * the search of the next member of the component.
+	 * 
+	 * @param g Graph for which connectors needs to be found.
+	 * @return Names of all connectors. Null if there are no connectors.
+	 */
+	public static ArrayList<String> connectors(CsrGraph g) {
+		if(g == null || g.size() <= 2) {
+			return null;
+		}
+		int n = g.size();
+		int[] dfsnum = new int[n], back = new int[n];
+		// depth-first search stack: members, and the next friend of each to look at
+		int[] stack = new int[n], next = new int[n];
+		boolean[] reported = new boolean[n];
+		// lowest and second lowest member of each component
+		int[] secondOf = new int[n];
+		boolean[] rootIsConnector = new boolean[n];
+		Arrays.fill(secondOf, -1);
+		int[] component = new int[n];
+		Arrays.fill(component, -1);
+		ArrayList<String> result = new ArrayList<String>();
+		int counter = 0;
+		for(int i = 0; i < n; i++) {
+			if(component[i] >= 0) {
+				// r is reported when the search from the second member of its component would report it
+				int r = component[i];
+				if(secondOf[r] == i && rootIsConnector[r] && !reported[r]) {
+					reported[r] = true;
+					result.add(g.names[r]);
 				}
+				continue;
 			}
-			else {
-				List = Connect(List, false, ptrIn, g);
-				if(List.get(Vertex).get(0) > List.get(ptrIn).get(1)) {
-					if(List.get(Vertex).get(1) > List.get(ptrIn).get(1)) {
-						List.get(Vertex).set(1, List.get(ptrIn).get(1));
+			// new component, rooted at i
+			int second = -1, rootChildren = 0;
+			int top = 0;
+			stack[0] = i;
+			next[i] = g.offsets[i];
+			dfsnum[i] = back[i] = ++counter;
+			component[i] = i;
+			while(top >= 0) {
+				int v = stack[top];
+				if(next[v] < g.offsets[v+1]) {
+					int w = g.neighbors[next[v]++];
+					if(component[w] >= 0) {
+						back[v] = Math.min(back[v], dfsnum[w]);
+					}else {
+						dfsnum[w] = back[w] = ++counter;
+						component[w] = i;
+						if(second < 0 || w < second) {
+							second = w;
+						}
+						next[w] = g.offsets[w];
+						stack[++top] = w;
 					}
+					continue;
+				}
+				// v is done, back to its parent
+				top--;
+				if(top < 0) {
+					break;
 				}
-				else if(List.get(Vertex).get(0) <= List.get(ptrIn).get(1)) {
-					if(!first) {
-						ArrayList<Integer> add = new ArrayList<Integer>();
-						add.add(Vertex);
-						List.add(add);
+				int u = stack[top];
+				if(dfsnum[u] > back[v]) {
+					back[u] = Math.min(back[u], back[v]);
+				}else if(u != i) {
+					if(!reported[u]) {
+						reported[u] = true;
+						result.add(g.names[u]);
 					}
+				}else {
+					rootChildren++;
 				}
 			}
-			ptr = ptr.next;
+			secondOf[i] = second;
+			rootIsConnector[i] = rootChildren > 1;
 		}
-		return List;
+		return result.isEmpty() ? null : result;
 	}
 }
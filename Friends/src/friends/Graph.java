@@ -1,5 +1,6 @@
 package friends;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Scanner;
 import java.util.StringTokenizer;
@@ -30,18 +31,43 @@ class Edge {
 		
 public class Graph {
 	
+	/**
+	 * Students of one school, by increasing member number.
+	 */
+	static class School {
+		int[] students = new int[4];
+		int size;
+		void add(int v) {
+			if (size == students.length) {
+				students = Arrays.copyOf(students, size*2);
+			}
+			students[size++] = v;
+		}
+	}
+	
 	// all the members in the graph
 	Person[] members;
 	
 	// hash map to store the (name,num) association
 	HashMap<String,Integer> map;
 	
+	// students of each school, by school name
+	HashMap<String,School> schools;
+	
+	// disjoint sets of members joined by friendships within the same school: parent of
+	// each member, itself for a root, and the number of members under each root
+	int[] parent;
+	int[] setSize;
+	
 	// initialize graph from file
 	public Graph(Scanner sc) {
 		// first line is number of people
 		int n = Integer.parseInt(sc.nextLine());
 		members = new Person[n];
 		map = new HashMap<String,Integer>(n*2);
+		schools = new HashMap<String,School>();
+		parent = new int[n];
+		setSize = new int[n];
 		// next n lines are people's info
 		for (int i=0; i < n; i++) {
 			String info = sc.nextLine();
@@ -60,6 +86,17 @@ public class Graph {
 			members[i] = person;
 			// add to hash map
 			map.put(person.name,i);
+			// add to its school, in a set of its own
+			if (person.student) {
+				School s = schools.get(person.school);
+				if (s == null) {
+					s = new School();
+					schools.put(person.school,s);
+				}
+				s.add(i);
+			}
+			parent[i] = i;
+			setSize[i] = 1;
 		}
 		// rest are friendships
 		while (sc.hasNextLine()) {
@@ -67,10 +104,76 @@ public class Graph {
 			StringTokenizer st = new StringTokenizer(line,"|");
 			String p1 = st.nextToken();
 			String p2 = st.nextToken();
-			int i = map.get(p1);
-			int j = map.get(p2);
-			members[i].first = new Friend(j,members[i].first);
-			members[j].first = new Friend(i,members[j].first);
+			addFriendship(map.get(p1),map.get(p2));
+		}
+	}
+	
+	/**
+	 * Adds a friendship between two people.
+	 * 
+	 * @param p1 Name of one person
+	 * @param p2 Name of the other person
+	 * @throws IllegalArgumentException If either person is not in the graph
+	 */
+	public void addFriendship(String p1, String p2) {
+		Integer i = map.get(p1), j = map.get(p2);
+		if (i == null || j == null) {
+			throw new IllegalArgumentException("no such person: " + (i == null ? p1 : p2));
+		}
+		addFriendship(i.intValue(),j.intValue());
+	}
+	
+	// adds a friendship between members i and j, and joins their sets if they go
+	// to the same school
+	void addFriendship(int i, int j) {
+		members[i].first = new Friend(j,members[i].first);
+		members[j].first = new Friend(i,members[j].first);
+		if (members[i].school != null && members[i].school.equals(members[j].school)) {
+			union(i,j);
+		}
+	}
+	
+	// number of friends of member v
+	int degree(int v) {
+		int degree = 0;
+		for (Friend ptr = members[v].first; ptr != null; ptr = ptr.next) {
+			degree++;
+		}
+		return degree;
+	}
+	
+	// copies the member numbers of v's friends into to, from position at on, latest
+	// friendship first; returns the position after the last one
+	int copyFriends(int v, int[] to, int at) {
+		for (Friend ptr = members[v].first; ptr != null; ptr = ptr.next) {
+			to[at++] = ptr.fnum;
+		}
+		return at;
+	}
+	
+	/**
+	 * Returns the root of the set of a member, halving its path to the root.
+	 */
+	int find(int v) {
+		while (parent[v] != v) {
+			parent[v] = parent[parent[v]];
+			v = parent[v];
+		}
+		return v;
+	}
+	
+	/**
+	 * Joins the sets of two members, putting the smaller one under the larger one.
+	 */
+	void union(int i, int j) {
+		int a = find(i), b = find(j);
+		if (a == b) {
+			return;
+		}
+		if (setSize[a] < setSize[b]) {
+			int t = a; a = b; b = t;
 		}
+		parent[b] = a;
+		setSize[a] += setSize[b];
 	}
 }
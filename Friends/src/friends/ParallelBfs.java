@@ -0,0 +1,361 @@
+package friends;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.Arrays;
+import java.util.Scanner;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Breadth-first search of a whole CsrGraph on a fork-join pool, for passes over all the
+ * members reachable from one, such as distances from a hub or eccentricities.
+ *
+ * The search is level-synchronous: each level is split into tasks over the pool, and the
+ * next level starts when all of them are done. Visited members are kept in a bitset of
+ * AtomicLongArray words.
+ *
+ * Each level goes one of two directions. Top-down, the tasks go through the frontier and
+ * claim its unvisited friends, with a compare-and-set on their bit. Bottom-up, the tasks
+ * go through the unvisited members and look for a friend in the frontier, stopping at the
+ * first one; each task owns whole words of the bitset, so nothing needs a compare-and-set.
+ * The search goes bottom-up when the frontier has more edges than 1/ALPHA of the edges
+ * still unexplored, and back top-down when the frontier shrinks under 1/BETA of the
+ * members, since checking the big middle levels from the unvisited side skips most edges.
+ */
+public class ParallelBfs {
+
+	/**
+	 * Goes bottom-up when the frontier has more than 1/ALPHA of the unexplored edges.
+	 */
+	static final int ALPHA = 14;
+
+	/**
+	 * Goes back top-down when the frontier has fewer than 1/BETA of the members.
+	 */
+	static final int BETA = 24;
+
+	/**
+	 * Frontier members, or members, handled by one task; a multiple of 64.
+	 */
+	static final int GRAIN = 1024;
+
+	// graph searched
+	final CsrGraph g;
+
+	// pool the levels run on
+	final ForkJoinPool pool;
+
+	/**
+	 * Initializes a search on a CSR graph.
+	 *
+	 * @param g Graph to search
+	 * @param pool Pool to run the levels on
+	 */
+	public ParallelBfs(CsrGraph g, ForkJoinPool pool) {
+		this.g = g;
+		this.pool = pool;
+	}
+
+	/**
+	 * Initializes a search on a Graph, whose friend lists are copied into a CsrGraph.
+	 *
+	 * @param g Graph to search
+	 * @param pool Pool to run the levels on
+	 */
+	public ParallelBfs(Graph g, ForkJoinPool pool) {
+		this(new CsrGraph(g), pool);
+	}
+
+	/**
+	 * Finds the distance of every member from a person.
+	 *
+	 * @param name Name of the person
+	 * @return Number of friendships between the person and each member, by member number,
+	 *         -1 for members not connected to the person; null if the person is not in the
+	 *         graph
+	 */
+	public int[] distances(String name) {
+		Integer source = g.map.get(name);
+		return source == null ? null : distances(source);
+	}
+
+	/**
+	 * Finds the distance of every member from a member.
+	 *
+	 * @param source Member number
+	 * @return Number of friendships between source and each member, -1 for members not
+	 *         connected to source
+	 */
+	public int[] distances(int source) {
+		return new Search(source).run();
+	}
+
+	/**
+	 * Returns the largest distance from a member, given all the distances from it.
+	 *
+	 * @param distances Distances, as returned by distances
+	 * @return Eccentricity of the member within its component
+	 */
+	public static int eccentricity(int[] distances) {
+		int max = 0;
+		for (int d : distances) {
+			max = Math.max(max, d);
+		}
+		return max;
+	}
+
+	/**
+	 * State of one search.
+	 */
+	class Search {
+		final int n = g.size();
+		final int[] dist = new int[n];
+		final AtomicLongArray visited = new AtomicLongArray((n+63) >>> 6);
+
+		// current level, as a list, and as a bitset when going bottom-up
+		int[] frontier = new int[n];
+		int frontierSize;
+		long[] frontierBits = new long[(n+63) >>> 6];
+
+		// level being built
+		int[] next = new int[n];
+		final AtomicInteger nextSize = new AtomicInteger();
+		long[] nextBits = new long[(n+63) >>> 6];
+		// total number of friends of the members of the level being built
+		final AtomicLong nextEdges = new AtomicLong();
+
+		// distance of the current level, and its direction
+		int level;
+		boolean bottomUp;
+
+		Search(int source) {
+			Arrays.fill(dist, -1);
+			dist[source] = 0;
+			visited.set(source >>> 6, 1L << source);
+			frontier[0] = source;
+			frontierSize = 1;
+		}
+
+		int[] run() {
+			long frontierEdges = g.degree(frontier[0]);
+			long unexplored = g.neighbors.length - frontierEdges;
+			while (frontierSize > 0) {
+				if (!bottomUp && frontierEdges > unexplored / ALPHA) {
+					bottomUp = true;
+					Arrays.fill(frontierBits, 0);
+					for (int i=0; i < frontierSize; i++) {
+						frontierBits[frontier[i] >>> 6] |= 1L << frontier[i];
+					}
+				} else if (bottomUp && frontierSize < n / BETA) {
+					bottomUp = false;
+				}
+				nextSize.set(0);
+				nextEdges.set(0);
+				pool.invoke(new LevelTask(0, bottomUp ? n : frontierSize));
+				level++;
+
+				int[] list = frontier;
+				frontier = next;
+				next = list;
+				frontierSize = nextSize.get();
+				long[] bits = frontierBits;
+				frontierBits = nextBits;
+				nextBits = bits;
+				frontierEdges = nextEdges.get();
+				unexplored -= frontierEdges;
+			}
+			return dist;
+		}
+
+		/**
+		 * Marks a member visited, if no other task has.
+		 *
+		 * @return True if this call marked it
+		 */
+		boolean claim(int v) {
+			int w = v >>> 6;
+			long bit = 1L << v;
+			for (;;) {
+				long word = visited.get(w);
+				if ((word & bit) != 0) {
+					return false;
+				}
+				if (visited.compareAndSet(w, word, word | bit)) {
+					return true;
+				}
+			}
+		}
+
+		/**
+		 * Appends the members a task found to the next level.
+		 */
+		void publish(int[] found, int count, long edges) {
+			if (count > 0) {
+				System.arraycopy(found, 0, next, nextSize.getAndAdd(count), count);
+				nextEdges.addAndGet(edges);
+			}
+		}
+
+		/**
+		 * Expands frontier[lo..hi-1] going top-down, or members lo..hi-1 going bottom-up.
+		 */
+		class LevelTask extends RecursiveAction {
+			private static final long serialVersionUID = 1L;
+
+			final int lo, hi;
+
+			LevelTask(int lo, int hi) {
+				this.lo = lo;
+				this.hi = hi;
+			}
+
+			protected void compute() {
+				if (hi - lo > GRAIN) {
+					// split on a word boundary, so bottom-up tasks own whole words
+					int mid = (lo + (hi-lo)/2) & ~63;
+					invokeAll(new LevelTask(lo, mid), new LevelTask(mid, hi));
+				} else if (bottomUp) {
+					bottomUp();
+				} else {
+					topDown();
+				}
+			}
+
+			void topDown() {
+				int[] found = new int[64];
+				int count = 0;
+				long edges = 0;
+				for (int i=lo; i < hi; i++) {
+					int v = frontier[i];
+					for (int k = g.offsets[v]; k < g.offsets[v+1]; k++) {
+						int w = g.neighbors[k];
+						if ((visited.get(w >>> 6) & (1L << w)) == 0 && claim(w)) {
+							dist[w] = level+1;
+							if (count == found.length) {
+								found = Arrays.copyOf(found, count*2);
+							}
+							found[count++] = w;
+							edges += g.degree(w);
+						}
+					}
+				}
+				publish(found, count, edges);
+			}
+
+			void bottomUp() {
+				int[] found = new int[hi - lo];
+				int count = 0;
+				long edges = 0;
+				for (int w = lo >>> 6; w << 6 < hi; w++) {
+					long word = visited.get(w), added = 0;
+					int end = Math.min((w+1) << 6, hi);
+					for (int v = w << 6; v < end; v++) {
+						if ((word & (1L << v)) != 0) {
+							continue;
+						}
+						for (int k = g.offsets[v]; k < g.offsets[v+1]; k++) {
+							int u = g.neighbors[k];
+							if ((frontierBits[u >>> 6] & (1L << u)) != 0) {
+								dist[v] = level+1;
+								added |= 1L << v;
+								found[count++] = v;
+								edges += g.degree(v);
+								break;
+							}
+						}
+					}
+					// this task is the only one writing word w in this level
+					if (added != 0) {
+						visited.set(w, word | added);
+					}
+					nextBits[w] = added;
+				}
+				publish(found, count, edges);
+			}
+		}
+	}
+
+	/**
+	 * Finds distances with a plain sequential BFS, for comparison.
+	 */
+	static int[] sequentialDistances(CsrGraph g, int source) {
+		int[] dist = new int[g.size()];
+		Arrays.fill(dist, -1);
+		int[] queue = new int[g.size()];
+		int head = 0, tail = 0;
+		dist[source] = 0;
+		queue[tail++] = source;
+		while (head < tail) {
+			int v = queue[head++];
+			for (int k = g.offsets[v]; k < g.offsets[v+1]; k++) {
+				int w = g.neighbors[k];
+				if (dist[w] < 0) {
+					dist[w] = dist[v] + 1;
+					queue[tail++] = w;
+				}
+			}
+		}
+		return dist;
+	}
+
+	/**
+	 * Finds the distances from the member with the most friends, with the sequential BFS
+	 * and then with pools of 1, 2, 4, ... threads up to maxThreads, checks that they agree,
+	 * and prints the best time of each and the speedup over one thread.
+	 *
+	 * Usage: ParallelBfs friendsFile [maxThreads [runs]]
+	 */
+	public static void main(String[] args)
+	throws FileNotFoundException {
+		if (args.length < 1) {
+			System.out.println("Usage: ParallelBfs friendsFile [maxThreads [runs]]");
+			return;
+		}
+		int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		int runs = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+		Scanner sc = new Scanner(new File(args[0]));
+		CsrGraph g = new CsrGraph(sc);
+		sc.close();
+		int hub = 0;
+		for (int v=1; v < g.size(); v++) {
+			if (g.degree(v) > g.degree(hub)) {
+				hub = v;
+			}
+		}
+		System.out.printf("%d members, %d friendships, source %s with %d friends%n",
+				g.size(), g.neighbors.length/2, g.names[hub], g.degree(hub));
+
+		int[] expected = null;
+		long best = Long.MAX_VALUE;
+		for (int r=0; r < runs; r++) {
+			long start = System.nanoTime();
+			expected = sequentialDistances(g, hub);
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		System.out.printf("sequential: %.1f ms, eccentricity %d%n", best / 1e6, eccentricity(expected));
+
+		double oneThread = 0;
+		for (int threads=1; threads <= maxThreads; threads = threads < maxThreads ? Math.min(threads*2, maxThreads) : threads+1) {
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			ParallelBfs bfs = new ParallelBfs(g, pool);
+			best = Long.MAX_VALUE;
+			boolean same = true;
+			for (int r=0; r < runs; r++) {
+				long start = System.nanoTime();
+				int[] dist = bfs.distances(hub);
+				best = Math.min(best, System.nanoTime() - start);
+				same &= Arrays.equals(dist, expected);
+			}
+			pool.shutdown();
+			if (threads == 1) {
+				oneThread = best;
+			}
+			System.out.printf("%2d threads: %.1f ms, speedup %.2f%s%n",
+					threads, best / 1e6, oneThread / best, same ? "" : ", DISTANCES DIFFER");
+		}
+	}
+}
@@ -0,0 +1,334 @@
+package lse;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * This class runs a batch of "kw1 or kw2 or ... or kwN" searches, with the same rules as
+ * LittleSearchEngine.topKSearch, sharing work across the queries of the batch:
+ *
+ *   - identical queries (same keywords, in the same order, ignoring case) are run once;
+ *   - the distinct keywords of the whole batch are collected, and the posting list of
+ *     each is looked up and decoded once, into an array of (document id, frequency)
+ *     pairs that all the queries with that keyword then read;
+ *   - only the head of each list that any query can need is decoded: TopKSearch takes
+ *     at most k + (k-1)(N-1) postings in all for a query of N keywords (each document
+ *     it skips as a duplicate is one of the k it found, seen again in another list), so
+ *     k*N postings of each list are always enough;
+ *   - the queries are grouped by their first keyword, so that queries sharing it run one
+ *     after the other on the same thread while its list is in cache, and are split
+ *     among a pool of threads.
+ *
+ * Results come back in the order of the input queries.
+ *
+ */
+class BatchSearch {
+
+	/**
+	 * Number of queries a worker thread takes at a time.
+	 */
+	static final int CHUNK_SIZE = 1024;
+
+	/**
+	 * A distinct query, as the ids of its keywords.
+	 */
+	static class Query {
+		final int[] terms;
+		final int hash;
+
+		Query(int[] terms) {
+			this.terms = terms;
+			hash = Arrays.hashCode(terms);
+		}
+
+		public int hashCode() {
+			return hash;
+		}
+
+		public boolean equals(Object o) {
+			return o instanceof Query && Arrays.equals(terms, ((Query)o).terms);
+		}
+	}
+
+	/**
+	 * Index searched.
+	 */
+	final PostingSource source;
+
+	/**
+	 * Maximum number of documents in each result.
+	 */
+	final int k;
+
+	/**
+	 * Decoded postings of each keyword of the batch, by keyword id; null for keywords not
+	 * in the index.
+	 */
+	final ArrayList<int[]> postings = new ArrayList<int[]>();
+
+	/**
+	 * Distinct queries.
+	 */
+	final ArrayList<Query> distinct = new ArrayList<Query>();
+
+	/**
+	 * Index in distinct of each input query.
+	 */
+	final int[] queryOf;
+
+	/**
+	 * Results of the distinct queries. Each worker thread sets the results of its own
+	 * queries; they are read after all the workers are done.
+	 */
+	ArrayList<ArrayList<String>> results;
+
+	/**
+	 * Groups a batch of queries, and decodes the postings of their keywords.
+	 *
+	 * @param source Index to search
+	 * @param k Maximum number of documents in each result
+	 * @param queries Queries, each an array of keywords in order of precedence
+	 */
+	BatchSearch(PostingSource source, int k, List<String[]> queries) {
+		this.source = source;
+		this.k = k;
+		queryOf = new int[queries.size()];
+		// keyword ids, by keyword as given and by lower cased keyword
+		HashMap<String,Integer> ids = new HashMap<String,Integer>();
+		ArrayList<String> terms = new ArrayList<String>();
+		// longest query each keyword is in
+		int[] longest = new int[16];
+		HashMap<Query,Integer> seen = new HashMap<Query,Integer>(queries.size()*2);
+		for (int q=0; q < queryOf.length; q++) {
+			String[] kws = queries.get(q);
+			int[] queryTerms = new int[kws.length];
+			for (int i=0; i < kws.length; i++) {
+				Integer id = ids.get(kws[i]);
+				if (id == null) {
+					String term = kws[i].toLowerCase();
+					id = ids.get(term);
+					if (id == null) {
+						id = terms.size();
+						terms.add(term);
+						ids.put(term, id);
+						if (id == longest.length) {
+							longest = Arrays.copyOf(longest, 2*id);
+						}
+					}
+					ids.put(kws[i], id);
+				}
+				queryTerms[i] = id;
+				longest[id] = Math.max(longest[id], kws.length);
+			}
+			Query query = new Query(queryTerms);
+			Integer d = seen.get(query);
+			if (d == null) {
+				d = distinct.size();
+				distinct.add(query);
+				seen.put(query, d);
+			}
+			queryOf[q] = d;
+		}
+		for (int t=0; t < terms.size(); t++) {
+			postings.add(decode(terms.get(t), (long)k * longest[t]));
+		}
+	}
+
+	/**
+	 * Decodes the first postings of a keyword into (document id, frequency) pairs.
+	 *
+	 * @param term Keyword
+	 * @param max Maximum number of postings to decode
+	 * @return Pairs, null if the keyword is not in the index
+	 */
+	private int[] decode(String term, long max) {
+		if (source instanceof IndexSnapshot) {
+			// already decoded
+			return ((IndexSnapshot)source).postings.get(term);
+		}
+		PostingCursor c = source.cursor(term);
+		if (c == null) {
+			return null;
+		}
+		int[] pairs = new int[16];
+		int n = 0;
+		while (n < 2*max && c.next()) {
+			if (n == pairs.length) {
+				pairs = Arrays.copyOf(pairs, n*2);
+			}
+			pairs[n++] = c.docId;
+			pairs[n++] = c.frequency;
+		}
+		return Arrays.copyOf(pairs, n);
+	}
+
+	/**
+	 * Runs the batch.
+	 *
+	 * @param threads Number of worker threads
+	 * @return Results, in the order of the input queries; a null result means no matches
+	 */
+	ArrayList<ArrayList<String>> run(int threads) {
+		results = new ArrayList<ArrayList<String>>(Collections.<ArrayList<String>>nCopies(distinct.size(), null));
+
+		// group the queries by first keyword (counting sort); queries with no keywords first
+		int[] start = new int[postings.size()+2];
+		for (Query query : distinct) {
+			start[(query.terms.length == 0 ? 0 : query.terms[0]+1) + 1]++;
+		}
+		for (int i=1; i < start.length; i++) {
+			start[i] += start[i-1];
+		}
+		final int[] order = new int[distinct.size()];
+		for (int d=0; d < order.length; d++) {
+			int[] terms = distinct.get(d).terms;
+			order[start[terms.length == 0 ? 0 : terms[0]+1]++] = d;
+		}
+
+		if (threads <= 1 || order.length <= CHUNK_SIZE) {
+			runQueries(order, 0, order.length);
+		} else {
+			ExecutorService pool = Executors.newFixedThreadPool(threads);
+			try {
+				ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+				for (int from=0; from < order.length; from += CHUNK_SIZE) {
+					final int lo = from, hi = Math.min(from + CHUNK_SIZE, order.length);
+					futures.add(pool.submit(new Runnable() {
+						public void run() {
+							runQueries(order, lo, hi);
+						}
+					}));
+				}
+				for (Future<?> f : futures) {
+					f.get();
+				}
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("interrupted while running batch", ie);
+			} catch (ExecutionException ee) {
+				Throwable cause = ee.getCause();
+				throw cause instanceof RuntimeException ? (RuntimeException)cause : new IllegalStateException(cause);
+			} finally {
+				pool.shutdown();
+			}
+		}
+
+		// a query asked more than once gets a copy of the result for each time after the first
+		ArrayList<ArrayList<String>> all = new ArrayList<ArrayList<String>>(queryOf.length);
+		boolean[] given = new boolean[distinct.size()];
+		for (int d : queryOf) {
+			ArrayList<String> result = results.get(d);
+			all.add(result == null || !given[d] ? result : new ArrayList<String>(result));
+			given[d] = true;
+		}
+		return all;
+	}
+
+	/**
+	 * Runs the distinct queries order[lo..hi-1].
+	 */
+	private void runQueries(int[] order, int lo, int hi) {
+		for (int i=lo; i < hi; i++) {
+			int d = order[i];
+			int[] terms = distinct.get(d).terms;
+			PostingCursor[] cursors = new PostingCursor[terms.length];
+			boolean any = false;
+			for (int j=0; j < terms.length; j++) {
+				int[] pairs = postings.get(terms[j]);
+				if (pairs != null) {
+					cursors[j] = new IndexSnapshot.PairCursor(pairs);
+					any = true;
+				}
+			}
+			if (!any) {
+				continue;
+			}
+			int[] ids = TopKSearch.search(cursors, k);
+			ArrayList<String> result = new ArrayList<String>(ids.length);
+			for (int id : ids) {
+				result.add(source.document(id));
+			}
+			results.set(d, result);
+		}
+	}
+
+	/**
+	 * Indexes a docs file, and times a batch of random two keyword queries run with
+	 * batchSearch against the same queries run one at a time with top5search, on the
+	 * engine and on a MappedIndex saved from it, checking that the results are the same.
+	 * As in a real query log, a few keywords are asked for far more often than the rest:
+	 * keywords are drawn with a probability roughly inversely proportional to their rank
+	 * by number of documents.
+	 *
+	 * Usage: BatchSearch docsFile noiseWordsFile [queries [threads]]
+	 */
+	public static void main(String[] args)
+	throws java.io.IOException {
+		if (args.length < 2) {
+			System.out.println("Usage: BatchSearch docsFile noiseWordsFile [queries [threads]]");
+			return;
+		}
+		int n = args.length > 2 ? Integer.parseInt(args[2]) : 100000;
+		int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+
+		LittleSearchEngine engine = new LittleSearchEngine();
+		engine.makeIndex(args[0], args[1]);
+		final HashMap<String,ArrayList<Occurrence>> index = engine.keywordsIndex;
+		String[] words = index.keySet().toArray(new String[0]);
+		if (words.length == 0) {
+			System.out.println("No keywords in the index");
+			return;
+		}
+		Arrays.sort(words, new Comparator<String>() {
+			public int compare(String a, String b) {
+				int c = index.get(b).size() - index.get(a).size();
+				return c != 0 ? c : a.compareTo(b);
+			}
+		});
+		Random random = new Random(1);
+		ArrayList<String[]> queries = new ArrayList<String[]>(n);
+		for (int q=0; q < n; q++) {
+			String[] kws = new String[2];
+			for (int i=0; i < kws.length; i++) {
+				// log-uniform rank
+				kws[i] = words[(int)Math.pow(words.length, random.nextDouble()) - 1];
+			}
+			queries.add(kws);
+		}
+
+		engine.publish();
+		java.io.File file = java.io.File.createTempFile("lse-batch", ".idx");
+		file.deleteOnExit();
+		MappedIndex.save(engine, file.getPath());
+		MappedIndex mapped = new MappedIndex(file.getPath());
+
+		for (int round=0; round < 3; round++) {
+			long start = System.nanoTime();
+			ArrayList<ArrayList<String>> one = new ArrayList<ArrayList<String>>(n);
+			for (String[] kws : queries) {
+				one.add(engine.top5search(kws[0], kws[1]));
+			}
+			double loopMs = (System.nanoTime() - start) / 1e6;
+			start = System.nanoTime();
+			ArrayList<ArrayList<String>> batch = engine.batchSearch(5, queries, threads);
+			double batchMs = (System.nanoTime() - start) / 1e6;
+			report("engine", n, threads, loopMs, batchMs, one.equals(batch));
+
+			start = System.nanoTime();
+			ArrayList<ArrayList<String>> mappedOne = new ArrayList<ArrayList<String>>(n);
+			for (String[] kws : queries) {
+				mappedOne.add(mapped.top5search(kws[0], kws[1]));
+			}
+			loopMs = (System.nanoTime() - start) / 1e6;
+			start = System.nanoTime();
+			batch = mapped.batchSearch(5, queries, threads);
+			batchMs = (System.nanoTime() - start) / 1e6;
+			report("mapped", n, threads, loopMs, batchMs, one.equals(mappedOne) && one.equals(batch));
+		}
+	}
+
+	private static void report(String name, int n, int threads, double loopMs, double batchMs, boolean same) {
+		System.out.printf("%s, %d queries: top5search loop %.1f ms, batchSearch (%d threads) %.1f ms, %.1fx, %s%n",
+				name, n, loopMs, threads, batchMs, loopMs / batchMs, same ? "same results" : "RESULTS DIFFER");
+	}
+}
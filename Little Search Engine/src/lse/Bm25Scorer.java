@@ -0,0 +1,195 @@
+package lse;
+
+import java.util.*;
+
+/**
+ * This class ranks documents for a set of keywords with the Okapi BM25 formula:
+ *
+ *   score(d) = sum over keywords t in d of  idf(t) * f(t,d) * (K1+1) / (f(t,d) + norm(d))
+ *   idf(t)   = ln(1 + (N - df(t) + 0.5) / (df(t) + 0.5))
+ *   norm(d)  = K1 * (1 - B + B * length(d) / average length)
+ *
+ * where f(t,d) is the frequency of t in d, df(t) is the number of documents t occurs in
+ * (the length of its Occurrence list), N is the number of documents, and a document's
+ * length is its total number of keyword occurrences, counted by the engine as it indexes.
+ *
+ * All the idf and norm values are computed when the scorer is made, once per snapshot, so
+ * a search only adds up precomputed factors over the keywords' postings. Scores are added
+ * up in an array indexed by document id, one per thread, which is cleared after each
+ * search by going back over the documents it scored.
+ *
+ */
+class Bm25Scorer {
+
+	/**
+	 * Term frequency saturation.
+	 */
+	static final float K1 = 1.2f;
+
+	/**
+	 * Document length normalization.
+	 */
+	static final float B = 0.75f;
+
+	/**
+	 * Snapshot being searched.
+	 */
+	final IndexSnapshot snapshot;
+
+	/**
+	 * norm(d), by document id.
+	 */
+	final float[] norms;
+
+	/**
+	 * idf(t), by keyword.
+	 */
+	final HashMap<String,Float> idfs;
+
+	/**
+	 * Score accumulator of one thread: a score for each document id, all 0 between
+	 * searches, and the ids of the documents the current search has scored.
+	 */
+	static class Accumulator {
+		float[] scores = new float[0];
+		int[] scored = new int[64];
+	}
+
+	/**
+	 * Accumulator of each thread, shared by the scorers of all snapshots.
+	 */
+	static final ThreadLocal<Accumulator> accumulators = new ThreadLocal<Accumulator>();
+
+	/**
+	 * Precomputes the norms and idfs of a snapshot.
+	 *
+	 * @param snapshot Index snapshot
+	 */
+	Bm25Scorer(IndexSnapshot snapshot) {
+		this.snapshot = snapshot;
+		int numDocs = 0;
+		long total = 0;
+		for (int len : snapshot.docLengths) {
+			if (len > 0) {
+				numDocs++;
+				total += len;
+			}
+		}
+		float avg = numDocs == 0 ? 1 : (float)total / numDocs;
+		norms = new float[snapshot.docLengths.length];
+		for (int d=0; d < norms.length; d++) {
+			norms[d] = K1 * (1 - B + B * snapshot.docLengths[d] / avg);
+		}
+		idfs = new HashMap<String,Float>(snapshot.postings.size()*2);
+		for (String kw : snapshot.postings.keys()) {
+			int df = snapshot.postings.get(kw).length/2;
+			idfs.put(kw, (float)Math.log(1 + (numDocs - df + 0.5) / (df + 0.5)));
+		}
+	}
+
+	/**
+	 * Finds the top k documents for "kw1 or kw2 or ... or kwN" by BM25 score.
+	 *
+	 * @param k Maximum number of documents in the result
+	 * @param keywords Keywords; repeated keywords count once
+	 * @return Matching documents, highest score first, ties in document id order; null if there are none
+	 */
+	ArrayList<String> search(int k, String... keywords) {
+		Accumulator acc = accumulators.get();
+		if (acc == null) {
+			acc = new Accumulator();
+			accumulators.set(acc);
+		}
+		if (acc.scores.length < norms.length) {
+			acc.scores = new float[norms.length];
+		}
+		// every term of a score is positive, so 0 means not scored yet
+		float[] scores = acc.scores;
+		int n = 0;
+		try {
+			HashSet<String> done = new HashSet<String>();
+			for (String keyword : keywords) {
+				String kw = keyword.toLowerCase();
+				int[] pairs = snapshot.postings.get(kw);
+				if (pairs == null || !done.add(kw)) {
+					continue;
+				}
+				float idf = idfs.get(kw);
+				for (int i=0; i < pairs.length; i += 2) {
+					int d = pairs[i], f = pairs[i+1];
+					if (scores[d] == 0) {
+						if (n == acc.scored.length) {
+							acc.scored = Arrays.copyOf(acc.scored, n*2);
+						}
+						acc.scored[n++] = d;
+					}
+					scores[d] += idf * f * (K1 + 1) / (f + norms[d]);
+				}
+			}
+			if (n == 0) {
+				return null;
+			}
+
+			// keep the best k in a min heap, worst on top
+			int[] scored = acc.scored;
+			int[] heap = new int[Math.min(k, n)];
+			int size = 0;
+			for (int i=0; i < n; i++) {
+				int d = scored[i];
+				if (size < heap.length) {
+					heap[size] = d;
+					siftUp(heap, size++, scores);
+				} else if (worse(heap[0], d, scores)) {
+					heap[0] = d;
+					siftDown(heap, size, scores);
+				}
+			}
+			String[] docs = new String[size];
+			for (int i=docs.length-1; i >= 0; i--) {
+				docs[i] = snapshot.document(heap[0]);
+				heap[0] = heap[--size];
+				siftDown(heap, size, scores);
+			}
+			return new ArrayList<String>(Arrays.asList(docs));
+		} finally {
+			for (int i=0; i < n; i++) {
+				scores[acc.scored[i]] = 0;
+			}
+		}
+	}
+
+	/**
+	 * Returns true if document a ranks below document b: a lower score, or the same score
+	 * and a higher document id.
+	 */
+	private static boolean worse(int a, int b, float[] scores) {
+		int c = Float.compare(scores[a], scores[b]);
+		return c != 0 ? c < 0 : a > b;
+	}
+
+	private static void siftUp(int[] heap, int i, float[] scores) {
+		int d = heap[i];
+		while (i > 0 && worse(d, heap[(i-1) >>> 1], scores)) {
+			heap[i] = heap[(i-1) >>> 1];
+			i = (i-1) >>> 1;
+		}
+		heap[i] = d;
+	}
+
+	private static void siftDown(int[] heap, int size, float[] scores) {
+		if (size == 0) {
+			return;
+		}
+		int d = heap[0], i = 0;
+		for (int c; (c = 2*i + 1) < size; i = c) {
+			if (c+1 < size && worse(heap[c+1], heap[c], scores)) {
+				c++;
+			}
+			if (!worse(heap[c], d, scores)) {
+				break;
+			}
+			heap[i] = heap[c];
+		}
+		heap[i] = d;
+	}
+}
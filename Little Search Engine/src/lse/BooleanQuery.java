@@ -0,0 +1,476 @@
+package lse;
+
+import java.util.*;
+
+/**
+ * This class parses and runs boolean queries over an IndexSnapshot. The query language is:
+ *
+ *   query   := andExpr ( "OR" andExpr )*
+ *   andExpr := notExpr ( [ "AND" ] notExpr )*
+ *   notExpr := "NOT" notExpr | "(" query ")" | keyword
+ *
+ * Operators must be in upper case; juxtaposed terms are ANDed. Keywords are matched in
+ * lower case. For example: "alice AND (rabbit OR queen) NOT hatter".
+ *
+ * Queries are run on the doc id ordered copies of the posting lists (DocIdPostings), with
+ * lazy iterators: an AND leapfrogs its operands from the shortest one, advancing the
+ * others to each candidate document with the skip array of their postings, so long lists
+ * are mostly jumped over. NOT is only allowed as an operand of an AND (or a juxtaposition),
+ * where it excludes documents; a query cannot be made of NOTs alone.
+ *
+ * Each matching document is scored by the sum of its frequencies for the keywords it
+ * matched (other than those under a NOT), and results are ranked by score, highest first,
+ * with ties in document id order.
+ *
+ */
+public class BooleanQuery {
+
+	/**
+	 * Doc id that iterators return when they are done.
+	 */
+	static final int NO_MORE_DOCS = Integer.MAX_VALUE;
+
+	/**
+	 * Root of the parsed query.
+	 */
+	final Node root;
+
+	/**
+	 * Parses a query.
+	 *
+	 * @param query Query text
+	 * @throws IllegalArgumentException If the query is not well formed
+	 */
+	public BooleanQuery(String query) {
+		Parser p = new Parser(query);
+		root = p.query();
+		if (p.pos < p.tokens.size()) {
+			throw new IllegalArgumentException("unexpected '" + p.tokens.get(p.pos) + "' in query: " + query);
+		}
+		if (root instanceof Not) {
+			throw new IllegalArgumentException("NOT needs a keyword to exclude from: " + query);
+		}
+	}
+
+	/**
+	 * Runs this query on a snapshot.
+	 *
+	 * @param snapshot Index snapshot
+	 * @param k Maximum number of documents in the result
+	 * @return Matching documents, highest score first; null if there are none
+	 * @throws IllegalArgumentException If k is less than 1
+	 */
+	public ArrayList<String> search(IndexSnapshot snapshot, int k) {
+		TopKSearch.checkK(k);
+		DocIterator it = root.iterator(snapshot);
+		// keep the best k (score, doc) pairs in a min heap
+		PriorityQueue<long[]> best = new PriorityQueue<long[]>(Math.min(k, 1024) + 1, new Comparator<long[]>() {
+			public int compare(long[] a, long[] b) {
+				return a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(b[1], a[1]);
+			}
+		});
+		for (int doc = it.next(); doc != NO_MORE_DOCS; doc = it.next()) {
+			best.add(new long[] {it.score(), doc});
+			if (best.size() > k) {
+				best.poll();
+			}
+		}
+		if (best.isEmpty()) {
+			return null;
+		}
+		String[] docs = new String[best.size()];
+		for (int i=docs.length-1; i >= 0; i--) {
+			docs[i] = snapshot.document((int)best.poll()[1]);
+		}
+		return new ArrayList<String>(Arrays.asList(docs));
+	}
+
+	/**
+	 * Returns the query in fully parenthesized form.
+	 */
+	public String toString() {
+		return root.toString();
+	}
+
+	/**
+	 * Iterator over the matching documents of a query node, in ascending order of ids.
+	 */
+	static abstract class DocIterator {
+
+		/**
+		 * Current document, -1 before the first call to next or advance.
+		 */
+		int doc = -1;
+
+		/**
+		 * Moves to the next matching document.
+		 *
+		 * @return Its id, NO_MORE_DOCS if there is none
+		 */
+		abstract int next();
+
+		/**
+		 * Moves to the first matching document whose id is at least target.
+		 *
+		 * @param target Document id, greater than the current one
+		 * @return Its id, NO_MORE_DOCS if there is none
+		 */
+		abstract int advance(int target);
+
+		/**
+		 * Returns the score of the current document.
+		 */
+		abstract long score();
+
+		/**
+		 * Returns an upper bound on the number of documents this iterator matches.
+		 */
+		abstract long cost();
+	}
+
+	/**
+	 * Iterator over a keyword's postings.
+	 */
+	static class TermIterator extends DocIterator {
+		final DocIdPostings postings;
+		int pos = -1;
+
+		TermIterator(DocIdPostings postings) {
+			this.postings = postings;
+		}
+
+		int next() {
+			pos++;
+			return doc = pos < postings.size() ? postings.docIds[pos] : NO_MORE_DOCS;
+		}
+
+		int advance(int target) {
+			pos = postings.advance(Math.max(pos, 0), target);
+			return doc = pos < postings.size() ? postings.docIds[pos] : NO_MORE_DOCS;
+		}
+
+		long score() {
+			return postings.freqs[pos];
+		}
+
+		long cost() {
+			return postings.size();
+		}
+	}
+
+	/**
+	 * Iterator over no documents, for keywords that are not in the index.
+	 */
+	static class EmptyIterator extends DocIterator {
+		int next() {
+			return doc = NO_MORE_DOCS;
+		}
+
+		int advance(int target) {
+			return doc = NO_MORE_DOCS;
+		}
+
+		long score() {
+			return 0;
+		}
+
+		long cost() {
+			return 0;
+		}
+	}
+
+	/**
+	 * Iterator over the documents that match all the required iterators and none of the
+	 * excluded ones.
+	 */
+	static class AndIterator extends DocIterator {
+		final DocIterator[] required;
+		final DocIterator[] excluded;
+
+		AndIterator(DocIterator[] required, DocIterator[] excluded) {
+			// leapfrog from the cheapest iterator
+			Arrays.sort(required, new Comparator<DocIterator>() {
+				public int compare(DocIterator a, DocIterator b) {
+					return Long.compare(a.cost(), b.cost());
+				}
+			});
+			this.required = required;
+			this.excluded = excluded;
+		}
+
+		int next() {
+			return doc = align(required[0].next());
+		}
+
+		int advance(int target) {
+			return doc = align(required[0].advance(target));
+		}
+
+		/**
+		 * Starting from a candidate of the lead iterator, finds the first document that all
+		 * required iterators agree on and no excluded iterator matches.
+		 */
+		private int align(int candidate) {
+			while (candidate != NO_MORE_DOCS) {
+				boolean agreed = true;
+				for (int i=1; i < required.length; i++) {
+					DocIterator it = required[i];
+					int d = it.doc < candidate ? it.advance(candidate) : it.doc;
+					if (d > candidate) {
+						candidate = required[0].advance(d);
+						agreed = false;
+						break;
+					}
+				}
+				if (agreed) {
+					if (!isExcluded(candidate)) {
+						return candidate;
+					}
+					candidate = required[0].next();
+				}
+			}
+			return NO_MORE_DOCS;
+		}
+
+		private boolean isExcluded(int candidate) {
+			for (DocIterator it : excluded) {
+				int d = it.doc < candidate ? it.advance(candidate) : it.doc;
+				if (d == candidate) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		long score() {
+			long s = 0;
+			for (DocIterator it : required) {
+				s += it.score();
+			}
+			return s;
+		}
+
+		long cost() {
+			return required[0].cost();
+		}
+	}
+
+	/**
+	 * Iterator over the documents that match any of the given iterators.
+	 */
+	static class OrIterator extends DocIterator {
+		final DocIterator[] any;
+
+		OrIterator(DocIterator[] any) {
+			this.any = any;
+		}
+
+		int next() {
+			return doc == NO_MORE_DOCS ? doc : advance(doc + 1);
+		}
+
+		int advance(int target) {
+			int min = NO_MORE_DOCS;
+			for (DocIterator it : any) {
+				int d = it.doc < target ? it.advance(target) : it.doc;
+				min = Math.min(min, d);
+			}
+			return doc = min;
+		}
+
+		long score() {
+			long s = 0;
+			for (DocIterator it : any) {
+				if (it.doc == doc) {
+					s += it.score();
+				}
+			}
+			return s;
+		}
+
+		long cost() {
+			long c = 0;
+			for (DocIterator it : any) {
+				c += it.cost();
+			}
+			return c;
+		}
+	}
+
+	/**
+	 * Node of a parsed query.
+	 */
+	static abstract class Node {
+		abstract DocIterator iterator(IndexSnapshot snapshot);
+	}
+
+	static class Term extends Node {
+		final String keyword;
+
+		Term(String keyword) {
+			this.keyword = keyword;
+		}
+
+		DocIterator iterator(IndexSnapshot snapshot) {
+			DocIdPostings postings = snapshot.docIdPostings(keyword);
+			return postings == null ? new EmptyIterator() : new TermIterator(postings);
+		}
+
+		public String toString() {
+			return keyword;
+		}
+	}
+
+	static class Not extends Node {
+		final Node operand;
+
+		Not(Node operand) {
+			this.operand = operand;
+		}
+
+		DocIterator iterator(IndexSnapshot snapshot) {
+			throw new IllegalArgumentException("NOT can only be used with AND");
+		}
+
+		public String toString() {
+			return "NOT " + operand;
+		}
+	}
+
+	static class And extends Node {
+		final ArrayList<Node> operands;
+
+		And(ArrayList<Node> operands) {
+			this.operands = operands;
+		}
+
+		DocIterator iterator(IndexSnapshot snapshot) {
+			ArrayList<DocIterator> required = new ArrayList<DocIterator>();
+			ArrayList<DocIterator> excluded = new ArrayList<DocIterator>();
+			for (Node n : operands) {
+				if (n instanceof Not) {
+					Node inner = ((Not)n).operand;
+					if (inner instanceof Not) {
+						// NOT NOT x is x
+						required.add(((Not)inner).operand.iterator(snapshot));
+					} else {
+						excluded.add(inner.iterator(snapshot));
+					}
+				} else {
+					required.add(n.iterator(snapshot));
+				}
+			}
+			if (required.isEmpty()) {
+				throw new IllegalArgumentException("NOT needs a keyword to exclude from: " + this);
+			}
+			return new AndIterator(required.toArray(new DocIterator[required.size()]),
+					excluded.toArray(new DocIterator[excluded.size()]));
+		}
+
+		public String toString() {
+			return join(operands, " AND ");
+		}
+	}
+
+	static class Or extends Node {
+		final ArrayList<Node> operands;
+
+		Or(ArrayList<Node> operands) {
+			this.operands = operands;
+		}
+
+		DocIterator iterator(IndexSnapshot snapshot) {
+			DocIterator[] its = new DocIterator[operands.size()];
+			for (int i=0; i < its.length; i++) {
+				its[i] = operands.get(i).iterator(snapshot);
+			}
+			return new OrIterator(its);
+		}
+
+		public String toString() {
+			return join(operands, " OR ");
+		}
+	}
+
+	private static String join(ArrayList<Node> nodes, String op) {
+		StringBuilder sb = new StringBuilder("(");
+		for (int i=0; i < nodes.size(); i++) {
+			if (i > 0) {
+				sb.append(op);
+			}
+			sb.append(nodes.get(i));
+		}
+		return sb.append(')').toString();
+	}
+
+	/**
+	 * Recursive descent parser for the query language.
+	 */
+	static class Parser {
+		final String text;
+		final ArrayList<String> tokens = new ArrayList<String>();
+		int pos;
+
+		Parser(String text) {
+			this.text = text;
+			StringTokenizer st = new StringTokenizer(text, " \t\n\r\f()", true);
+			while (st.hasMoreTokens()) {
+				String t = st.nextToken();
+				if (!t.trim().isEmpty()) {
+					tokens.add(t);
+				}
+			}
+			if (tokens.isEmpty()) {
+				throw new IllegalArgumentException("empty query");
+			}
+		}
+
+		Node query() {
+			ArrayList<Node> operands = new ArrayList<Node>();
+			operands.add(andExpr());
+			while (accept("OR")) {
+				operands.add(andExpr());
+			}
+			return operands.size() == 1 ? operands.get(0) : new Or(operands);
+		}
+
+		Node andExpr() {
+			ArrayList<Node> operands = new ArrayList<Node>();
+			operands.add(notExpr());
+			while (pos < tokens.size() && !peek("OR") && !peek(")")) {
+				accept("AND");
+				operands.add(notExpr());
+			}
+			return operands.size() == 1 ? operands.get(0) : new And(operands);
+		}
+
+		Node notExpr() {
+			if (accept("NOT")) {
+				return new Not(notExpr());
+			}
+			if (accept("(")) {
+				Node n = query();
+				if (!accept(")")) {
+					throw new IllegalArgumentException("missing ')' in query: " + text);
+				}
+				return n;
+			}
+			if (pos == tokens.size() || peek(")") || peek("AND") || peek("OR")) {
+				throw new IllegalArgumentException("keyword expected in query: " + text);
+			}
+			return new Term(tokens.get(pos++).toLowerCase());
+		}
+
+		boolean peek(String t) {
+			return pos < tokens.size() && tokens.get(pos).equals(t);
+		}
+
+		boolean accept(String t) {
+			if (peek(t)) {
+				pos++;
+				return true;
+			}
+			return false;
+		}
+	}
+}
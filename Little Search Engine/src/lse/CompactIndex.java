@@ -0,0 +1,264 @@
+package lse;
+
+import java.util.*;
+
+/**
+ * This class is a compact, read-only copy of a keywords index. Documents are referred
+ * to by their ids in a DocumentTable, and all the Occurrence lists are packed into a
+ * single byte array, one (document id, frequency) pair after the other, in the same
+ * descending order of frequencies as the original lists.
+ *
+ * Each pair is stored as two variable length integers (7 bits per byte, high bit set on
+ * all but the last byte): the document id, and the difference between the previous
+ * frequency in the list and this one. Since the lists are in descending order of
+ * frequencies, the differences are never negative, and are mostly 0. The first frequency
+ * of a list is stored as is.
+ *
+ * The search methods return document names, just like the ones in LittleSearchEngine.
+ *
+ */
+public class CompactIndex {
+
+	/**
+	 * Documents referred to by the postings.
+	 */
+	DocumentTable documents;
+
+	/**
+	 * Term ids, by keyword.
+	 */
+	HashMap<String,Integer> termIds;
+
+	/**
+	 * Offset of each term's postings in the postings array, by term id. There is one extra
+	 * entry at the end, for the end of the last term's postings.
+	 */
+	int[] offsets;
+
+	/**
+	 * Number of postings of each term, by term id.
+	 */
+	int[] lengths;
+
+	/**
+	 * Encoded postings of all terms.
+	 */
+	byte[] postings;
+
+	/**
+	 * Builds a compact copy of an engine's keywords index.
+	 *
+	 * @param engine Engine whose index is to be copied
+	 */
+	public CompactIndex(LittleSearchEngine engine) {
+		this(merged(engine), engine.documents);
+	}
+
+	/**
+	 * Returns an engine's keywords index, after merging any pending occurrences into it.
+	 */
+	private static HashMap<String,ArrayList<Occurrence>> merged(LittleSearchEngine engine) {
+		engine.mergePending();
+		return engine.keywordsIndex;
+	}
+
+	/**
+	 * Builds a compact copy of a keywords index.
+	 *
+	 * @param keywordsIndex Keywords index, with Occurrence lists in descending order of frequencies
+	 * @param documents Document table, to which any missing documents are added
+	 */
+	public CompactIndex(HashMap<String,ArrayList<Occurrence>> keywordsIndex, DocumentTable documents) {
+		this.documents = documents;
+		int numTerms = keywordsIndex.size();
+		termIds = new HashMap<String,Integer>(numTerms*2);
+		offsets = new int[numTerms+1];
+		lengths = new int[numTerms];
+		VarIntWriter out = new VarIntWriter(numTerms*8);
+		int id = 0;
+		for (Map.Entry<String,ArrayList<Occurrence>> e : keywordsIndex.entrySet()) {
+			termIds.put(e.getKey(), id);
+			offsets[id] = out.size;
+			ArrayList<Occurrence> occs = e.getValue();
+			lengths[id] = occs.size();
+			for (int i=0; i < occs.size(); i++) {
+				Occurrence occ = occs.get(i);
+				out.write(documents.add(occ.document));
+				out.write(i == 0 ? occ.frequency : occs.get(i-1).frequency - occ.frequency);
+			}
+			id++;
+		}
+		offsets[numTerms] = out.size;
+		postings = Arrays.copyOf(out.buf, out.size);
+	}
+
+	/**
+	 * Returns the number of keywords in the index.
+	 *
+	 * @return Number of keywords
+	 */
+	public int numTerms() {
+		return lengths.length;
+	}
+
+	/**
+	 * Returns the total number of postings in the index.
+	 *
+	 * @return Number of postings
+	 */
+	public long numPostings() {
+		long n = 0;
+		for (int len : lengths) {
+			n += len;
+		}
+		return n;
+	}
+
+	/**
+	 * Returns a cursor over the postings of a keyword.
+	 *
+	 * @param kw Keyword (lower case)
+	 * @return Cursor over the keyword's postings, null if the keyword is not in the index
+	 */
+	public Cursor cursor(String kw) {
+		Integer id = termIds.get(kw);
+		return id == null ? null : new Cursor(id);
+	}
+
+	/**
+	 * Returns the Occurrence list of a keyword, decoded from the compact postings.
+	 *
+	 * @param kw Keyword (lower case)
+	 * @return Occurrences in descending order of frequencies, null if the keyword is not in the index
+	 */
+	public ArrayList<Occurrence> occurrences(String kw) {
+		Cursor c = cursor(kw);
+		if (c == null) {
+			return null;
+		}
+		ArrayList<Occurrence> occs = new ArrayList<Occurrence>(c.remaining);
+		while (c.next()) {
+			occs.add(new Occurrence(documents.name(c.docId), c.frequency));
+		}
+		return occs;
+	}
+
+	/**
+	 * Search result for "kw1 or kw2", with the same rules as LittleSearchEngine.top5search:
+	 * descending order of frequencies, each document at most once, ties broken in favor
+	 * of kw1, and at most 5 documents.
+	 *
+	 * @param kw1 First keyword
+	 * @param kw2 Second keyword
+	 * @return List of documents in which either kw1 or kw2 occurs, null if there are no matches
+	 */
+	public ArrayList<String> top5search(String kw1, String kw2) {
+		return topKSearch(5, kw1, kw2);
+	}
+
+	/**
+	 * Search result for "kw1 or kw2 or ... or kwN", with the same rules as
+	 * LittleSearchEngine.topKSearch.
+	 *
+	 * @param k Maximum number of documents in the result
+	 * @param keywords Keywords, in order of precedence for breaking ties
+	 * @return List of documents in which any of the keywords occurs, null if there are no matches
+	 * @throws IllegalArgumentException If k is less than 1
+	 */
+	public ArrayList<String> topKSearch(int k, String... keywords) {
+		TopKSearch.checkK(k);
+		PostingCursor[] cursors = new PostingCursor[keywords.length];
+		boolean any = false;
+		for (int i=0; i < keywords.length; i++) {
+			cursors[i] = cursor(keywords[i].toLowerCase());
+			any |= cursors[i] != null;
+		}
+		if (!any) {
+			return null;
+		}
+		int[] ids = TopKSearch.search(cursors, k);
+		ArrayList<String> search = new ArrayList<String>(ids.length);
+		for (int id : ids) {
+			search.add(documents.name(id));
+		}
+		return search;
+	}
+
+	/**
+	 * This class decodes the postings of one keyword, one (document id, frequency) pair
+	 * at a time.
+	 */
+	public class Cursor extends PostingCursor {
+
+		/**
+		 * Position of the next posting in the postings array.
+		 */
+		int pos;
+
+		/**
+		 * Number of postings not yet decoded.
+		 */
+		int remaining;
+
+		/**
+		 * Number of postings in the list.
+		 */
+		public final int length;
+
+		Cursor(int termId) {
+			pos = offsets[termId];
+			remaining = lengths[termId];
+			length = remaining;
+			frequency = -1;
+		}
+
+		/**
+		 * Moves to the next posting.
+		 *
+		 * @return True if there is a next posting, false if the list is done
+		 */
+		public boolean next() {
+			if (remaining == 0) {
+				return false;
+			}
+			remaining--;
+			docId = readVarInt();
+			int delta = readVarInt();
+			frequency = frequency < 0 ? delta : frequency - delta;
+			return true;
+		}
+
+		private int readVarInt() {
+			int b = postings[pos++];
+			int v = b & 0x7f;
+			for (int shift = 7; b < 0; shift += 7) {
+				b = postings[pos++];
+				v |= (b & 0x7f) << shift;
+			}
+			return v;
+		}
+	}
+
+	/**
+	 * Growable byte buffer for variable length integers.
+	 */
+	static class VarIntWriter {
+		byte[] buf;
+		int size;
+
+		VarIntWriter(int capacity) {
+			buf = new byte[Math.max(capacity, 16)];
+		}
+
+		void write(int v) {
+			if (size + 5 > buf.length) {
+				buf = Arrays.copyOf(buf, buf.length*2);
+			}
+			while ((v & ~0x7f) != 0) {
+				buf[size++] = (byte)((v & 0x7f) | 0x80);
+				v >>>= 7;
+			}
+			buf[size++] = (byte)v;
+		}
+	}
+}
@@ -0,0 +1,108 @@
+package lse;
+
+import java.util.*;
+
+/**
+ * This class is a copy of a keyword's postings in ascending order of document ids, for
+ * the boolean query engine. The postings are split into blocks of BLOCK_SIZE, and the
+ * last document id of each block is kept in a separate skip array, so that an iterator
+ * can jump over whole blocks when it advances to a target document: it searches the skip
+ * array first, and then only one block of postings.
+ *
+ */
+class DocIdPostings {
+
+	/**
+	 * Number of postings per block.
+	 */
+	static final int BLOCK_SIZE = 64;
+
+	/**
+	 * Document ids, in ascending order.
+	 */
+	final int[] docIds;
+
+	/**
+	 * Frequencies, by position in docIds.
+	 */
+	final int[] freqs;
+
+	/**
+	 * Last document id of each block.
+	 */
+	final int[] blockLast;
+
+	/**
+	 * Builds the doc id ordered copy of postings held as (document id, frequency) pairs.
+	 *
+	 * @param pairs Postings, as in IndexSnapshot
+	 */
+	DocIdPostings(int[] pairs) {
+		int n = pairs.length/2;
+		long[] packed = new long[n];
+		for (int i=0; i < n; i++) {
+			packed[i] = ((long)pairs[2*i] << 32) | pairs[2*i+1];
+		}
+		Arrays.sort(packed);
+		docIds = new int[n];
+		freqs = new int[n];
+		for (int i=0; i < n; i++) {
+			docIds[i] = (int)(packed[i] >>> 32);
+			freqs[i] = (int)packed[i];
+		}
+		blockLast = new int[(n + BLOCK_SIZE - 1) / BLOCK_SIZE];
+		for (int b=0; b < blockLast.length; b++) {
+			blockLast[b] = docIds[Math.min(n, (b+1)*BLOCK_SIZE) - 1];
+		}
+	}
+
+	/**
+	 * Returns the number of postings.
+	 *
+	 * @return Number of postings
+	 */
+	int size() {
+		return docIds.length;
+	}
+
+	/**
+	 * Finds the first posting at or after from whose document id is at least target.
+	 *
+	 * @param from Position to start from
+	 * @param target Document id
+	 * @return Position of the posting, size() if there is none
+	 */
+	int advance(int from, int target) {
+		int n = docIds.length;
+		if (from >= n) {
+			return n;
+		}
+		int block = from / BLOCK_SIZE;
+		if (blockLast[block] < target) {
+			// gallop over the skip array, then binary search the last stretch
+			int step = 1, lo = block+1, hi = lo;
+			while (hi < blockLast.length && blockLast[hi] < target) {
+				lo = hi+1;
+				hi += step;
+				step *= 2;
+			}
+			hi = Math.min(hi, blockLast.length-1);
+			while (lo <= hi) {
+				int mid = (lo+hi) >>> 1;
+				if (blockLast[mid] < target) {
+					lo = mid+1;
+				} else {
+					hi = mid-1;
+				}
+			}
+			if (lo == blockLast.length) {
+				return n;
+			}
+			from = lo * BLOCK_SIZE;
+		}
+		while (from < n && docIds[from] < target) {
+			from++;
+		}
+		return from;
+	}
+}
@@ -0,0 +1,76 @@
+package lse;
+
+import java.util.*;
+
+/**
+ * This class assigns integer ids to document names, so that postings can refer to
+ * documents by id instead of by name. Ids are given out in the order documents are
+ * added, starting at 0.
+ *
+ */
+public class DocumentTable {
+
+	/**
+	 * Document names, by id.
+	 */
+	ArrayList<String> names;
+
+	/**
+	 * Ids, by document name.
+	 */
+	HashMap<String,Integer> ids;
+
+	/**
+	 * Initializes an empty document table.
+	 */
+	public DocumentTable() {
+		names = new ArrayList<String>();
+		ids = new HashMap<String,Integer>();
+	}
+
+	/**
+	 * Returns the id of a document, adding it to the table if it is not there yet.
+	 *
+	 * @param doc Document name
+	 * @return Document id
+	 */
+	public int add(String doc) {
+		Integer id = ids.get(doc);
+		if (id == null) {
+			id = names.size();
+			names.add(doc);
+			ids.put(doc, id);
+		}
+		return id;
+	}
+
+	/**
+	 * Returns the id of a document.
+	 *
+	 * @param doc Document name
+	 * @return Document id, -1 if the document is not in the table
+	 */
+	public int idOf(String doc) {
+		Integer id = ids.get(doc);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * Returns the name of a document.
+	 *
+	 * @param id Document id
+	 * @return Document name
+	 */
+	public String name(int id) {
+		return names.get(id);
+	}
+
+	/**
+	 * Returns the number of documents in the table.
+	 *
+	 * @return Number of documents
+	 */
+	public int size() {
+		return names.size();
+	}
+}
@@ -0,0 +1,434 @@
+package lse;
+
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * This class collects metrics of a LittleSearchEngine: how long each stage of indexing
+ * takes, counters of the work done, and latency histograms of the searches. It also
+ * reports the distribution of Occurrence list lengths and an estimate of the memory the
+ * index takes, computed from the index when asked for.
+ *
+ * Metrics are turned on with LittleSearchEngine.enableMetrics. When they are off, each
+ * place that would record a metric costs one read of a field that is null. When they are
+ * on, a stage is timed once per document (or per publish), never once per keyword, and
+ * every counter is a LongAdder, so the threads of a ParallelIndexer do not contend on them.
+ *
+ * The metrics can be exported as JSON with toJson. When a JFR recording is running,
+ * every search and every document loaded is also emitted as a JFR event (lse.Search and
+ * lse.DocumentLoaded).
+ *
+ */
+public class IndexMetrics {
+
+	/**
+	 * Timed stages of indexing.
+	 */
+	public enum Stage {
+		/** reading and decoding document files */
+		READ,
+		/** separating keywords from the text, with the rules of getKeyword */
+		TOKENIZE,
+		/** merging a document's keywords into the Occurrence lists (mergeKeywords and
+		 *  the merge stage of the ParallelIndexer), which includes insertLastOccurrence */
+		MERGE,
+		/** merging pending occurrences of added documents */
+		MERGE_PENDING,
+		/** publishing snapshots */
+		PUBLISH
+	}
+
+	/**
+	 * Counters.
+	 */
+	public enum Counter {
+		/** documents loaded */
+		DOCUMENTS,
+		/** bytes of document files read */
+		BYTES_READ,
+		/** distinct keywords of the documents loaded, summed over the documents */
+		DOCUMENT_KEYWORDS,
+		/** calls to insertLastOccurrence */
+		INSERTS,
+		/** midpoints checked by the binary searches of insertLastOccurrence */
+		INSERT_PROBES,
+		/** occurrences moved to make room for the inserted ones */
+		INSERT_SHIFTS
+	}
+
+	/**
+	 * Kinds of searches, each with its own latency histogram.
+	 */
+	public enum Search {
+		TOPK, SNAPSHOT, RANKED, BOOLEAN, WILDCARD, PHRASE, PROXIMITY, BATCH
+	}
+
+	/**
+	 * Estimated bytes taken by a keyword apart from its letters and its occurrences: its
+	 * hash table entry and slot, its String and the header of its char array, and its
+	 * ArrayList and the header of the list's array.
+	 */
+	static final int BYTES_PER_KEYWORD = 32 + 4 + 24 + 16 + 24 + 16;
+
+	/**
+	 * Estimated bytes taken by an Occurrence and its slot in a list. The document name is
+	 * shared by all the occurrences in the document, and counted with the document. The
+	 * positions of PositionalOccurrence objects are not counted.
+	 */
+	static final int BYTES_PER_OCCURRENCE = 24 + 4;
+
+	/**
+	 * Estimated bytes taken by a document apart from the letters of its name: its name
+	 * String and the header of its char array, and its entries in the document table,
+	 * documentKeywords and documentLengths.
+	 */
+	static final int BYTES_PER_DOCUMENT = 24 + 16 + 2*(32 + 4) + 4 + 16;
+
+	/**
+	 * Emitted for each search while a JFR recording is running.
+	 */
+	@Name("lse.Search")
+	@Label("Search")
+	@Category("Little Search Engine")
+	static class SearchEvent extends Event {
+		@Label("Kind")
+		String kind;
+
+		@Label("Query")
+		String query;
+
+		@Label("Latency")
+		@Timespan(Timespan.NANOSECONDS)
+		long latency;
+	}
+
+	/**
+	 * Emitted for each document loaded while a JFR recording is running.
+	 */
+	@Name("lse.DocumentLoaded")
+	@Label("Document Loaded")
+	@Category("Little Search Engine")
+	static class DocumentLoadedEvent extends Event {
+		@Label("Document")
+		String document;
+
+		@Label("Bytes")
+		long bytes;
+
+		@Label("Keywords")
+		int keywords;
+
+		@Label("Read Time")
+		@Timespan(Timespan.NANOSECONDS)
+		long readTime;
+
+		@Label("Total Time")
+		@Timespan(Timespan.NANOSECONDS)
+		long totalTime;
+	}
+
+	/**
+	 * Engine whose index is reported on.
+	 */
+	final LittleSearchEngine engine;
+
+	/**
+	 * Number of times each stage ran, and nanoseconds spent in it, by stage ordinal.
+	 */
+	final LongAdder[] stageCalls, stageNanos;
+
+	/**
+	 * Counters, by ordinal.
+	 */
+	final LongAdder[] counters;
+
+	/**
+	 * Search latencies, by search ordinal.
+	 */
+	final LatencyHistogram[] latencies;
+
+	/**
+	 * Initializes empty metrics for an engine.
+	 *
+	 * @param engine Engine whose index is reported on
+	 */
+	IndexMetrics(LittleSearchEngine engine) {
+		this.engine = engine;
+		stageCalls = adders(Stage.values().length);
+		stageNanos = adders(Stage.values().length);
+		counters = adders(Counter.values().length);
+		latencies = new LatencyHistogram[Search.values().length];
+		for (int i=0; i < latencies.length; i++) {
+			latencies[i] = new LatencyHistogram();
+		}
+	}
+
+	private static LongAdder[] adders(int n) {
+		LongAdder[] a = new LongAdder[n];
+		for (int i=0; i < n; i++) {
+			a[i] = new LongAdder();
+		}
+		return a;
+	}
+
+	/**
+	 * Records one run of a stage.
+	 *
+	 * @param stage Stage
+	 * @param nanos Time taken, in nanoseconds
+	 */
+	void stage(Stage stage, long nanos) {
+		stageCalls[stage.ordinal()].increment();
+		stageNanos[stage.ordinal()].add(nanos);
+	}
+
+	/**
+	 * Adds to a counter.
+	 */
+	void count(Counter counter, long n) {
+		counters[counter.ordinal()].add(n);
+	}
+
+	/**
+	 * Records a document loaded by a KeywordTokenizer.
+	 *
+	 * @param doc Document name
+	 * @param bytes Bytes read
+	 * @param readNanos Time spent reading and decoding
+	 * @param totalNanos Time spent loading the document, reading included
+	 * @param keywords Number of distinct keywords found
+	 */
+	void documentLoaded(String doc, long bytes, long readNanos, long totalNanos, int keywords) {
+		stage(Stage.READ, readNanos);
+		stage(Stage.TOKENIZE, totalNanos - readNanos);
+		count(Counter.DOCUMENTS, 1);
+		count(Counter.BYTES_READ, bytes);
+		count(Counter.DOCUMENT_KEYWORDS, keywords);
+		DocumentLoadedEvent event = new DocumentLoadedEvent();
+		if (event.isEnabled()) {
+			event.document = doc;
+			event.bytes = bytes;
+			event.keywords = keywords;
+			event.readTime = readNanos;
+			event.totalTime = totalNanos;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Records a call to insertLastOccurrence.
+	 *
+	 * @param probes Midpoints checked by the binary search
+	 * @param shifts Occurrences moved to make room
+	 */
+	void inserted(int probes, int shifts) {
+		counters[Counter.INSERTS.ordinal()].increment();
+		counters[Counter.INSERT_PROBES.ordinal()].add(probes);
+		counters[Counter.INSERT_SHIFTS.ordinal()].add(shifts);
+	}
+
+	/**
+	 * Records a search.
+	 *
+	 * @param search Kind of search
+	 * @param start System.nanoTime() when the search started
+	 * @param query Query text, for the JFR event
+	 */
+	void searched(Search search, long start, String query) {
+		SearchEvent event = record(search, start);
+		if (event != null) {
+			event.query = query;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Records a search for keywords.
+	 *
+	 * @param search Kind of search
+	 * @param start System.nanoTime() when the search started
+	 * @param keywords Keywords, for the JFR event
+	 */
+	void searched(Search search, long start, String[] keywords) {
+		SearchEvent event = record(search, start);
+		if (event != null) {
+			event.query = String.join(" ", keywords);
+			event.commit();
+		}
+	}
+
+	/**
+	 * Records the latency of a search.
+	 *
+	 * @return JFR event to fill in and commit, null if no recording wants it
+	 */
+	private SearchEvent record(Search search, long start) {
+		long nanos = System.nanoTime() - start;
+		latencies[search.ordinal()].record(nanos);
+		SearchEvent event = new SearchEvent();
+		if (!event.isEnabled()) {
+			return null;
+		}
+		event.kind = search.name();
+		event.latency = nanos;
+		return event;
+	}
+
+	/**
+	 * Returns the number of times a stage ran.
+	 *
+	 * @param stage Stage
+	 * @return Number of runs
+	 */
+	public long calls(Stage stage) {
+		return stageCalls[stage.ordinal()].sum();
+	}
+
+	/**
+	 * Returns the time spent in a stage, summed over all threads.
+	 *
+	 * @param stage Stage
+	 * @return Time in nanoseconds
+	 */
+	public long nanos(Stage stage) {
+		return stageNanos[stage.ordinal()].sum();
+	}
+
+	/**
+	 * Returns the value of a counter.
+	 *
+	 * @param counter Counter
+	 * @return Value
+	 */
+	public long count(Counter counter) {
+		return counters[counter.ordinal()].sum();
+	}
+
+	/**
+	 * Returns the latency histogram of a kind of search.
+	 *
+	 * @param search Kind of search
+	 * @return Histogram
+	 */
+	public LatencyHistogram latencies(Search search) {
+		return latencies[search.ordinal()];
+	}
+
+	/**
+	 * Returns all the metrics as a JSON object: "stages" with the runs and milliseconds of
+	 * each stage, "counters", "searches" with the latency percentiles of each kind of search
+	 * that has run, and "index" with the Occurrence list lengths and the memory estimate.
+	 * The index figures are computed under the engine's lock.
+	 *
+	 * @return JSON text
+	 */
+	public String toJson() {
+		StringBuilder sb = new StringBuilder(1024);
+		sb.append("{\"stages\":{");
+		for (Stage stage : Stage.values()) {
+			if (stage.ordinal() > 0) {
+				sb.append(',');
+			}
+			sb.append('"').append(stage).append("\":{\"calls\":").append(calls(stage));
+			sb.append(String.format(Locale.ROOT, ",\"ms\":%.3f}", nanos(stage) / 1e6));
+		}
+		sb.append("},\"counters\":{");
+		for (Counter counter : Counter.values()) {
+			if (counter.ordinal() > 0) {
+				sb.append(',');
+			}
+			sb.append('"').append(counter).append("\":").append(count(counter));
+		}
+		sb.append("},\"searches\":{");
+		boolean first = true;
+		for (Search search : Search.values()) {
+			LatencyHistogram h = latencies(search);
+			if (h.count() == 0) {
+				continue;
+			}
+			if (!first) {
+				sb.append(',');
+			}
+			first = false;
+			sb.append('"').append(search).append("\":");
+			h.appendJson(sb);
+		}
+		sb.append("},\"index\":");
+		synchronized (engine) {
+			appendIndexJson(sb);
+		}
+		return sb.append('}').toString();
+	}
+
+	/**
+	 * Appends the Occurrence list lengths and memory estimate of the index. Pending
+	 * occurrences count in the lengths of their lists.
+	 */
+	private void appendIndexJson(StringBuilder sb) {
+		// lengths in power of 2 buckets: 1, 2-3, 4-7, ...
+		long[] buckets = new long[32];
+		long keywords = 0, occurrences = 0, letters = 0;
+		int maxLength = 0;
+		HashSet<String> words = new HashSet<String>(engine.keywordsIndex.keySet());
+		words.addAll(engine.pendingOccurrences.keySet());
+		for (String word : words) {
+			ArrayList<Occurrence> occs = engine.keywordsIndex.get(word);
+			ArrayList<Occurrence> pending = engine.pendingOccurrences.get(word);
+			int length = (occs == null ? 0 : occs.size()) + (pending == null ? 0 : pending.size());
+			if (length == 0) {
+				continue;
+			}
+			keywords++;
+			occurrences += length;
+			letters += word.length();
+			maxLength = Math.max(maxLength, length);
+			buckets[31 - Integer.numberOfLeadingZeros(length)]++;
+		}
+		long docLetters = 0;
+		int numDocs = engine.documents.size();
+		for (int i=0; i < numDocs; i++) {
+			docLetters += engine.documents.name(i).length();
+		}
+		long keywordBytes = keywords * BYTES_PER_KEYWORD + letters;
+		long occurrenceBytes = occurrences * BYTES_PER_OCCURRENCE;
+		long documentBytes = numDocs * (long)BYTES_PER_DOCUMENT + docLetters;
+		long total = keywordBytes + occurrenceBytes + documentBytes;
+
+		sb.append("{\"keywords\":").append(keywords);
+		sb.append(",\"occurrences\":").append(occurrences);
+		sb.append(",\"documents\":").append(numDocs);
+		sb.append(",\"listLengths\":{\"max\":").append(maxLength);
+		sb.append(String.format(Locale.ROOT, ",\"mean\":%.2f", keywords == 0 ? 0.0 : (double)occurrences / keywords));
+		sb.append(",\"histogram\":{");
+		boolean first = true;
+		for (int b=0; b < buckets.length; b++) {
+			if (buckets[b] == 0) {
+				continue;
+			}
+			if (!first) {
+				sb.append(',');
+			}
+			first = false;
+			long lo = 1L << b, hi = (1L << (b+1)) - 1;
+			sb.append('"').append(lo == hi ? "" + lo : lo + "-" + hi).append("\":").append(buckets[b]);
+		}
+		sb.append("}},\"memoryEstimate\":{\"keywordBytes\":").append(keywordBytes);
+		sb.append(",\"occurrenceBytes\":").append(occurrenceBytes);
+		sb.append(",\"documentBytes\":").append(documentBytes);
+		sb.append(",\"totalBytes\":").append(total);
+		sb.append(String.format(Locale.ROOT, ",\"bytesPerKeyword\":%.1f}}", keywords == 0 ? 0.0 : (double)total / keywords));
+	}
+
+	/**
+	 * Returns the metrics as JSON.
+	 */
+	public String toString() {
+		return toJson();
+	}
+}
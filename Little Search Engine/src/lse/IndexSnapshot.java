@@ -0,0 +1,313 @@
+package lse;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class is an immutable view of a keywords index, as it was when the snapshot was
+ * published by LittleSearchEngine.publish. Any number of threads can search a snapshot
+ * while the engine goes on indexing, without any locking: nothing reachable from a
+ * snapshot is ever modified after it is published.
+ *
+ * The Occurrence list of each keyword is held as an int array of (document id, frequency)
+ * pairs, in descending order of frequencies. Lists of keywords that did not change
+ * between two generations are shared by both snapshots.
+ *
+ */
+public class IndexSnapshot implements PostingSource {
+
+	/**
+	 * Generation number, the engine's version when the snapshot was published. Snapshots
+	 * of the same index contents have the same generation, and any change to the index
+	 * gives later snapshots a higher one.
+	 */
+	final long generation;
+
+	/**
+	 * Postings of each keyword, as (document id, frequency) pairs.
+	 */
+	final PostingMap postings;
+
+	/**
+	 * Document names, by id. Only the first numDocs entries belong to this snapshot; the
+	 * engine may fill in later entries for later generations.
+	 */
+	final String[] docNames;
+
+	/**
+	 * Number of documents in this snapshot's document table.
+	 */
+	final int numDocs;
+
+	/**
+	 * Length of each document, by id: its total number of keyword occurrences.
+	 */
+	final int[] docLengths;
+
+	/**
+	 * BM25 scorer, made the first time a ranked search needs it.
+	 */
+	volatile Bm25Scorer bm25;
+
+	/**
+	 * Sorted dictionary of the keywords, made the first time a wildcard search needs it.
+	 */
+	volatile TermDictionary dictionary;
+
+	/**
+	 * Doc id ordered copies of posting lists, made the first time a boolean query needs them.
+	 */
+	final ConcurrentHashMap<String,DocIdPostings> docIdPostings = new ConcurrentHashMap<String,DocIdPostings>();
+
+	IndexSnapshot(long generation, PostingMap postings, String[] docNames, int numDocs, int[] docLengths) {
+		this.generation = generation;
+		this.postings = postings;
+		this.docNames = docNames;
+		this.numDocs = numDocs;
+		this.docLengths = docLengths;
+	}
+
+	/**
+	 * Returns an empty snapshot.
+	 */
+	static IndexSnapshot empty() {
+		return new IndexSnapshot(0, PostingMap.EMPTY, new String[0], 0, new int[0]);
+	}
+
+	/**
+	 * Returns the generation number of this snapshot.
+	 *
+	 * @return Generation number
+	 */
+	public long generation() {
+		return generation;
+	}
+
+	/**
+	 * Returns the number of keywords in this snapshot.
+	 *
+	 * @return Number of keywords
+	 */
+	public int numTerms() {
+		return postings.size();
+	}
+
+	/**
+	 * Returns the name of a document.
+	 *
+	 * @param id Document id
+	 * @return Document name
+	 */
+	public String document(int id) {
+		if (id >= numDocs) {
+			throw new IndexOutOfBoundsException("no document " + id + " in generation " + generation);
+		}
+		return docNames[id];
+	}
+
+	/**
+	 * Returns the Occurrence list of a keyword.
+	 *
+	 * @param kw Keyword (lower case)
+	 * @return Occurrences in descending order of frequencies, null if the keyword is not in the snapshot
+	 */
+	public ArrayList<Occurrence> occurrences(String kw) {
+		int[] pairs = postings.get(kw);
+		if (pairs == null) {
+			return null;
+		}
+		ArrayList<Occurrence> occs = new ArrayList<Occurrence>(pairs.length/2);
+		for (int i=0; i < pairs.length; i += 2) {
+			occs.add(new Occurrence(docNames[pairs[i]], pairs[i+1]));
+		}
+		return occs;
+	}
+
+	/**
+	 * Returns a cursor over the postings of a keyword.
+	 *
+	 * @param kw Keyword (lower case)
+	 * @return Cursor over the keyword's postings, null if the keyword is not in the snapshot
+	 */
+	public PostingCursor cursor(String kw) {
+		int[] pairs = postings.get(kw);
+		return pairs == null ? null : new PairCursor(pairs);
+	}
+
+	/**
+	 * Returns the postings of a keyword in ascending order of document ids.
+	 *
+	 * @param kw Keyword (lower case)
+	 * @return Doc id ordered postings, null if the keyword is not in the snapshot
+	 */
+	DocIdPostings docIdPostings(String kw) {
+		DocIdPostings p = docIdPostings.get(kw);
+		if (p == null) {
+			int[] pairs = postings.get(kw);
+			if (pairs == null) {
+				return null;
+			}
+			p = new DocIdPostings(pairs);
+			DocIdPostings other = docIdPostings.putIfAbsent(kw, p);
+			if (other != null) {
+				p = other;
+			}
+		}
+		return p;
+	}
+
+	/**
+	 * Returns the BM25 scorer of this snapshot, making it if this is the first call.
+	 *
+	 * @return BM25 scorer
+	 */
+	Bm25Scorer bm25() {
+		Bm25Scorer scorer = bm25;
+		if (scorer == null) {
+			// two threads may both make one; they are the same, and either will do
+			scorer = bm25 = new Bm25Scorer(this);
+		}
+		return scorer;
+	}
+
+	/**
+	 * Returns the keyword dictionary of this snapshot, making it if this is the first call.
+	 *
+	 * @return Keyword dictionary
+	 */
+	TermDictionary dictionary() {
+		TermDictionary dict = dictionary;
+		if (dict == null) {
+			dict = dictionary = new TermDictionary(postings.keys());
+		}
+		return dict;
+	}
+
+	/**
+	 * Returns the keywords that match a prefix or wildcard pattern.
+	 *
+	 * @param pattern Pattern, with '*' for any run of characters and '?' for any one
+	 *        character, for instance "alic*"
+	 * @return Matching keywords, in sorted order; empty if there are none
+	 */
+	public ArrayList<String> expand(String pattern) {
+		return dictionary().expand(pattern);
+	}
+
+	/**
+	 * Search result for a prefix or wildcard pattern: the pattern is expanded into the
+	 * keywords it matches, and their postings are merged with the same rules as topKSearch,
+	 * the keywords taking precedence in sorted order.
+	 *
+	 * @param k Maximum number of documents in the result
+	 * @param pattern Pattern, with '*' for any run of characters and '?' for any one
+	 *        character, for instance "alic*"
+	 * @return List of documents in which any matching keyword occurs, null if there are no matches
+	 * @throws IllegalArgumentException If k is less than 1
+	 */
+	public ArrayList<String> wildcardSearch(int k, String pattern) {
+		TopKSearch.checkK(k);
+		ArrayList<String> terms = expand(pattern);
+		if (terms.isEmpty()) {
+			return null;
+		}
+		PostingCursor[] cursors = new PostingCursor[terms.size()];
+		for (int i=0; i < cursors.length; i++) {
+			cursors[i] = cursor(terms.get(i));
+		}
+		int[] ids = TopKSearch.search(cursors, k);
+		ArrayList<String> search = new ArrayList<String>(ids.length);
+		for (int id : ids) {
+			search.add(docNames[id]);
+		}
+		return search;
+	}
+
+	/**
+	 * Search results for a batch of "kw1 or kw2 or ... or kwN" queries, with the same rules
+	 * as topKSearch. See BatchSearch for how work is shared across the queries.
+	 *
+	 * @param k Maximum number of documents in each result
+	 * @param queries Queries, each an array of keywords in order of precedence
+	 * @param threads Number of worker threads
+	 * @return Results, in the order of the queries; a null result means no matches
+	 * @throws IllegalArgumentException If k is less than 1
+	 */
+	public ArrayList<ArrayList<String>> batchSearch(int k, List<String[]> queries, int threads) {
+		TopKSearch.checkK(k);
+		return new BatchSearch(this, k, queries).run(threads);
+	}
+
+	/**
+	 * Search result for a boolean query. See BooleanQuery for the query language.
+	 *
+	 * @param k Maximum number of documents in the result
+	 * @param query Query text, for instance "alice AND (rabbit OR queen) NOT hatter"
+	 * @return Matching documents, highest score first; null if there are none
+	 * @throws IllegalArgumentException If k is less than 1, or the query is not well formed
+	 */
+	public ArrayList<String> booleanSearch(int k, String query) {
+		TopKSearch.checkK(k);
+		return new BooleanQuery(query).search(this, k);
+	}
+
+	/**
+	 * Search result for "kw1 or kw2", with the same rules as LittleSearchEngine.top5search.
+	 *
+	 * @param kw1 First keyword
+	 * @param kw2 Second keyword
+	 * @return List of documents in which either kw1 or kw2 occurs, null if there are no matches
+	 */
+	public ArrayList<String> top5search(String kw1, String kw2) {
+		return topKSearch(5, kw1, kw2);
+	}
+
+	/**
+	 * Search result for "kw1 or kw2 or ... or kwN", with the same rules as
+	 * LittleSearchEngine.topKSearch.
+	 *
+	 * @param k Maximum number of documents in the result
+	 * @param keywords Keywords, in order of precedence for breaking ties
+	 * @return List of documents in which any of the keywords occurs, null if there are no matches
+	 * @throws IllegalArgumentException If k is less than 1
+	 */
+	public ArrayList<String> topKSearch(int k, String... keywords) {
+		TopKSearch.checkK(k);
+		PostingCursor[] cursors = new PostingCursor[keywords.length];
+		boolean any = false;
+		for (int i=0; i < keywords.length; i++) {
+			cursors[i] = cursor(keywords[i].toLowerCase());
+			any |= cursors[i] != null;
+		}
+		if (!any) {
+			return null;
+		}
+		int[] ids = TopKSearch.search(cursors, k);
+		ArrayList<String> search = new ArrayList<String>(ids.length);
+		for (int id : ids) {
+			search.add(docNames[id]);
+		}
+		return search;
+	}
+
+	/**
+	 * Posting cursor over an array of (document id, frequency) pairs.
+	 */
+	static class PairCursor extends PostingCursor {
+		int[] pairs;
+		int next;
+
+		PairCursor(int[] pairs) {
+			this.pairs = pairs;
+		}
+
+		boolean next() {
+			if (next == pairs.length) {
+				return false;
+			}
+			docId = pairs[next++];
+			frequency = pairs[next++];
+			return true;
+		}
+	}
+}
@@ -0,0 +1,436 @@
+package lse;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.*;
+import java.util.*;
+
+/**
+ * This class scans documents for keywords in a single pass over a reusable buffer.
+ * It accepts exactly the same keywords as LittleSearchEngine.getKeyword: a word is a
+ * run of non-whitespace characters, and it is a keyword if, after stripping trailing
+ * punctuation ('.', ',', '?', ':', ';' and '!'), it consists only of alphabetic letters
+ * and its lower case form is not a noise word.
+ *
+ * Keywords are looked up in a term table directly from the characters in the buffer,
+ * so a String is only created the first time a word is seen. The table is kept across
+ * documents, and remembers whether each word is a noise word, as checked by the compiled
+ * NoiseWordMatcher on the characters in the buffer.
+ *
+ * A tokenizer is not thread safe. Each thread must use its own.
+ *
+ */
+class KeywordTokenizer {
+
+	/**
+	 * Size of the byte and char buffers the document is read through.
+	 */
+	static final int BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * Noise words of the engine this tokenizer works for. If the engine compiles new noise
+	 * words, the noise flags in the term table are stale and the table is cleared.
+	 */
+	NoiseWordMatcher noiseWords;
+
+	/**
+	 * Read buffer for the document bytes.
+	 */
+	ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+
+	/**
+	 * Decoded characters.
+	 */
+	CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+
+	/**
+	 * Decoder for the platform default charset, which is what Scanner uses.
+	 */
+	CharsetDecoder decoder = Charset.defaultCharset().newDecoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+	/**
+	 * True if the time spent reading and decoding is to be measured, for IndexMetrics.
+	 */
+	boolean timeReads;
+
+	/**
+	 * Bytes read from the last document scanned, and nanoseconds spent reading and
+	 * decoding them (0 unless timeReads is set).
+	 */
+	long bytesRead, readNanos;
+
+	/**
+	 * Lower case letters of the word being scanned.
+	 */
+	char[] word = new char[64];
+
+	/**
+	 * Number of letters in word.
+	 */
+	int wordLength;
+
+	/**
+	 * True if the word being scanned can no longer be a keyword.
+	 */
+	boolean rejected;
+
+	/**
+	 * True if the last character of the word being scanned was punctuation.
+	 */
+	boolean afterPunctuation;
+
+	/**
+	 * True if any character of the word being scanned has been seen.
+	 */
+	boolean inWord;
+
+	/**
+	 * Position of the word being scanned in the document, counting all words, keywords
+	 * or not, from 0.
+	 */
+	int position;
+
+	/**
+	 * True if the positions of keywords are to be recorded.
+	 */
+	boolean recordPositions;
+
+	/**
+	 * Positions of each term in the document being scanned, by term id, when positions
+	 * are being recorded. The first counts[id] entries of each array are used.
+	 */
+	int[][] positions = new int[512][];
+
+	/**
+	 * Open addressing hash table of term ids + 1, 0 for an empty slot.
+	 */
+	int[] slots = new int[1024];
+
+	/**
+	 * Terms, by term id.
+	 */
+	String[] terms = new String[512];
+
+	/**
+	 * Hash codes of terms, by term id.
+	 */
+	int[] hashes = new int[512];
+
+	/**
+	 * Noise flags of terms, by term id.
+	 */
+	boolean[] noise = new boolean[512];
+
+	/**
+	 * Frequency of each term in the document being scanned, by term id.
+	 */
+	int[] counts = new int[512];
+
+	/**
+	 * Number of terms in the table.
+	 */
+	int numTerms;
+
+	/**
+	 * Ids of the terms with non-zero counts in the document being scanned.
+	 */
+	int[] touched = new int[512];
+
+	/**
+	 * Number of ids in touched.
+	 */
+	int numTouched;
+
+	/**
+	 * Initializes a tokenizer that filters out the given noise words.
+	 *
+	 * @param noiseWords Noise words
+	 */
+	KeywordTokenizer(NoiseWordMatcher noiseWords) {
+		this.noiseWords = noiseWords;
+	}
+
+	/**
+	 * Switches to the given noise words, clearing the term table if they are not the ones
+	 * in use.
+	 *
+	 * @param noiseWords Noise words
+	 */
+	void useNoiseWords(NoiseWordMatcher noiseWords) {
+		if (noiseWords != this.noiseWords) {
+			this.noiseWords = noiseWords;
+			clearTerms();
+		}
+	}
+
+	/**
+	 * Scans a document, and returns a hash table of the keywords found in it, each associated
+	 * with an Occurrence object, just as LittleSearchEngine.loadKeywordsFromDocument does.
+	 * If positions are asked for, the occurrences are PositionalOccurrence objects that also
+	 * hold the positions of the keyword in the document.
+	 *
+	 * @param docFile Name of the document file to be scanned
+	 * @param withPositions True if keyword positions are to be recorded
+	 * @return Hash table of keywords in the given document, each associated with an Occurrence object
+	 * @throws FileNotFoundException If the document file is not found on disk
+	 */
+	HashMap<String,Occurrence> load(String docFile, boolean withPositions)
+	throws FileNotFoundException {
+		recordPositions = withPositions;
+		scan(docFile);
+		HashMap<String,Occurrence> map = new HashMap<String,Occurrence>(numTouched*2);
+		for (int i=0; i < numTouched; i++) {
+			int id = touched[i];
+			if (withPositions) {
+				map.put(terms[id], new PositionalOccurrence(docFile, counts[id], positions[id]));
+			} else {
+				map.put(terms[id], new Occurrence(docFile, counts[id]));
+			}
+			counts[id] = 0;
+		}
+		numTouched = 0;
+		return map;
+	}
+
+	/**
+	 * Scans a document, leaving the keyword frequencies in counts and the ids of the keywords
+	 * found in touched.
+	 *
+	 * @param docFile Name of the document file to be scanned
+	 * @throws FileNotFoundException If the document file is not found on disk
+	 */
+	void scan(String docFile)
+	throws FileNotFoundException {
+		FileInputStream in = new FileInputStream(docFile);
+		FileChannel channel = in.getChannel();
+		try {
+			decoder.reset();
+			bytes.clear();
+			startWord();
+			position = 0;
+			bytesRead = 0;
+			readNanos = 0;
+			boolean eof = false;
+			while (!eof) {
+				long start = timeReads ? System.nanoTime() : 0;
+				int n = channel.read(bytes);
+				eof = n < 0;
+				if (n > 0) {
+					bytesRead += n;
+				}
+				bytes.flip();
+				decoder.decode(bytes, chars, eof);
+				if (eof) {
+					decoder.flush(chars);
+				}
+				if (timeReads) {
+					readNanos += System.nanoTime() - start;
+				}
+				bytes.compact();
+				chars.flip();
+				scanChars();
+				chars.clear();
+				chunkScanned();
+			}
+			endWord();
+		} catch (IOException ioe) {
+			throw new UncheckedIOException(docFile, ioe);
+		} finally {
+			try {
+				in.close();
+			} catch (IOException ioe) {
+				// nothing was written, nothing to lose
+			}
+		}
+	}
+
+	/**
+	 * Called after each buffer of characters has been scanned, with the counts of the
+	 * words completed so far in counts and touched. Does nothing here; subclasses may
+	 * flush the counts.
+	 */
+	void chunkScanned() {
+	}
+
+	/**
+	 * Runs the decoded characters through the keyword rules of getKeyword.
+	 */
+	private void scanChars() {
+		char[] a = chars.array();
+		for (int i=chars.position(); i < chars.limit(); i++) {
+			char c = a[i];
+			if (Character.isWhitespace(c)) {
+				endWord();
+				continue;
+			}
+			inWord = true;
+			if (rejected) {
+				continue;
+			} else if (Character.isAlphabetic(c)) {
+				if (afterPunctuation) {
+					// punctuation is only allowed at the end
+					rejected = true;
+				} else {
+					if (wordLength == word.length) {
+						word = Arrays.copyOf(word, wordLength*2);
+					}
+					word[wordLength++] = Character.toLowerCase(c);
+				}
+			} else if (c == '.' || c == ',' || c == '?' || c == ':' || c == ';' || c == '!') {
+				afterPunctuation = true;
+			} else {
+				rejected = true;
+			}
+		}
+	}
+
+	/**
+	 * Resets the word state for the next word.
+	 */
+	private void startWord() {
+		wordLength = 0;
+		rejected = false;
+		afterPunctuation = false;
+		inWord = false;
+	}
+
+	/**
+	 * Counts the word just scanned if it is a keyword, and starts the next word.
+	 */
+	private void endWord() {
+		if (!inWord) {
+			return;
+		}
+		if (!rejected && wordLength > 0) {
+			int id = termId(word, wordLength);
+			if (!noise[id]) {
+				if (recordPositions) {
+					addPosition(id, counts[id]);
+				}
+				if (counts[id]++ == 0) {
+					if (numTouched == touched.length) {
+						touched = Arrays.copyOf(touched, numTouched*2);
+					}
+					touched[numTouched++] = id;
+				}
+			}
+		}
+		position++;
+		startWord();
+	}
+
+	/**
+	 * Records the current position as the n-th position of a term.
+	 */
+	private void addPosition(int id, int n) {
+		int[] p = positions[id];
+		if (p == null) {
+			p = positions[id] = new int[4];
+		} else if (n == p.length) {
+			p = positions[id] = Arrays.copyOf(p, n*2);
+		}
+		p[n] = position;
+	}
+
+	/**
+	 * Returns the id of the term held in the first len characters of w, adding it to
+	 * the term table if it is not there yet.
+	 *
+	 * @param w Characters of the term
+	 * @param len Length of the term
+	 * @return Term id
+	 */
+	int termId(char[] w, int len) {
+		int h = 0;
+		for (int i=0; i < len; i++) {
+			h = 31*h + w[i];
+		}
+		int mask = slots.length - 1;
+		for (int s = mix(h) & mask; ; s = (s+1) & mask) {
+			int id = slots[s] - 1;
+			if (id < 0) {
+				return addTerm(s, w, len, h);
+			}
+			if (hashes[id] == h && sameChars(terms[id], w, len)) {
+				return id;
+			}
+		}
+	}
+
+	/**
+	 * Adds a new term at the given empty slot of the term table.
+	 */
+	private int addTerm(int slot, char[] w, int len, int h) {
+		int id = numTerms++;
+		if (id == terms.length) {
+			int n = terms.length*2;
+			terms = Arrays.copyOf(terms, n);
+			hashes = Arrays.copyOf(hashes, n);
+			noise = Arrays.copyOf(noise, n);
+			counts = Arrays.copyOf(counts, n);
+			positions = Arrays.copyOf(positions, n);
+		}
+		terms[id] = new String(w, 0, len);
+		hashes[id] = h;
+		noise[id] = noiseWords.matches(w, len);
+		slots[slot] = id + 1;
+		if (numTerms*2 > slots.length) {
+			rehash(slots.length*2);
+		}
+		return id;
+	}
+
+	/**
+	 * Rebuilds the hash table with the given number of slots.
+	 */
+	private void rehash(int size) {
+		slots = new int[size];
+		int mask = size - 1;
+		for (int id=0; id < numTerms; id++) {
+			int s = mix(hashes[id]) & mask;
+			while (slots[s] != 0) {
+				s = (s+1) & mask;
+			}
+			slots[s] = id + 1;
+		}
+	}
+
+	/**
+	 * Empties the term table.
+	 */
+	void clearTerms() {
+		Arrays.fill(slots, 0);
+		Arrays.fill(terms, 0, numTerms, null);
+		Arrays.fill(counts, 0, numTerms, 0);
+		Arrays.fill(positions, 0, numTerms, null);
+		numTerms = 0;
+		numTouched = 0;
+	}
+
+	/**
+	 * Spreads the bits of a hash code, since the table size is a power of 2.
+	 */
+	private static int mix(int h) {
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Tells if a string has the same characters as the first len characters of w.
+	 */
+	private static boolean sameChars(String s, char[] w, int len) {
+		if (s.length() != len) {
+			return false;
+		}
+		for (int i=0; i < len; i++) {
+			if (s.charAt(i) != w[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,153 @@
+package lse;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class is a histogram of latencies in nanoseconds, with buckets laid out as in an
+ * HDR histogram: each power of 2 is split into SUB_BUCKETS equal buckets, so every value
+ * is counted with a relative error of at most 1/SUB_BUCKETS, from 1 ns up to MAX_VALUE,
+ * in a fixed array of counts. Values above MAX_VALUE are counted as MAX_VALUE.
+ *
+ * Recording a value is a few shifts and one atomic add, and takes no lock, so a
+ * histogram can be shared by all the threads that search an index.
+ *
+ */
+public class LatencyHistogram {
+
+	/**
+	 * Log 2 of the number of buckets each power of 2 is split into.
+	 */
+	static final int SUB_BITS = 6;
+
+	/**
+	 * Number of buckets each power of 2 is split into.
+	 */
+	static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+	/**
+	 * Largest value counted as itself: about 18 minutes.
+	 */
+	static final long MAX_VALUE = (1L << 40) - 1;
+
+	/**
+	 * Count of values in each bucket.
+	 */
+	final AtomicLongArray counts = new AtomicLongArray(bucketOf(MAX_VALUE) + 1);
+
+	/**
+	 * Sum of all values, for the mean, and largest value recorded.
+	 */
+	final AtomicLongArray totals = new AtomicLongArray(2);
+
+	/**
+	 * Returns the bucket of a value.
+	 */
+	static int bucketOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int)Math.max(value, 0);
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int)(value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS-1);
+		return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * Returns the largest value that goes to a bucket.
+	 */
+	static long highestValueOf(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+		long sub = bucket % SUB_BUCKETS;
+		long low = (1L << exponent) + (sub << (exponent - SUB_BITS));
+		return low + (1L << (exponent - SUB_BITS)) - 1;
+	}
+
+	/**
+	 * Records a value.
+	 *
+	 * @param nanos Latency in nanoseconds
+	 */
+	public void record(long nanos) {
+		long value = Math.min(Math.max(nanos, 0), MAX_VALUE);
+		counts.incrementAndGet(bucketOf(value));
+		totals.addAndGet(0, value);
+		long max;
+		while (value > (max = totals.get(1)) && !totals.compareAndSet(1, max, value)) {
+			// another thread raised the max; try again
+		}
+	}
+
+	/**
+	 * Returns the number of values recorded.
+	 *
+	 * @return Number of values
+	 */
+	public long count() {
+		long n = 0;
+		for (int i=0; i < counts.length(); i++) {
+			n += counts.get(i);
+		}
+		return n;
+	}
+
+	/**
+	 * Returns the mean of the values recorded.
+	 *
+	 * @return Mean in nanoseconds, 0 if there are none
+	 */
+	public double mean() {
+		long n = count();
+		return n == 0 ? 0 : (double)totals.get(0) / n;
+	}
+
+	/**
+	 * Returns the largest value recorded.
+	 *
+	 * @return Largest value in nanoseconds, 0 if there are none
+	 */
+	public long max() {
+		return totals.get(1);
+	}
+
+	/**
+	 * Returns a percentile of the values recorded: the largest value of the bucket that
+	 * holds the value at that rank.
+	 *
+	 * @param p Percentile, from 0 to 100
+	 * @return Value in nanoseconds, 0 if there are none
+	 */
+	public long percentile(double p) {
+		long n = count();
+		if (n == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long)Math.ceil(p / 100 * n));
+		long seen = 0;
+		for (int i=0; i < counts.length(); i++) {
+			seen += counts.get(i);
+			if (seen >= rank) {
+				return Math.min(highestValueOf(i), max());
+			}
+		}
+		return max();
+	}
+
+	/**
+	 * Appends the count, mean, percentiles and max, in microseconds, as a JSON object.
+	 *
+	 * @param sb Builder to append to
+	 */
+	void appendJson(StringBuilder sb) {
+		sb.append("{\"count\":").append(count());
+		sb.append(String.format(Locale.ROOT, ",\"meanUs\":%.3f", mean() / 1e3));
+		double[] ps = { 50, 90, 99, 99.9 };
+		String[] names = { "p50Us", "p90Us", "p99Us", "p999Us" };
+		for (int i=0; i < ps.length; i++) {
+			sb.append(String.format(Locale.ROOT, ",\"%s\":%.3f", names[i], percentile(ps[i]) / 1e3));
+		}
+		sb.append(String.format(Locale.ROOT, ",\"maxUs\":%.3f}", max() / 1e3));
+	}
+}
@@ -7,6 +7,12 @@ import java.util.*;
  * This class builds an index of keywords. Each keyword maps to a set of pages in
  * which it occurs, with frequency of occurrence in each page.
  *
+ * The methods that change the index are synchronized, and so are the search methods of
+ * this class, since they merge pending occurrences. To search from many threads while
+ * the index is being changed, search an IndexSnapshot instead: publish makes the current
+ * state of the index visible as a new snapshot, and snapshot returns the latest one
+ * without taking any lock.
+ *
  */
 public class LittleSearchEngine {
 	
@@ -22,17 +28,120 @@ public class LittleSearchEngine {
 	 */
 	HashSet<String> noiseWords;
 	
+	/**
+	 * The noise words compiled for lookups on char buffers. It is recompiled when noise
+	 * words are loaded, or when the noiseWords set is found to have changed size.
+	 */
+	volatile NoiseWordMatcher noiseMatcher;
+	
+	/**
+	 * Ids of all the documents merged into the index, in the order they were merged.
+	 */
+	DocumentTable documents;
+	
+	/**
+	 * Length of each document, by id: the total number of keyword occurrences in it.
+	 * Removed documents have length 0.
+	 */
+	int[] documentLengths;
+	
+	/**
+	 * Keywords of each indexed document, so that a document can be removed by touching only
+	 * the Occurrence lists it is in.
+	 */
+	HashMap<String,String[]> documentKeywords;
+	
+	/**
+	 * Occurrences added by addDocument that are not yet merged into the keywordsIndex lists.
+	 * They are appended here in the order their documents were added, and merged into a
+	 * keyword's list in one pass the next time the list is read.
+	 */
+	HashMap<String,ArrayList<Occurrence>> pendingOccurrences;
+	
+	/**
+	 * Keywords whose Occurrence lists changed since the last publish.
+	 */
+	HashSet<String> changedKeywords;
+	
+	/**
+	 * True if all keywords must be taken as changed by the next publish, as after makeIndex.
+	 */
+	boolean allKeywordsChanged;
+	
+	/**
+	 * Doc id ordered views of Occurrence lists, for phrase and proximity searches. A view
+	 * is dropped as soon as its keyword's list changes. See docOrderedPostings.
+	 */
+	HashMap<String,DocIdPostings> docOrdered;
+	
+	/**
+	 * Number of changes made to the index so far. Search results computed at the same
+	 * version are the same.
+	 */
+	long version;
+	
+	/**
+	 * Cache of search results, null if caching is off.
+	 */
+	volatile QueryCache queryCache;
+	
+	/**
+	 * Metrics of indexing and searches, null if metrics are off.
+	 */
+	volatile IndexMetrics metrics;
+	
+	/**
+	 * Latest published snapshot of the index.
+	 */
+	volatile IndexSnapshot snapshot;
+	
+	/**
+	 * Document names shared by published snapshots, by id. Entries are only ever added,
+	 * never changed, and the array is replaced by a larger copy when it is full.
+	 */
+	String[] snapshotDocNames;
+	
+	/**
+	 * True if the positions of keywords in documents are recorded, for phrase and proximity
+	 * searches. The Occurrence objects of documents loaded in this mode are PositionalOccurrence
+	 * objects.
+	 */
+	volatile boolean positional;
+	
+	/**
+	 * Memory budget in bytes for the keyword counts of a document being indexed in streaming
+	 * mode, 0 if streaming mode is off. See StreamingIndexer.
+	 */
+	volatile long streamingBudget;
+	
+	/**
+	 * Keyword tokenizers used by loadKeywordsFromDocument, one per thread so that documents
+	 * can be loaded concurrently.
+	 */
+	ThreadLocal<KeywordTokenizer> tokenizers = new ThreadLocal<KeywordTokenizer>();
+	
 	/**
 	 * Creates the keyWordsIndex and noiseWords hash tables.
 	 */
 	public LittleSearchEngine() {
 		keywordsIndex = new HashMap<String,ArrayList<Occurrence>>(1000,2.0f);
 		noiseWords = new HashSet<String>(100,2.0f);
+		noiseMatcher = new NoiseWordMatcher(noiseWords);
+		documents = new DocumentTable();
+		documentKeywords = new HashMap<String,String[]>();
+		documentLengths = new int[16];
+		pendingOccurrences = new HashMap<String,ArrayList<Occurrence>>();
+		changedKeywords = new HashSet<String>();
+		docOrdered = new HashMap<String,DocIdPostings>();
+		snapshot = IndexSnapshot.empty();
+		snapshotDocNames = new String[16];
 	}
 	
 	/**
 	 * Scans a document, and loads all keywords found into a hash table of keyword occurrences
-	 * in the document. Uses the getKeyWord method to separate keywords from other words.
+	 * in the document. Keywords are separated from other words with the same rules as the
+	 * getKeyword method, by a KeywordTokenizer that reads the document through a reusable
+	 * buffer instead of creating Strings for every word.
 	 * 
 	 * @param docFile Name of the document file to be scanned and loaded
 	 * @return Hash table of keywords in the given document, each associated with an Occurrence object
@@ -45,27 +154,49 @@ public class LittleSearchEngine {
 		if(docFile == null) 
 			throw new FileNotFoundException("file not found");
 		
-		Scanner scan = new Scanner(new File(docFile));
-		
-		HashMap<String,Occurrence> map = new HashMap<String,Occurrence>();
-		
-		while(scan.hasNext()) {
-			String word = scan.next();
-			if(getKeyword(word)!=null) {
-				
-				if(map.containsKey(getKeyword(word))){
-					map.get(getKeyword(word)).frequency++;
-					
-				}
-				else
-					map.put(getKeyword(word), new Occurrence(docFile,1));
-			}
+		IndexMetrics m = metrics;
+		KeywordTokenizer tok = tokenizer();
+		tok.timeReads = m != null;
+		if(m == null) {
+			return tok.load(docFile, positional);
+		}
+		long start = System.nanoTime();
+		HashMap<String,Occurrence> kws = tok.load(docFile, positional);
+		m.documentLoaded(docFile, tok.bytesRead, tok.readNanos, System.nanoTime() - start, kws.size());
+		return kws;
+	}
+	
+	/**
+	 * Returns the keyword tokenizer of the current thread.
+	 * 
+	 * @return Keyword tokenizer
+	 */
+	KeywordTokenizer tokenizer() {
+		KeywordTokenizer tok = tokenizers.get();
+		if(tok == null) {
+			tok = new KeywordTokenizer(noiseMatcher());
+			tokenizers.set(tok);
+		} else {
+			tok.useNoiseWords(noiseMatcher());
 		}
-		scan.close();
-		return map;
+		return tok;
 	}
 
 	
+	/**
+	 * Returns the compiled noise words, recompiling them first if the noiseWords set has
+	 * changed size since they were last compiled.
+	 * 
+	 * @return Noise word matcher
+	 */
+	NoiseWordMatcher noiseMatcher() {
+		NoiseWordMatcher matcher = noiseMatcher;
+		if(matcher.sourceSize != noiseWords.size()) {
+			matcher = noiseMatcher = new NoiseWordMatcher(noiseWords);
+		}
+		return matcher;
+	}
+	
 	/**
 	 * Merges the keywords for a single document into the master keywordsIndex
 	 * hash table. For each keyword, its Occurrence in the current document
@@ -75,24 +206,334 @@ public class LittleSearchEngine {
 	 * 
 	 * @param kws Keywords hash table for a document
 	 */
-	public void mergeKeywords(HashMap<String,Occurrence> kws) {
+	public synchronized void mergeKeywords(HashMap<String,Occurrence> kws) {
 		/** COMPLETE THIS METHOD **/
 	
+		IndexMetrics m = metrics;
+		long start = m == null ? 0 : System.nanoTime();
 		Set<String> keySet = kws.keySet();
 		Iterator<String> keys = keySet.iterator();
 		
 		while(keys.hasNext()) {
 			String word = keys.next();
-			
-			if(keywordsIndex.containsKey(word)) {
-				keywordsIndex.get(word).add(kws.get(word));
- 				insertLastOccurrence(keywordsIndex.get(word));
- 				
+			if(!pendingOccurrences.isEmpty()) {
+				mergePending(word);
+			}
+			mergeOccurrence(keywordsIndex, word, kws.get(word));
+			keywordChanged(word);
+		}
+		recordDocument(kws);
+		if(m != null) {
+			m.stage(IndexMetrics.Stage.MERGE, System.nanoTime() - start);
+		}
+	}
+	
+	/**
+	 * Adds a document's id, keywords and length to the document table, documentKeywords
+	 * and documentLengths.
+	 * 
+	 * @param kws Keywords hash table for a document
+	 */
+	void recordDocument(Map<String,Occurrence> kws) {
+		if(kws.isEmpty()) {
+			return;
+		}
+		int length = 0;
+		for(Occurrence occ : kws.values()) {
+			length += occ.frequency;
+		}
+		recordDocument(kws.values().iterator().next().document, kws.keySet().toArray(new String[kws.size()]), length);
+	}
+	
+	/**
+	 * Adds a document's id, keywords and length to the document table, documentKeywords
+	 * and documentLengths.
+	 * 
+	 * @param doc Document name
+	 * @param words Keywords of the document
+	 * @param length Total frequency of the keywords in the document
+	 */
+	void recordDocument(String doc, String[] words, int length) {
+		int id = documents.add(doc);
+		if(id >= documentLengths.length) {
+			documentLengths = Arrays.copyOf(documentLengths, Math.max(id+1, documentLengths.length*2));
+		}
+		documentLengths[id] += length;
+		String[] old = documentKeywords.get(doc);
+		if(old != null) {
+			// the same document merged twice, keep all its keywords
+			String[] both = Arrays.copyOf(old, old.length + words.length);
+			System.arraycopy(words, 0, both, old.length, words.length);
+			words = both;
+		}
+		documentKeywords.put(doc, words);
+	}
+	
+	/**
+	 * Adds a single document to the index. Its occurrences are appended to a pending list
+	 * for each of its keywords, and are merged into the keyword's Occurrence list the next
+	 * time that list is read, so adding a document costs no shifting of existing occurrences.
+	 * 
+	 * @param docFile Name of the document file to be added
+	 * @throws FileNotFoundException If the document file is not found on disk
+	 * @throws IllegalArgumentException If the document is already in the index
+	 */
+	public synchronized void addDocument(String docFile) 
+	throws FileNotFoundException {
+		if(documentKeywords.containsKey(docFile)) {
+			throw new IllegalArgumentException(docFile + " is already indexed, use updateDocument");
+		}
+		if(streamingBudget > 0) {
+			new StreamingIndexer(this, streamingBudget).index(docFile);
+			return;
+		}
+		addLoaded(loadKeywordsFromDocument(docFile));
+	}
+	
+	/**
+	 * Adds the keywords of a loaded document to the pending lists, and the document to
+	 * the document table.
+	 * 
+	 * @param kws Keywords hash table for a document
+	 */
+	void addLoaded(HashMap<String,Occurrence> kws) {
+		for(Map.Entry<String,Occurrence> e : kws.entrySet()) {
+			addPending(e.getKey(), e.getValue());
+		}
+		recordDocument(kws);
+	}
+	
+	/**
+	 * Appends an occurrence to the pending list of a keyword.
+	 * 
+	 * @param word Keyword
+	 * @param occ Occurrence of the keyword in a document being added
+	 */
+	void addPending(String word, Occurrence occ) {
+		ArrayList<Occurrence> pending = pendingOccurrences.get(word);
+		if(pending == null) {
+			pending = new ArrayList<Occurrence>();
+			pendingOccurrences.put(word, pending);
+		}
+		pending.add(occ);
+		keywordChanged(word);
+	}
+	
+	/**
+	 * Removes a single document from the index. Only the Occurrence lists of the document's
+	 * own keywords are touched, each in a single pass.
+	 * 
+	 * @param docFile Name of the document file to be removed
+	 * @return True if the document was in the index, false if not
+	 */
+	public synchronized boolean removeDocument(String docFile) {
+		String[] words = documentKeywords.remove(docFile);
+		if(words == null) {
+			return false;
+		}
+		documentLengths[documents.idOf(docFile)] = 0;
+		for(String word : words) {
+			keywordChanged(word);
+			ArrayList<Occurrence> occs = keywordsIndex.get(word);
+			if(occs != null && removeOccurrence(occs, docFile) && occs.isEmpty()) {
+				keywordsIndex.remove(word);
+			}
+			ArrayList<Occurrence> pending = pendingOccurrences.get(word);
+			if(pending != null && removeOccurrence(pending, docFile) && pending.isEmpty()) {
+				pendingOccurrences.remove(word);
 			}
-			else if(!keywordsIndex.containsKey(word)){
-				keywordsIndex.put(word,new ArrayList<Occurrence>());
-				keywordsIndex.get(word).add(kws.get(word));
+		}
+		return true;
+	}
+	
+	/**
+	 * Re-indexes a single document, whose contents may have changed.
+	 * 
+	 * @param docFile Name of the document file to be updated
+	 * @throws FileNotFoundException If the document file is not found on disk
+	 */
+	public synchronized void updateDocument(String docFile) 
+	throws FileNotFoundException {
+		// check or load first, so that a missing file leaves the index as it was
+		if(streamingBudget > 0) {
+			File f = docFile == null ? null : new File(docFile);
+			if(f == null || !f.isFile() || !f.canRead()) {
+				throw new FileNotFoundException(docFile + " not found or not readable");
 			}
+			removeDocument(docFile);
+			new StreamingIndexer(this, streamingBudget).index(docFile);
+			return;
+		}
+		HashMap<String,Occurrence> kws = loadKeywordsFromDocument(docFile);
+		removeDocument(docFile);
+		addLoaded(kws);
+	}
+	
+	/**
+	 * Notes that a keyword's Occurrence list has changed since the last publish.
+	 * 
+	 * @param word Keyword
+	 */
+	void keywordChanged(String word) {
+		version++;
+		docOrdered.remove(word);
+		if(!allKeywordsChanged) {
+			changedKeywords.add(word);
+		}
+	}
+	
+	/**
+	 * Makes the current state of the index visible to searchers as a new snapshot.
+	 * Only the Occurrence lists of keywords that changed since the last snapshot, and
+	 * the few PostingMap nodes that lead to them, are copied; the rest is shared with
+	 * the last snapshot.
+	 * 
+	 * @return The new snapshot
+	 */
+	public synchronized IndexSnapshot publish() {
+		IndexMetrics m = metrics;
+		long start = m == null ? 0 : System.nanoTime();
+		IndexSnapshot last = snapshot;
+		Collection<String> changed;
+		if(allKeywordsChanged) {
+			mergePending();
+			changed = keywordsIndex.keySet();
+		}else {
+			changed = changedKeywords;
+		}
+		// new postings of the changed keywords, null for removed ones
+		HashMap<String,int[]> changes = new HashMap<String,int[]>(changed.size()*2);
+		for(String word : changed) {
+			mergePending(word);
+			ArrayList<Occurrence> occs = keywordsIndex.get(word);
+			if(occs == null) {
+				changes.put(word, null);
+				continue;
+			}
+			int[] pairs = new int[occs.size()*2];
+			for(int i = 0; i < occs.size(); i++) {
+				pairs[2*i] = documents.idOf(occs.get(i).document);
+				pairs[2*i+1] = occs.get(i).frequency;
+			}
+			changes.put(word, pairs);
+		}
+		PostingMap postings = allKeywordsChanged ? PostingMap.of(changes) : last.postings.with(changes);
+		int numDocs = documents.size();
+		if(numDocs > snapshotDocNames.length) {
+			snapshotDocNames = Arrays.copyOf(snapshotDocNames, Math.max(numDocs, snapshotDocNames.length*2));
+		}
+		for(int i = last.numDocs; i < numDocs; i++) {
+			snapshotDocNames[i] = documents.name(i);
+		}
+		changedKeywords.clear();
+		allKeywordsChanged = false;
+		snapshot = new IndexSnapshot(version, postings, snapshotDocNames, numDocs,
+				Arrays.copyOf(documentLengths, numDocs));
+		if(m != null) {
+			m.stage(IndexMetrics.Stage.PUBLISH, System.nanoTime() - start);
+		}
+		return snapshot;
+	}
+	
+	/**
+	 * Returns the latest published snapshot of the index. This takes no lock, and the
+	 * snapshot can be searched while the index goes on changing.
+	 * 
+	 * @return Latest snapshot
+	 */
+	public IndexSnapshot snapshot() {
+		return snapshot;
+	}
+	
+	/**
+	 * Removes all occurrences in a document from a list, closing the gaps in one pass.
+	 * 
+	 * @return True if any occurrence was removed
+	 */
+	private static boolean removeOccurrence(ArrayList<Occurrence> occs, String docFile) {
+		int kept = 0;
+		for(int i = 0; i < occs.size(); i++) {
+			Occurrence occ = occs.get(i);
+			if(!occ.document.equals(docFile)) {
+				occs.set(kept++, occ);
+			}
+		}
+		if(kept == occs.size()) {
+			return false;
+		}
+		occs.subList(kept, occs.size()).clear();
+		return true;
+	}
+	
+	/**
+	 * Merges the pending occurrences of a keyword into its Occurrence list. The pending
+	 * occurrences are sorted, and then the two lists are merged in a single pass. Among
+	 * equal frequencies, occurrences already in the list come first, so ties stay in the
+	 * order the documents were added.
+	 * 
+	 * @param word Keyword
+	 */
+	void mergePending(String word) {
+		ArrayList<Occurrence> pending = pendingOccurrences.remove(word);
+		if(pending == null) {
+			return;
+		}
+		Collections.sort(pending, new Comparator<Occurrence>() {
+			public int compare(Occurrence o1, Occurrence o2) {
+				return o2.frequency - o1.frequency;
+			}
+		});
+		ArrayList<Occurrence> occs = keywordsIndex.get(word);
+		if(occs == null) {
+			keywordsIndex.put(word, pending);
+			return;
+		}
+		ArrayList<Occurrence> merged = new ArrayList<Occurrence>(occs.size() + pending.size());
+		int i = 0, j = 0;
+		while(i < occs.size() || j < pending.size()) {
+			if(j == pending.size() || (i < occs.size() && occs.get(i).frequency >= pending.get(j).frequency)) {
+				merged.add(occs.get(i++));
+			}else {
+				merged.add(pending.get(j++));
+			}
+		}
+		keywordsIndex.put(word, merged);
+	}
+	
+	/**
+	 * Merges all pending occurrences into the keywordsIndex.
+	 */
+	public synchronized void mergePending() {
+		IndexMetrics m = metrics;
+		long start = m == null ? 0 : System.nanoTime();
+		for(String word : new ArrayList<String>(pendingOccurrences.keySet())) {
+			mergePending(word);
+		}
+		if(m != null) {
+			m.stage(IndexMetrics.Stage.MERGE_PENDING, System.nanoTime() - start);
+		}
+	}
+	
+	/**
+	 * Merges a single keyword occurrence into the given index, keeping the keyword's
+	 * Occurrence list in descending order of frequency. This is the unit of work shared
+	 * by mergeKeywords and the striped merge stage of the ParallelIndexer, which calls
+	 * it on disjoint sets of keywords from several threads at once.
+	 * 
+	 * @param index Index to merge into
+	 * @param word Keyword
+	 * @param occ Occurrence of the keyword in the document being merged
+	 */
+	void mergeOccurrence(HashMap<String,ArrayList<Occurrence>> index, String word, Occurrence occ) {
+		ArrayList<Occurrence> occs = index.get(word);
+		if(occs == null) {
+			occs = new ArrayList<Occurrence>();
+			occs.add(occ);
+			index.put(word, occs);
+		}
+		else {
+			occs.add(occ);
+			insertLastOccurrence(occs);
 		}
 	}
 	
@@ -110,12 +551,16 @@ public class LittleSearchEngine {
 	 * 
 	 * See assignment description for examples
 	 * 
+	 * The letters are collected in a char buffer, and checked against the compiled noise
+	 * words there, so a String is only made for words that turn out to be keywords.
+	 * 
 	 * @param word Candidate word
 	 * @return Keyword (word without trailing punctuation, LOWER CASE)
 	 */
 	public String getKeyword(String word) {
 		/** COMPLETE THIS METHOD **/
-		String result = "";
+		char[] result = new char[word.length()];
+		int len = 0;
 		for(int i = 0; i<word.length(); i++) {
 			
 			if(i!=word.length()-1 && !Character.isAlphabetic(word.charAt(i)) && Character.isAlphabetic(word.charAt(i+1))) {
@@ -130,14 +575,13 @@ public class LittleSearchEngine {
 					return null;
 				}
 			}else {
-					result += word.toLowerCase().charAt(i);
+					result[len++] = Character.toLowerCase(word.charAt(i));
 			}
 		}
 		
-		//change noise to noiseWords when done implementing everything
-		if(noiseWords.contains(result) || result.equals("") || noiseWords.contains(result.concat(" ")))
+		if(len == 0 || noiseMatcher().matches(result, len))
 			return null;
-		return result;
+		return new String(result, 0, len);
 	}
 	
 	/**
@@ -145,6 +589,8 @@ public class LittleSearchEngine {
 	 * list, based on ordering occurrences on descending frequencies. The elements
 	 * 0..n-2 in the list are already in the correct order. Insertion is done by
 	 * first finding the correct spot using binary search, then inserting at that spot.
+	 * The new occurrence goes after any occurrences with the same frequency, so ties
+	 * stay in the order the documents were merged.
 	 * 
 	 * @param occs List of Occurrences
 	 * @return Sequence of mid point indexes in the input list checked by the binary search process,
@@ -159,14 +605,16 @@ public class LittleSearchEngine {
 		while(lo<=hi) {
 			mid = (hi+lo)/2;
 			midIndex.add(mid);
-			if(occs.get(mid).frequency==key) {
-				break;
-			}else if(occs.get(mid).frequency< key) {
+			if(occs.get(mid).frequency< key) {
 				hi = mid-1;
 			}else {
 				lo = mid+1;
 			}
 		}
+		IndexMetrics m = metrics;
+		if(m != null) {
+			m.inserted(midIndex.size(), occs.size()-1 - lo);
+		}
 		Occurrence o = occs.remove(occs.size()-1);
 		occs.add(lo,o);
 		return midIndex;
@@ -184,25 +632,272 @@ public class LittleSearchEngine {
 	 * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
 	 * @throws FileNotFoundException If there is a problem locating any of the input files on disk
 	 */
-	public void makeIndex(String docsFile, String noiseWordsFile) 
+	public synchronized void makeIndex(String docsFile, String noiseWordsFile) 
 	throws FileNotFoundException {
 		// load noise words to hash table
-		Scanner sc = new Scanner(new File(noiseWordsFile));
-		while (sc.hasNext()) {
-			String word = sc.next();
-			noiseWords.add(word);
-		}
+		loadNoiseWords(noiseWordsFile);
+		allKeywordsChanged = true;
+		docOrdered.clear();
+		version++;
 		
 		// index all keywords
-		sc = new Scanner(new File(docsFile));
+		Scanner sc = new Scanner(new File(docsFile));
 		while (sc.hasNext()) {
 			String docFile = sc.next();
+			if(streamingBudget > 0) {
+				new StreamingIndexer(this, streamingBudget).index(docFile);
+				continue;
+			}
 			HashMap<String,Occurrence> kws = loadKeywordsFromDocument(docFile);
 			mergeKeywords(kws);
 		}
 		sc.close();
 	}
 	
+	/**
+	 * Parallel version of makeIndex. Documents are scanned by a pool of worker threads,
+	 * and their keywords are merged into the keywordsIndex by a striped merge stage in
+	 * which each thread owns a disjoint set of keywords. Occurrences are merged in the
+	 * order the documents are listed in docsFile, so the resulting index is exactly the
+	 * same as the one built by makeIndex.
+	 * 
+	 * @param docsFile Name of file that has a list of all the document file names, one name per line
+	 * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+	 * @param threads Number of worker threads
+	 * @throws FileNotFoundException If there is a problem locating any of the input files on disk
+	 */
+	public synchronized void makeIndex(String docsFile, String noiseWordsFile, int threads) 
+	throws FileNotFoundException {
+		makeIndex(readDocumentList(docsFile), noiseWordsFile, threads);
+	}
+	
+	/**
+	 * Parallel version of makeIndex for a list of documents rather than a docs file.
+	 * 
+	 * @param docFiles Names of the document files to index, in order
+	 * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+	 * @param threads Number of worker threads
+	 * @throws FileNotFoundException If there is a problem locating any of the input files on disk
+	 */
+	synchronized void makeIndex(ArrayList<String> docFiles, String noiseWordsFile, int threads) 
+	throws FileNotFoundException {
+		loadNoiseWords(noiseWordsFile);
+		allKeywordsChanged = true;
+		docOrdered.clear();
+		version++;
+		new ParallelIndexer(this, threads).index(docFiles);
+	}
+	
+	/**
+	 * Loads the noise words file into the noiseWords hash set, and compiles the noise words
+	 * for lookups on char buffers.
+	 * 
+	 * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+	 * @throws FileNotFoundException If the noise words file is not found on disk
+	 */
+	void loadNoiseWords(String noiseWordsFile) 
+	throws FileNotFoundException {
+		Scanner sc = new Scanner(new File(noiseWordsFile));
+		while (sc.hasNext()) {
+			String word = sc.next();
+			noiseWords.add(word);
+		}
+		sc.close();
+		noiseMatcher = new NoiseWordMatcher(noiseWords);
+	}
+	
+	/**
+	 * Reads the list of document file names from a docs file.
+	 * 
+	 * @param docsFile Name of file that has a list of all the document file names, one name per line
+	 * @return Document file names, in the order they appear in docsFile
+	 * @throws FileNotFoundException If the docs file is not found on disk
+	 */
+	static ArrayList<String> readDocumentList(String docsFile) 
+	throws FileNotFoundException {
+		ArrayList<String> docFiles = new ArrayList<String>();
+		Scanner sc = new Scanner(new File(docsFile));
+		while (sc.hasNext()) {
+			docFiles.add(sc.next());
+		}
+		sc.close();
+		return docFiles;
+	}
+	
+	/**
+	 * Turns on recording of keyword positions for all documents loaded from now on, which
+	 * phraseSearch and proximitySearch need. Call this before makeIndex.
+	 */
+	public void enablePositions() {
+		positional = true;
+	}
+	
+	/**
+	 * Turns on streaming mode for the documents that makeIndex (the sequential version) and
+	 * addDocument index from now on: the keyword counts of a document are spilled to sorted
+	 * run files whenever they outgrow the memory budget, and merged into the index from
+	 * there, so that documents of any size can be indexed. Positions are not recorded in
+	 * this mode.
+	 * 
+	 * @param memoryBudget Memory budget in bytes for the keyword counts of a document, 0 to
+	 *        turn streaming mode off
+	 */
+	public void enableStreaming(long memoryBudget) {
+		if(memoryBudget < 0) {
+			throw new IllegalArgumentException("memory budget must not be negative");
+		}
+		streamingBudget = memoryBudget;
+	}
+	
+	/**
+	 * Search result for an exact phrase. See PhraseSearch.phrase for the rules.
+	 * 
+	 * @param k Maximum number of documents in the result
+	 * @param phrase Phrase, words separated by white space
+	 * @return Documents that contain the phrase, most matches first; null if there are none
+	 * @throws IllegalArgumentException If k is less than 1
+	 */
+	public synchronized ArrayList<String> phraseSearch(int k, String phrase) {
+		TopKSearch.checkK(k);
+		IndexMetrics m = metrics;
+		long start = m == null ? 0 : System.nanoTime();
+		ArrayList<String> search = PhraseSearch.phrase(this, k, phrase);
+		if(m != null) {
+			m.searched(IndexMetrics.Search.PHRASE, start, phrase);
+		}
+		return search;
+	}
+	
+	/**
+	 * Search result for keywords that occur within some distance of each other.
+	 * See PhraseSearch.proximity for the rules.
+	 * 
+	 * @param k Maximum number of documents in the result
+	 * @param within Maximum distance, in words, from the first keyword to each of the others
+	 * @param keywords Keywords
+	 * @return Matching documents, most matches first; null if there are none
+	 * @throws IllegalArgumentException If k is less than 1
+	 */
+	public synchronized ArrayList<String> proximitySearch(int k, int within, String... keywords) {
+		TopKSearch.checkK(k);
+		IndexMetrics m = metrics;
+		long start = m == null ? 0 : System.nanoTime();
+		ArrayList<String> search = PhraseSearch.proximity(this, k, within, keywords);
+		if(m != null) {
+			m.searched(IndexMetrics.Search.PROXIMITY, start, keywords);
+		}
+		return search;
+	}
+	
+	/**
+	 * Search result for a boolean query with AND, OR and NOT. See BooleanQuery for the
+	 * query language and ranking. The query runs on a snapshot of the index, which is
+	 * published first if the index has changed since the last one.
+	 * 
+	 * @param k Maximum number of documents in the result
+	 * @param query Query text, for instance "alice AND (rabbit OR queen) NOT hatter"
+	 * @return Matching documents, highest score first; null if there are none
+	 * @throws IllegalArgumentException If k is less than 1, or the query is not well formed
+	 */
+	public synchronized ArrayList<String> booleanSearch(int k, String query) {
+		TopKSearch.checkK(k);
+		IndexMetrics m = metrics;
+		long start = m == null ? 0 : System.nanoTime();
+		IndexSnapshot snap = snapshot;
+		if(snap.generation != version) {
+			snap = publish();
+		}
+		ArrayList<String> search = snap.booleanSearch(k, query);
+		if(m != null) {
+			m.searched(IndexMetrics.Search.BOOLEAN, start, query);
+		}
+		return search;
+	}
+	
+	/**
+	 * Search result for "kw1 or kw2 or ... or kwN", ranked by BM25 score instead of raw
+	 * frequency, so that long documents do not win just by being long. See Bm25Scorer.
+	 * The search runs on a snapshot of the index, which is published first if the index
+	 * has changed since the last one.
+	 * 
+	 * @param k Maximum number of documents in the result
+	 * @param keywords Keywords
+	 * @return Matching documents, highest score first; null if there are none
+	 * @throws IllegalArgumentException If k is less than 1
+	 */
+	public synchronized ArrayList<String> rankedSearch(int k, String... keywords) {
+		TopKSearch.checkK(k);
+		IndexMetrics m = metrics;
+		long start = m == null ? 0 : System.nanoTime();
+		IndexSnapshot snap = snapshot;
+		if(snap.generation != version) {
+			snap = publish();
+		}
+		ArrayList<String> search = snap.bm25().search(k, keywords);
+		if(m != null) {
+			m.searched(IndexMetrics.Search.RANKED, start, keywords);
+		}
+		return search;
+	}
+	
+	/**
+	 * Search result for a prefix or wildcard pattern, such as "alic*": documents in which
+	 * any keyword that matches the pattern occurs, ranked as in topKSearch. The search runs
+	 * on a snapshot of the index, which is published first if the index has changed since
+	 * the last one. See IndexSnapshot.wildcardSearch.
+	 * 
+	 * @param k Maximum number of documents in the result
+	 * @param pattern Pattern, with '*' for any run of characters and '?' for any one character
+	 * @return List of documents in which any matching keyword occurs, null if there are no matches
+	 * @throws IllegalArgumentException If k is less than 1
+	 */
+	public synchronized ArrayList<String> wildcardSearch(int k, String pattern) {
+		TopKSearch.checkK(k);
+		IndexMetrics m = metrics;
+		long start = m == null ? 0 : System.nanoTime();
+		IndexSnapshot snap = snapshot;
+		if(snap.generation != version) {
+			snap = publish();
+		}
+		ArrayList<String> search = snap.wildcardSearch(k, pattern);
+		if(m != null) {
+			m.searched(IndexMetrics.Search.WILDCARD, start, pattern);
+		}
+		return search;
+	}
+	
+	/**
+	 * Search results for a batch of "kw1 or kw2 or ... or kwN" queries, with the same rules
+	 * as topKSearch, for running many queries at once: identical queries are run once, each
+	 * keyword's Occurrence list is looked up once for the whole batch, and the queries are
+	 * split among worker threads. The batch runs on a snapshot of the index, which is
+	 * published first if the index has changed since the last one; the engine is not locked
+	 * while the queries run.
+	 * 
+	 * @param k Maximum number of documents in each result
+	 * @param queries Queries, each an array of keywords in order of precedence
+	 * @param threads Number of worker threads
+	 * @return Results, in the order of the queries; a null result means no matches
+	 * @throws IllegalArgumentException If k is less than 1
+	 */
+	public ArrayList<ArrayList<String>> batchSearch(int k, List<String[]> queries, int threads) {
+		TopKSearch.checkK(k);
+		IndexMetrics m = metrics;
+		long start = m == null ? 0 : System.nanoTime();
+		IndexSnapshot snap;
+		synchronized(this) {
+			snap = snapshot;
+			if(snap.generation != version) {
+				snap = publish();
+			}
+		}
+		ArrayList<ArrayList<String>> search = snap.batchSearch(k, queries, threads);
+		if(m != null) {
+			m.searched(IndexMetrics.Search.BATCH, start, queries.size() + " queries");
+		}
+		return search;
+	}
+	
 	/**
 	 * Search result for "kw1 or kw2". A document is in the result set if kw1 or kw2 occurs in that
 	 * document. Result set is arranged in descending order of document frequencies. 
@@ -224,54 +919,179 @@ public class LittleSearchEngine {
 	 *         returns null or empty array list.
 	 */
 	public ArrayList<String> top5search(String kw1, String kw2) {
-		/** COMPLETE THIS METHOD **/
-		ArrayList<String> search = new ArrayList<String>();
-		kw1 = kw1.toLowerCase(); 
-		kw2 = kw2.toLowerCase();
-		
-		if(!keywordsIndex.containsKey(kw1) && !keywordsIndex.containsKey(kw2)) {
-			return null;
-			
-		}else if(!keywordsIndex.containsKey(kw1) && keywordsIndex.containsKey(kw2)) {
-			for(int i=0; i<5; i++) {
-				if(i==keywordsIndex.get(kw2).size()) break;
-				search.add(keywordsIndex.get(kw2).get(i).document);
+		return topKSearch(5, kw1, kw2);
+	}
+	
+	/**
+	 * Search result for "kw1 or kw2 or ... or kwN", limited to k entries. The rules are the same
+	 * as for top5search: a matching document appears only once, the result set is arranged in
+	 * descending order of document frequencies, and ties in frequency values are broken in
+	 * favor of the earlier keyword. See TopKSearch for how the posting lists are merged.
+	 * 
+	 * @param k Maximum number of documents in the result
+	 * @param keywords Keywords, in order of precedence for breaking ties
+	 * @return List of documents in which any of the keywords occurs, arranged in descending order of
+	 *         frequencies. The result size is limited to k documents. If there are no matches, 
+	 *         returns null.
+	 * @throws IllegalArgumentException If k is less than 1
+	 */
+	public synchronized ArrayList<String> topKSearch(int k, String... keywords) {
+		TopKSearch.checkK(k);
+		IndexMetrics m = metrics;
+		long start = m == null ? 0 : System.nanoTime();
+		QueryCache cache = queryCache;
+		String key = null;
+		ArrayList<String> search;
+		QueryCache.Entry e = null;
+		if(cache != null) {
+			key = QueryCache.key(k, false, keywords);
+			e = cache.get(key, version);
+		}
+		if(e != null) {
+			search = e.result == null ? null : new ArrayList<String>(e.result);
+		}else {
+			search = computeTopK(k, keywords);
+			if(cache != null) {
+				cache.put(key, version, search == null ? null : new ArrayList<String>(search));
 			}
-		}else if(keywordsIndex.containsKey(kw1) && !keywordsIndex.containsKey(kw2)) {
-			for(int i=0; i<5; i++) {
-				if(i==keywordsIndex.get(kw1).size()) break;
-				search.add(keywordsIndex.get(kw1).get(i).document);
+		}
+		if(m != null) {
+			m.searched(IndexMetrics.Search.TOPK, start, keywords);
+		}
+		return search;
+	}
+	
+	/**
+	 * Search result for "kw1 or kw2 or ... or kwN" from the latest published snapshot,
+	 * with the same rules as topKSearch. This takes no lock on the engine, so it can be
+	 * called from many threads while the index is being changed.
+	 * 
+	 * @param k Maximum number of documents in the result
+	 * @param keywords Keywords, in order of precedence for breaking ties
+	 * @return List of documents in which any of the keywords occurs, null if there are no matches
+	 * @throws IllegalArgumentException If k is less than 1
+	 */
+	public ArrayList<String> snapshotSearch(int k, String... keywords) {
+		TopKSearch.checkK(k);
+		IndexMetrics m = metrics;
+		long start = m == null ? 0 : System.nanoTime();
+		IndexSnapshot snap = snapshot;
+		QueryCache cache = queryCache;
+		String key = null;
+		ArrayList<String> search;
+		QueryCache.Entry e = null;
+		if(cache != null) {
+			key = QueryCache.key(k, true, keywords);
+			e = cache.get(key, snap.generation);
+		}
+		if(e != null) {
+			search = e.result == null ? null : new ArrayList<String>(e.result);
+		}else {
+			search = snap.topKSearch(k, keywords);
+			if(cache != null) {
+				cache.put(key, snap.generation, search == null ? null : new ArrayList<String>(search));
 			}
-		
-		}else if(keywordsIndex.containsKey(kw1) && keywordsIndex.containsKey(kw2)) {
-			int kw1I = 0, kw2I = 0;
-			System.out.println(keywordsIndex.get(kw1));
-			System.out.println(keywordsIndex.get(kw2));
-			while(search.size()<5 && (kw2I<keywordsIndex.get(kw2).size() || kw1I<keywordsIndex.get(kw1).size())) {
-				
-				if(kw2I==keywordsIndex.get(kw2).size()) {
-					if(!search.contains(keywordsIndex.get(kw1).get(kw1I).document)) 
-						search.add(keywordsIndex.get(kw1).get(kw1I).document);
-					kw1I++;
-				}
-				else if(kw1I==keywordsIndex.get(kw1).size()) { 
-					if(!search.contains(keywordsIndex.get(kw2).get(kw2I).document)) 
-						search.add(keywordsIndex.get(kw2).get(kw2I).document);
-					kw2I++;
-				}
-				else if(keywordsIndex.get(kw1).get(kw1I).frequency >= keywordsIndex.get(kw2).get(kw2I).frequency) {
-					if(!search.contains(keywordsIndex.get(kw1).get(kw1I).document)) 
-						search.add(keywordsIndex.get(kw1).get(kw1I).document);
-					kw1I++;
-				}
-				else {
-					if(!search.contains(keywordsIndex.get(kw2).get(kw2I).document)) 
-						search.add(keywordsIndex.get(kw2).get(kw2I).document);
-					kw2I++;
-				}
+		}
+		if(m != null) {
+			m.searched(IndexMetrics.Search.SNAPSHOT, start, keywords);
+		}
+		return search;
+	}
+	
+	/**
+	 * Turns on caching of search results for topKSearch, top5search and snapshotSearch.
+	 * Cached results are dropped as soon as the index changes.
+	 * 
+	 * @param capacity Maximum number of cached results
+	 * @return The cache, for its stats
+	 */
+	public QueryCache enableQueryCache(int capacity) {
+		queryCache = new QueryCache(capacity);
+		return queryCache;
+	}
+	
+	/**
+	 * Turns off caching of search results.
+	 */
+	public void disableQueryCache() {
+		queryCache = null;
+	}
+	
+	/**
+	 * Turns on metrics of indexing and searches, starting from zero. See IndexMetrics for
+	 * what is measured.
+	 * 
+	 * @return The metrics
+	 */
+	public IndexMetrics enableMetrics() {
+		metrics = new IndexMetrics(this);
+		return metrics;
+	}
+	
+	/**
+	 * Turns off metrics.
+	 */
+	public void disableMetrics() {
+		metrics = null;
+	}
+	
+	/**
+	 * Computes a topKSearch result, without the cache.
+	 */
+	private ArrayList<String> computeTopK(int k, String... keywords) {
+		PostingCursor[] cursors = new PostingCursor[keywords.length];
+		boolean any = false;
+		for(int i = 0; i < keywords.length; i++) {
+			ArrayList<Occurrence> occs = postingList(keywords[i].toLowerCase());
+			if(occs != null) {
+				cursors[i] = new OccurrenceCursor(occs, documents);
+				any = true;
 			}
 		}
+		if(!any) {
+			return null;
+		}
+		int[] ids = TopKSearch.search(cursors, k);
+		ArrayList<String> search = new ArrayList<String>(ids.length);
+		for(int id : ids) {
+			search.add(documents.name(id));
+		}
 		return search;
 	}
 	
+	/**
+	 * Returns the Occurrence list of a keyword.
+	 * 
+	 * @param kw Keyword (lower case)
+	 * @return Occurrences in descending order of frequencies, null if the keyword is not in the index
+	 */
+	ArrayList<Occurrence> postingList(String kw) {
+		mergePending(kw);
+		return keywordsIndex.get(kw);
+	}
+
+	/**
+	 * Returns a doc id ordered view of the Occurrence list of a keyword, for finding the
+	 * Occurrence of a document by galloping instead of scanning the list. The view pairs
+	 * each document id with the position of the document's Occurrence in the list (in
+	 * place of a frequency), and is kept until the keyword's list changes.
+	 * 
+	 * @param kw Keyword (lower case)
+	 * @param occs Occurrence list of the keyword, from postingList
+	 * @return View of the list
+	 */
+	DocIdPostings docOrderedPostings(String kw, ArrayList<Occurrence> occs) {
+		DocIdPostings view = docOrdered.get(kw);
+		if(view == null) {
+			int[] pairs = new int[2*occs.size()];
+			for(int i=0; i < occs.size(); i++) {
+				pairs[2*i] = documents.idOf(occs.get(i).document);
+				pairs[2*i+1] = i;
+			}
+			view = new DocIdPostings(pairs);
+			docOrdered.put(kw, view);
+		}
+		return view;
+	}
+
 }
\ No newline at end of file
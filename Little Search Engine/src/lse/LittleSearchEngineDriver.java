@@ -3,16 +3,49 @@ package lse;
 import java.io.*;
 import java.util.*;
 
+/**
+ * Interactive driver for the search engine.
+ * 
+ * With no arguments, builds the index from a docs file and a noise words file.
+ * With "-save segmentFile", also saves the index it built to a segment file.
+ * With "-load segmentFile", skips indexing and searches a saved segment file instead.
+ * With "-serve port", serves the index it built with a QueryServer instead of the
+ * interactive loop.
+ * With "-metrics", prints the indexing and search metrics as JSON on quitting.
+ */
 public class LittleSearchEngineDriver {
 
-	public static void main(String[] args) throws FileNotFoundException  {
+	public static void main(String[] args) throws IOException  {
 		Scanner sc = new Scanner(System.in);
-		System.out.println("Enter a docsFile: ");
-		String docsFile = sc.nextLine();
-		System.out.println("Enter a noise Words file: ");
-		String noiseWords = sc.nextLine();
-		LittleSearchEngine little = new LittleSearchEngine();
-		little.makeIndex(docsFile, noiseWords);
+		LittleSearchEngine little = null;
+		MappedIndex mapped = null;
+		if(args.length == 2 && args[0].equals("-load")) {
+			long start = System.nanoTime();
+			mapped = new MappedIndex(args[1]);
+			System.out.printf("Loaded %d keywords from %s in %.2f ms%n", 
+					mapped.numTerms(), args[1], (System.nanoTime()-start)/1e6);
+		}else {
+			System.out.println("Enter a docsFile: ");
+			String docsFile = sc.nextLine();
+			System.out.println("Enter a noise Words file: ");
+			String noiseWords = sc.nextLine();
+			little = new LittleSearchEngine();
+			if(args.length == 1 && args[0].equals("-metrics")) {
+				little.enableMetrics();
+			}
+			little.makeIndex(docsFile, noiseWords);
+			if(args.length == 2 && args[0].equals("-save")) {
+				MappedIndex.save(little, args[1]);
+				System.out.println("Saved index to " + args[1]);
+			}
+			if(args.length == 2 && args[0].equals("-serve")) {
+				QueryServer server = new QueryServer(little.publish(), Integer.parseInt(args[1]));
+				System.out.println("Serving on port " + server.port());
+				server.serve();
+				sc.close();
+				return;
+			}
+		}
 		
 		int choice = -1;
 		do {
@@ -24,7 +57,8 @@ public class LittleSearchEngineDriver {
 				String word1 = sc.next();
 				System.out.println("Enter 2nd word: ");
 				String word2 = sc.next();
-				ArrayList<String> top5 = little.top5search(word1, word2);
+				ArrayList<String> top5 = little != null ? 
+						little.top5search(word1, word2) : mapped.top5search(word1, word2);
 				if(top5 == null || top5.isEmpty()) {
 					System.out.println("No documents are related to these words");
 				}else {
@@ -35,6 +69,9 @@ public class LittleSearchEngineDriver {
 				System.out.println();
 			}
 		}while(choice != 2);
+		if(little != null && little.metrics != null) {
+			System.out.println(little.metrics.toJson());
+		}
 		sc.close();
 	}
 	
@@ -0,0 +1,677 @@
+package lse;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * This class saves an index to a segment file, and answers searches directly from a
+ * memory mapped segment file, without rebuilding the index from the documents.
+ *
+ * A segment file has the following layout. All ints are 4 bytes, big endian, and all
+ * strings are UTF-8.
+ *
+ *   header       MAGIC, VERSION, number of documents, number of noise words, number of terms
+ *   documents    (numDocs+1) string offsets, then the document name bytes, by document id
+ *   noise words  (numNoise+1) string offsets, then the noise word bytes
+ *   terms        (numTerms+1) string offsets, then the term bytes, in ascending unsigned
+ *                byte order so that terms can be found by binary search
+ *   postings     numTerms posting counts, (numTerms+1) posting offsets, then the postings
+ *                of all terms in the CompactIndex encoding, in the same order as the terms
+ *
+ * String offsets are relative to the first byte after the offsets; posting offsets are
+ * relative to the first byte after the posting offsets.
+ *
+ */
+public class MappedIndex implements PostingSource {
+
+	/**
+	 * First 4 bytes of a segment file ("LSEG").
+	 */
+	static final int MAGIC = 0x4C534547;
+
+	/**
+	 * Version of the segment layout written by this class.
+	 */
+	static final int VERSION = 1;
+
+	/**
+	 * Mapped segment file.
+	 */
+	ByteBuffer buf;
+
+	/**
+	 * Number of documents, noise words and terms.
+	 */
+	int numDocs, numNoise, numTerms;
+
+	/**
+	 * Start of each section's offsets.
+	 */
+	int docsStart, noiseStart, termsStart, countsStart, postingsStart;
+
+	/**
+	 * Maps a segment file.
+	 *
+	 * @param file Name of the segment file
+	 * @throws IOException If the file cannot be read, or is not a segment file of a known version
+	 */
+	public MappedIndex(String file)
+	throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			buf = mapped.order(ByteOrder.BIG_ENDIAN);
+		} finally {
+			raf.close();
+		}
+		if (buf.limit() < 20 || buf.getInt(0) != MAGIC) {
+			throw new IOException(file + " is not an index segment file");
+		}
+		int version = buf.getInt(4);
+		if (version != VERSION) {
+			throw new IOException(file + " has segment version " + version + ", expected " + VERSION);
+		}
+		numDocs = buf.getInt(8);
+		numNoise = buf.getInt(12);
+		numTerms = buf.getInt(16);
+		docsStart = 20;
+		noiseStart = stringSectionEnd(docsStart, numDocs);
+		termsStart = stringSectionEnd(noiseStart, numNoise);
+		countsStart = stringSectionEnd(termsStart, numTerms);
+		postingsStart = countsStart + 4*numTerms;
+	}
+
+	/**
+	 * Returns the end of a string section.
+	 */
+	private int stringSectionEnd(int start, int count) {
+		return start + 4*(count+1) + buf.getInt(start + 4*count);
+	}
+
+	/**
+	 * Returns the i-th string of a string section.
+	 */
+	private String string(int start, int count, int i) {
+		return new String(bytes(start, count, i), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Returns the bytes of the i-th string of a string section.
+	 */
+	private byte[] bytes(int start, int count, int i) {
+		int base = start + 4*(count+1);
+		int from = buf.getInt(start + 4*i), to = buf.getInt(start + 4*(i+1));
+		byte[] b = new byte[to - from];
+		for (int j=0; j < b.length; j++) {
+			b[j] = buf.get(base + from + j);
+		}
+		return b;
+	}
+
+	/**
+	 * Returns the number of documents in the segment.
+	 *
+	 * @return Number of documents
+	 */
+	public int numDocuments() {
+		return numDocs;
+	}
+
+	/**
+	 * Returns the number of keywords in the segment.
+	 *
+	 * @return Number of keywords
+	 */
+	public int numTerms() {
+		return numTerms;
+	}
+
+	/**
+	 * Returns the name of a document.
+	 *
+	 * @param id Document id
+	 * @return Document name
+	 */
+	public String document(int id) {
+		return string(docsStart, numDocs, id);
+	}
+
+	/**
+	 * Returns a keyword of the term dictionary.
+	 *
+	 * @param t Term number, from 0 to numTerms()-1
+	 * @return Keyword
+	 */
+	String term(int t) {
+		return string(termsStart, numTerms, t);
+	}
+
+	/**
+	 * Returns the UTF-8 bytes of a keyword of the term dictionary.
+	 *
+	 * @param t Term number, from 0 to numTerms()-1
+	 * @return Keyword bytes
+	 */
+	byte[] termBytes(int t) {
+		return bytes(termsStart, numTerms, t);
+	}
+
+	/**
+	 * Reads the noise words saved with the index.
+	 *
+	 * @return Noise words
+	 */
+	public HashSet<String> noiseWords() {
+		HashSet<String> words = new HashSet<String>(numNoise*2);
+		for (int i=0; i < numNoise; i++) {
+			words.add(string(noiseStart, numNoise, i));
+		}
+		return words;
+	}
+
+	/**
+	 * Finds a term in the term dictionary by binary search.
+	 *
+	 * @param kw Keyword (lower case)
+	 * @return Term number, -1 if the keyword is not in the segment
+	 */
+	int termNumber(String kw) {
+		byte[] key = kw.getBytes(StandardCharsets.UTF_8);
+		int base = termsStart + 4*(numTerms+1);
+		int lo = 0, hi = numTerms-1;
+		while (lo <= hi) {
+			int mid = (lo+hi) >>> 1;
+			int from = base + buf.getInt(termsStart + 4*mid);
+			int to = base + buf.getInt(termsStart + 4*(mid+1));
+			int c = compare(from, to, key);
+			if (c == 0) {
+				return mid;
+			} else if (c < 0) {
+				lo = mid+1;
+			} else {
+				hi = mid-1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Compares the mapped bytes from..to-1 with a key, as unsigned bytes.
+	 */
+	private int compare(int from, int to, byte[] key) {
+		int n = Math.min(to - from, key.length);
+		for (int i=0; i < n; i++) {
+			int c = (buf.get(from + i) & 0xff) - (key[i] & 0xff);
+			if (c != 0) {
+				return c;
+			}
+		}
+		return (to - from) - key.length;
+	}
+
+	/**
+	 * Returns a cursor over the postings of a keyword.
+	 *
+	 * @param kw Keyword (lower case)
+	 * @return Cursor over the keyword's postings, null if the keyword is not in the segment
+	 */
+	public Cursor cursor(String kw) {
+		int t = termNumber(kw);
+		return t < 0 ? null : new Cursor(t);
+	}
+
+	/**
+	 * Returns the Occurrence list of a keyword.
+	 *
+	 * @param kw Keyword (lower case)
+	 * @return Occurrences in descending order of frequencies, null if the keyword is not in the segment
+	 */
+	public ArrayList<Occurrence> occurrences(String kw) {
+		Cursor c = cursor(kw);
+		if (c == null) {
+			return null;
+		}
+		ArrayList<Occurrence> occs = new ArrayList<Occurrence>(c.remaining);
+		while (c.next()) {
+			occs.add(new Occurrence(document(c.docId), c.frequency));
+		}
+		return occs;
+	}
+
+	/**
+	 * Search result for "kw1 or kw2", with the same rules as LittleSearchEngine.top5search:
+	 * descending order of frequencies, each document at most once, ties broken in favor
+	 * of kw1, and at most 5 documents.
+	 *
+	 * @param kw1 First keyword
+	 * @param kw2 Second keyword
+	 * @return List of documents in which either kw1 or kw2 occurs, null if there are no matches
+	 */
+	public ArrayList<String> top5search(String kw1, String kw2) {
+		return topKSearch(5, kw1, kw2);
+	}
+
+	/**
+	 * Search result for "kw1 or kw2 or ... or kwN", with the same rules as
+	 * LittleSearchEngine.topKSearch.
+	 *
+	 * @param k Maximum number of documents in the result
+	 * @param keywords Keywords, in order of precedence for breaking ties
+	 * @return List of documents in which any of the keywords occurs, null if there are no matches
+	 * @throws IllegalArgumentException If k is less than 1
+	 */
+	public ArrayList<String> topKSearch(int k, String... keywords) {
+		TopKSearch.checkK(k);
+		PostingCursor[] cursors = new PostingCursor[keywords.length];
+		boolean any = false;
+		for (int i=0; i < keywords.length; i++) {
+			cursors[i] = cursor(keywords[i].toLowerCase());
+			any |= cursors[i] != null;
+		}
+		if (!any) {
+			return null;
+		}
+		int[] ids = TopKSearch.search(cursors, k);
+		ArrayList<String> search = new ArrayList<String>(ids.length);
+		for (int id : ids) {
+			search.add(document(id));
+		}
+		return search;
+	}
+
+	/**
+	 * Search results for a batch of "kw1 or kw2 or ... or kwN" queries, with the same rules
+	 * as topKSearch. Each keyword's postings are decoded from the file only once for the
+	 * whole batch; see BatchSearch.
+	 *
+	 * @param k Maximum number of documents in each result
+	 * @param queries Queries, each an array of keywords in order of precedence
+	 * @param threads Number of worker threads
+	 * @return Results, in the order of the queries; a null result means no matches
+	 * @throws IllegalArgumentException If k is less than 1
+	 */
+	public ArrayList<ArrayList<String>> batchSearch(int k, List<String[]> queries, int threads) {
+		TopKSearch.checkK(k);
+		return new BatchSearch(this, k, queries).run(threads);
+	}
+
+	/**
+	 * This class decodes the postings of one keyword straight from the mapped file.
+	 */
+	public class Cursor extends PostingCursor {
+
+		/**
+		 * Position of the next posting in the mapped file.
+		 */
+		int pos;
+
+		/**
+		 * Number of postings not yet decoded.
+		 */
+		int remaining;
+
+		Cursor(int term) {
+			int base = postingsStart + 4*(numTerms+1);
+			pos = base + buf.getInt(postingsStart + 4*term);
+			remaining = buf.getInt(countsStart + 4*term);
+			frequency = -1;
+		}
+
+		/**
+		 * Moves to the next posting.
+		 *
+		 * @return True if there is a next posting, false if the list is done
+		 */
+		public boolean next() {
+			if (remaining == 0) {
+				return false;
+			}
+			remaining--;
+			docId = readVarInt();
+			int delta = readVarInt();
+			frequency = frequency < 0 ? delta : frequency - delta;
+			return true;
+		}
+
+		private int readVarInt() {
+			int b = buf.get(pos++);
+			int v = b & 0x7f;
+			for (int shift = 7; b < 0; shift += 7) {
+				b = buf.get(pos++);
+				v |= (b & 0x7f) << shift;
+			}
+			return v;
+		}
+	}
+
+	/**
+	 * Saves an engine's index and noise words to a segment file.
+	 *
+	 * @param engine Engine whose index is to be saved
+	 * @param file Name of the segment file
+	 * @throws IOException If the file cannot be written
+	 */
+	public static void save(LittleSearchEngine engine, String file)
+	throws IOException {
+		save(new CompactIndex(engine), engine.noiseWords, file);
+	}
+
+	/**
+	 * Saves a compact index and a set of noise words to a segment file.
+	 *
+	 * @param index Index to be saved
+	 * @param noiseWords Noise words to be saved with the index
+	 * @param file Name of the segment file
+	 * @throws IOException If the file cannot be written
+	 */
+	public static void save(CompactIndex index, Set<String> noiseWords, String file)
+	throws IOException {
+		save(index, noiseWords, new FileOutputStream(file));
+	}
+
+	/**
+	 * Saves a compact index and a set of noise words to a stream in the segment file layout,
+	 * and closes the stream.
+	 *
+	 * @param index Index to be saved
+	 * @param noiseWords Noise words to be saved with the index
+	 * @param stream Stream to write to
+	 * @throws IOException If the stream cannot be written
+	 */
+	static void save(CompactIndex index, Set<String> noiseWords, OutputStream stream)
+	throws IOException {
+		// terms in unsigned byte order, for the binary search in termNumber
+		final byte[][] termBytes = new byte[index.numTerms()][];
+		Integer[] order = new Integer[termBytes.length];
+		for (Map.Entry<String,Integer> e : index.termIds.entrySet()) {
+			termBytes[e.getValue()] = e.getKey().getBytes(StandardCharsets.UTF_8);
+			order[e.getValue()] = e.getValue();
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return compareBytes(termBytes[a], termBytes[b]);
+			}
+		});
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+		try {
+			int numDocs = index.documents.size();
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(numDocs);
+			out.writeInt(noiseWords.size());
+			out.writeInt(termBytes.length);
+
+			byte[][] docBytes = new byte[numDocs][];
+			for (int i=0; i < numDocs; i++) {
+				docBytes[i] = index.documents.name(i).getBytes(StandardCharsets.UTF_8);
+			}
+			writeStrings(out, docBytes);
+
+			byte[][] noiseBytes = new byte[noiseWords.size()][];
+			int n = 0;
+			for (String w : noiseWords) {
+				noiseBytes[n++] = w.getBytes(StandardCharsets.UTF_8);
+			}
+			writeStrings(out, noiseBytes);
+
+			byte[][] sortedTerms = new byte[termBytes.length][];
+			for (int i=0; i < order.length; i++) {
+				sortedTerms[i] = termBytes[order[i]];
+			}
+			writeStrings(out, sortedTerms);
+
+			for (int i=0; i < order.length; i++) {
+				out.writeInt(index.lengths[order[i]]);
+			}
+			int offset = 0;
+			for (int i=0; i < order.length; i++) {
+				out.writeInt(offset);
+				offset += index.offsets[order[i]+1] - index.offsets[order[i]];
+			}
+			out.writeInt(offset);
+			for (int i=0; i < order.length; i++) {
+				int from = index.offsets[order[i]];
+				out.write(index.postings, from, index.offsets[order[i]+1] - from);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Position in the term dictionary of one of the segments being merged.
+	 */
+	static class TermCursor {
+		final int segment;
+		int term;
+		byte[] bytes;
+
+		TermCursor(int segment) {
+			this.segment = segment;
+		}
+	}
+
+	/**
+	 * Merges segments into one, written to a stream in the segment file layout, and closes
+	 * the stream. Documents get new ids in segment order, and the postings of each term are
+	 * merged in descending order of frequencies, ties going to the earlier segment, so that
+	 * documents rank as if they had all been in one segment from the start.
+	 *
+	 * No segment is loaded into memory: the sorted term dictionaries of all the segments
+	 * are walked together, and the postings of each term are merged straight from the
+	 * segments' cursors into a scratch file as the term comes up. The term dictionary and
+	 * posting offsets of the merged segment, which come before the postings in the layout,
+	 * are then written from a few ints kept per term, and the scratch file is copied after
+	 * them.
+	 *
+	 * @param segments Segments to merge, in the order their documents were added
+	 * @param noiseWords Noise words to be saved with the merged segment
+	 * @param scratch File for the merged postings, deleted when done
+	 * @param stream Stream to write to
+	 * @throws IOException If the scratch file or the stream cannot be written
+	 */
+	static void merge(List<MappedIndex> segments, Set<String> noiseWords, File scratch, OutputStream stream)
+	throws IOException {
+		int numDocs = 0;
+		int[] docBase = new int[segments.size()];
+		for (int s=0; s < segments.size(); s++) {
+			docBase[s] = numDocs;
+			numDocs += segments.get(s).numDocs;
+		}
+
+		// terms of all the segments in unsigned byte order, ties in segment order
+		PriorityQueue<TermCursor> terms = new PriorityQueue<TermCursor>(Math.max(segments.size(), 1), new Comparator<TermCursor>() {
+			public int compare(TermCursor a, TermCursor b) {
+				int c = compareBytes(a.bytes, b.bytes);
+				return c != 0 ? c : a.segment - b.segment;
+			}
+		});
+		for (int s=0; s < segments.size(); s++) {
+			if (segments.get(s).numTerms > 0) {
+				TermCursor tc = new TermCursor(s);
+				tc.bytes = segments.get(s).termBytes(0);
+				terms.add(tc);
+			}
+		}
+
+		// for each merged term: a segment and term number it came from, its number of
+		// postings, and the length of its encoded postings
+		int numTerms = 0;
+		int[] termSegment = new int[1024], termNumber = new int[1024], counts = new int[1024], lengths = new int[1024];
+		try {
+			OutputStream postings = new BufferedOutputStream(new FileOutputStream(scratch), 1 << 16);
+			try {
+				CompactIndex.VarIntWriter enc = new CompactIndex.VarIntWriter(1 << 16);
+				ArrayList<TermCursor> group = new ArrayList<TermCursor>();
+				Cursor[] cursors = new Cursor[segments.size()];
+				int[] bases = new int[segments.size()];
+				while (!terms.isEmpty()) {
+					group.clear();
+					group.add(terms.poll());
+					while (!terms.isEmpty() && compareBytes(terms.peek().bytes, group.get(0).bytes) == 0) {
+						group.add(terms.poll());
+					}
+					if (numTerms == counts.length) {
+						termSegment = Arrays.copyOf(termSegment, numTerms*2);
+						termNumber = Arrays.copyOf(termNumber, numTerms*2);
+						counts = Arrays.copyOf(counts, numTerms*2);
+						lengths = Arrays.copyOf(lengths, numTerms*2);
+					}
+					termSegment[numTerms] = group.get(0).segment;
+					termNumber[numTerms] = group.get(0).term;
+
+					// merge the term's postings; the group is in segment order
+					int n = group.size();
+					for (int i=0; i < n; i++) {
+						TermCursor tc = group.get(i);
+						cursors[i] = segments.get(tc.segment).new Cursor(tc.term);
+						if (!cursors[i].next()) {
+							cursors[i] = null;
+						}
+						bases[i] = docBase[tc.segment];
+					}
+					int count = 0, length = 0, last = -1;
+					for (;;) {
+						int best = -1;
+						for (int i=0; i < n; i++) {
+							if (cursors[i] != null && (best < 0 || cursors[i].frequency > cursors[best].frequency)) {
+								best = i;
+							}
+						}
+						if (best < 0) {
+							break;
+						}
+						Cursor c = cursors[best];
+						enc.write(bases[best] + c.docId);
+						enc.write(last < 0 ? c.frequency : last - c.frequency);
+						last = c.frequency;
+						count++;
+						if (enc.size >= 1 << 16) {
+							postings.write(enc.buf, 0, enc.size);
+							length += enc.size;
+							enc.size = 0;
+						}
+						if (!c.next()) {
+							cursors[best] = null;
+						}
+					}
+					postings.write(enc.buf, 0, enc.size);
+					length += enc.size;
+					enc.size = 0;
+					counts[numTerms] = count;
+					lengths[numTerms] = length;
+					numTerms++;
+
+					for (TermCursor tc : group) {
+						MappedIndex seg = segments.get(tc.segment);
+						if (++tc.term < seg.numTerms) {
+							tc.bytes = seg.termBytes(tc.term);
+							terms.add(tc);
+						}
+					}
+				}
+			} finally {
+				postings.close();
+			}
+
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(numDocs);
+				out.writeInt(noiseWords.size());
+				out.writeInt(numTerms);
+
+				byte[][] docBytes = new byte[numDocs][];
+				for (int s=0; s < segments.size(); s++) {
+					MappedIndex seg = segments.get(s);
+					for (int id=0; id < seg.numDocs; id++) {
+						docBytes[docBase[s] + id] = seg.bytes(seg.docsStart, seg.numDocs, id);
+					}
+				}
+				writeStrings(out, docBytes);
+
+				byte[][] noiseBytes = new byte[noiseWords.size()][];
+				int n = 0;
+				for (String w : noiseWords) {
+					noiseBytes[n++] = w.getBytes(StandardCharsets.UTF_8);
+				}
+				writeStrings(out, noiseBytes);
+
+				// term section, read back from the segments one term at a time
+				int offset = 0;
+				for (int t=0; t < numTerms; t++) {
+					out.writeInt(offset);
+					MappedIndex seg = segments.get(termSegment[t]);
+					offset += seg.buf.getInt(seg.termsStart + 4*(termNumber[t]+1)) - seg.buf.getInt(seg.termsStart + 4*termNumber[t]);
+				}
+				out.writeInt(offset);
+				for (int t=0; t < numTerms; t++) {
+					out.write(segments.get(termSegment[t]).termBytes(termNumber[t]));
+				}
+
+				for (int t=0; t < numTerms; t++) {
+					out.writeInt(counts[t]);
+				}
+				offset = 0;
+				for (int t=0; t < numTerms; t++) {
+					out.writeInt(offset);
+					offset += lengths[t];
+				}
+				out.writeInt(offset);
+				InputStream in = new FileInputStream(scratch);
+				try {
+					byte[] b = new byte[1 << 16];
+					for (int r; (r = in.read(b)) > 0; ) {
+						out.write(b, 0, r);
+					}
+				} finally {
+					in.close();
+				}
+			} finally {
+				out.close();
+			}
+		} finally {
+			// closes the stream too if the merge failed before writing to it
+			stream.close();
+			scratch.delete();
+		}
+	}
+
+	/**
+	 * Writes a string section: offsets, then bytes.
+	 */
+	private static void writeStrings(DataOutputStream out, byte[][] strings)
+	throws IOException {
+		int offset = 0;
+		for (byte[] s : strings) {
+			out.writeInt(offset);
+			offset += s.length;
+		}
+		out.writeInt(offset);
+		for (byte[] s : strings) {
+			out.write(s);
+		}
+	}
+
+	/**
+	 * Compares two byte arrays as unsigned bytes.
+	 */
+	static int compareBytes(byte[] a, byte[] b) {
+		int n = Math.min(a.length, b.length);
+		for (int i=0; i < n; i++) {
+			int c = (a[i] & 0xff) - (b[i] & 0xff);
+			if (c != 0) {
+				return c;
+			}
+		}
+		return a.length - b.length;
+	}
+}
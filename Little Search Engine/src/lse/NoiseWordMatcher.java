@@ -0,0 +1,166 @@
+package lse;
+
+import java.util.*;
+
+/**
+ * This class is a compiled, immutable set of noise words, for checking words held in
+ * char buffers without making Strings of them.
+ *
+ * The words are placed in a two level perfect hash table. The first level hashes a word
+ * to a bucket; the words of each bucket get a small second level table of their own, at
+ * least the square of their number in size, with a hash seed chosen when the matcher is
+ * compiled so that none of them collide. The tables take space linear in the number of
+ * words, and a lookup hashes the characters twice and compares them against the one word
+ * in their slot, with no probing.
+ *
+ * A noise word with a trailing space also matches the word without it, as the
+ * noiseWords.contains(result.concat(" ")) check of getKeyword did.
+ *
+ */
+class NoiseWordMatcher {
+
+	/**
+	 * Start of each bucket's table in slots.
+	 */
+	final int[] offsets;
+
+	/**
+	 * Size of each bucket's table, a power of 2, or 0 for an empty bucket.
+	 */
+	final int[] sizes;
+
+	/**
+	 * Hash seed of each bucket's table.
+	 */
+	final int[] seeds;
+
+	/**
+	 * Words, by slot; null for an empty slot.
+	 */
+	final char[][] slots;
+
+	/**
+	 * Size of the noise word set this matcher was compiled from.
+	 */
+	final int sourceSize;
+
+	/**
+	 * Compiles a set of noise words.
+	 *
+	 * @param noiseWords Noise words
+	 */
+	NoiseWordMatcher(Set<String> noiseWords) {
+		sourceSize = noiseWords.size();
+		LinkedHashSet<String> words = new LinkedHashSet<String>(noiseWords);
+		for (String w : noiseWords) {
+			if (w.endsWith(" ")) {
+				words.add(w.substring(0, w.length()-1));
+			}
+		}
+
+		int numBuckets = 1;
+		while (numBuckets < words.size()) {
+			numBuckets *= 2;
+		}
+		ArrayList<ArrayList<char[]>> buckets = new ArrayList<ArrayList<char[]>>(numBuckets);
+		for (int b=0; b < numBuckets; b++) {
+			buckets.add(new ArrayList<char[]>(2));
+		}
+		for (String w : words) {
+			char[] key = w.toCharArray();
+			buckets.get(hash(key, key.length, 0) & (numBuckets-1)).add(key);
+		}
+
+		offsets = new int[numBuckets];
+		sizes = new int[numBuckets];
+		seeds = new int[numBuckets];
+		int total = 0;
+		for (int b=0; b < numBuckets; b++) {
+			int n = buckets.get(b).size();
+			int size = n == 0 ? 0 : 1;
+			while (size < n*n) {
+				size *= 2;
+			}
+			offsets[b] = total;
+			sizes[b] = size;
+			total += size;
+		}
+		slots = new char[total][];
+		for (int b=0; b < numBuckets; b++) {
+			ArrayList<char[]> keys = buckets.get(b);
+			if (keys.isEmpty()) {
+				continue;
+			}
+			// with a table of n^2 slots, a random seed works at least half the time
+			for (int seed=1; ; seed++) {
+				if (place(keys, offsets[b], sizes[b], seed)) {
+					seeds[b] = seed;
+					break;
+				}
+				Arrays.fill(slots, offsets[b], offsets[b]+sizes[b], null);
+			}
+		}
+	}
+
+	/**
+	 * Places the keys of a bucket in its table with the given seed.
+	 *
+	 * @return True if no two keys collide
+	 */
+	private boolean place(ArrayList<char[]> keys, int offset, int size, int seed) {
+		for (char[] key : keys) {
+			int s = offset + (hash(key, key.length, seed) & (size-1));
+			if (slots[s] != null) {
+				return false;
+			}
+			slots[s] = key;
+		}
+		return true;
+	}
+
+	/**
+	 * FNV-1a hash of the first len characters of w, started from the seed.
+	 */
+	private static int hash(char[] w, int len, int seed) {
+		int h = 0x811C9DC5 ^ (seed * 0x9E3779B9);
+		for (int i=0; i < len; i++) {
+			h = (h ^ w[i]) * 0x01000193;
+		}
+		return h ^ (h >>> 15);
+	}
+
+	/**
+	 * Tells if the first len characters of w are a noise word.
+	 *
+	 * @param w Characters of the word
+	 * @param len Length of the word
+	 * @return True if they are a noise word
+	 */
+	boolean matches(char[] w, int len) {
+		int b = hash(w, len, 0) & (sizes.length-1);
+		int size = sizes[b];
+		if (size == 0) {
+			return false;
+		}
+		char[] key = slots[offsets[b] + (hash(w, len, seeds[b]) & (size-1))];
+		if (key == null || key.length != len) {
+			return false;
+		}
+		for (int i=0; i < len; i++) {
+			if (key[i] != w[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Tells if a word is a noise word.
+	 *
+	 * @param word Word
+	 * @return True if it is a noise word
+	 */
+	boolean matches(String word) {
+		return matches(word.toCharArray(), word.length());
+	}
+}
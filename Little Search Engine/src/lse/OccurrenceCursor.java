@@ -0,0 +1,47 @@
+package lse;
+
+import java.util.*;
+
+/**
+ * This class is a posting cursor over an Occurrence list, with document ids taken
+ * from a document table.
+ *
+ */
+class OccurrenceCursor extends PostingCursor {
+
+	/**
+	 * Occurrence list, in descending order of frequencies.
+	 */
+	List<Occurrence> occs;
+
+	/**
+	 * Table that gives the ids of the documents in the list.
+	 */
+	DocumentTable documents;
+
+	/**
+	 * Index of the next occurrence in the list.
+	 */
+	int next;
+
+	/**
+	 * Initializes a cursor over an Occurrence list.
+	 *
+	 * @param occs Occurrence list, in descending order of frequencies
+	 * @param documents Table that gives the ids of all the documents in the list
+	 */
+	OccurrenceCursor(List<Occurrence> occs, DocumentTable documents) {
+		this.occs = occs;
+		this.documents = documents;
+	}
+
+	boolean next() {
+		if (next == occs.size()) {
+			return false;
+		}
+		Occurrence occ = occs.get(next++);
+		docId = documents.idOf(occ.document);
+		frequency = occ.frequency;
+		return true;
+	}
+}
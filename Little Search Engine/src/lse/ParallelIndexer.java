@@ -0,0 +1,291 @@
+package lse;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * This class indexes documents into a LittleSearchEngine using a pool of worker threads.
+ *
+ * Documents are processed in batches. In the first stage of a batch, each worker scans
+ * one document at a time with loadKeywordsFromDocument, and splits the resulting keywords
+ * into stripes by hash code. In the second stage, each worker owns one or more stripes
+ * and merges the keywords of its stripes for all the documents of the batch, in document
+ * order. Since every keyword belongs to exactly one stripe, no two threads ever touch the
+ * same Occurrence list, and each list sees its occurrences in the same order as it would
+ * with the sequential makeIndex.
+ *
+ */
+class ParallelIndexer {
+
+	/**
+	 * Number of documents per worker thread that are scanned before they are merged.
+	 */
+	static final int DOCS_PER_THREAD_PER_BATCH = 16;
+
+	/**
+	 * Number of keyword stripes per worker thread.
+	 */
+	static final int STRIPES_PER_THREAD = 4;
+
+	/**
+	 * The engine being indexed. Its noise words must already be loaded.
+	 */
+	LittleSearchEngine engine;
+
+	/**
+	 * Number of worker threads.
+	 */
+	int threads;
+
+	/**
+	 * Number of keyword stripes.
+	 */
+	int numStripes;
+
+	/**
+	 * Initializes this indexer for the given engine.
+	 *
+	 * @param engine Engine whose keywordsIndex is to be filled
+	 * @param threads Number of worker threads
+	 */
+	ParallelIndexer(LittleSearchEngine engine, int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("threads must be at least 1");
+		}
+		this.engine = engine;
+		this.threads = threads;
+		this.numStripes = threads * STRIPES_PER_THREAD;
+	}
+
+	/**
+	 * Indexes all the given documents, in order, into the engine's keywordsIndex.
+	 *
+	 * @param docFiles Names of the document files to index
+	 * @throws FileNotFoundException If any of the document files is not found on disk
+	 */
+	void index(ArrayList<String> docFiles)
+	throws FileNotFoundException {
+		// split whatever is already indexed into stripes
+		engine.mergePending();
+		ArrayList<HashMap<String,ArrayList<Occurrence>>> stripes =
+				new ArrayList<HashMap<String,ArrayList<Occurrence>>>(numStripes);
+		for (int s=0; s < numStripes; s++) {
+			stripes.add(new HashMap<String,ArrayList<Occurrence>>(1000,2.0f));
+		}
+		for (Map.Entry<String,ArrayList<Occurrence>> e : engine.keywordsIndex.entrySet()) {
+			stripes.get(stripeOf(e.getKey())).put(e.getKey(), e.getValue());
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			int batchSize = threads * DOCS_PER_THREAD_PER_BATCH;
+			for (int start=0; start < docFiles.size(); start += batchSize) {
+				List<String> batch = docFiles.subList(start, Math.min(start+batchSize, docFiles.size()));
+				ArrayList<ArrayList<ArrayList<Map.Entry<String,Occurrence>>>> scanned =
+						new ArrayList<ArrayList<ArrayList<Map.Entry<String,Occurrence>>>>(batch.size());
+				FileNotFoundException missing = scan(pool, batch, scanned);
+				// the documents before a missing one are indexed, as with the sequential makeIndex
+				merge(pool, scanned, stripes);
+				for (ArrayList<ArrayList<Map.Entry<String,Occurrence>>> doc : scanned) {
+					registerDocument(doc);
+				}
+				if (missing != null) {
+					throw missing;
+				}
+			}
+		} finally {
+			pool.shutdown();
+			// whatever was merged goes back to the engine, even if indexing failed
+			engine.keywordsIndex.clear();
+			for (HashMap<String,ArrayList<Occurrence>> stripe : stripes) {
+				engine.keywordsIndex.putAll(stripe);
+			}
+		}
+	}
+
+	/**
+	 * First stage: scans the documents of a batch in parallel.
+	 *
+	 * @param pool Worker pool
+	 * @param batch Names of the document files in the batch
+	 * @param scanned Filled with the keywords of each document, split into stripes, in
+	 *        batch order, up to the first document that is not found
+	 * @return Exception of the first document that is not found, null if all are found
+	 */
+	private FileNotFoundException scan(ExecutorService pool, List<String> batch,
+			ArrayList<ArrayList<ArrayList<Map.Entry<String,Occurrence>>>> scanned) {
+		ArrayList<Future<ArrayList<ArrayList<Map.Entry<String,Occurrence>>>>> futures =
+				new ArrayList<Future<ArrayList<ArrayList<Map.Entry<String,Occurrence>>>>>(batch.size());
+		for (final String docFile : batch) {
+			futures.add(pool.submit(new Callable<ArrayList<ArrayList<Map.Entry<String,Occurrence>>>>() {
+				public ArrayList<ArrayList<Map.Entry<String,Occurrence>>> call() throws FileNotFoundException {
+					HashMap<String,Occurrence> kws = engine.loadKeywordsFromDocument(docFile);
+					ArrayList<ArrayList<Map.Entry<String,Occurrence>>> parts =
+							new ArrayList<ArrayList<Map.Entry<String,Occurrence>>>(numStripes);
+					for (int s=0; s < numStripes; s++) {
+						parts.add(new ArrayList<Map.Entry<String,Occurrence>>());
+					}
+					for (Map.Entry<String,Occurrence> e : kws.entrySet()) {
+						parts.get(stripeOf(e.getKey())).add(e);
+					}
+					return parts;
+				}
+			}));
+		}
+		for (int i=0; i < futures.size(); i++) {
+			try {
+				scanned.add(await(futures.get(i)));
+			} catch (FileNotFoundException fnfe) {
+				for (int j=i+1; j < futures.size(); j++) {
+					futures.get(j).cancel(true);
+				}
+				return fnfe;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Second stage: merges the scanned documents of a batch, one task per stripe.
+	 *
+	 * @param pool Worker pool
+	 * @param scanned Output of the scan stage
+	 * @param stripes Striped index being built
+	 */
+	private void merge(ExecutorService pool, final ArrayList<ArrayList<ArrayList<Map.Entry<String,Occurrence>>>> scanned,
+			final ArrayList<HashMap<String,ArrayList<Occurrence>>> stripes)
+	throws FileNotFoundException {
+		ArrayList<Future<Void>> futures = new ArrayList<Future<Void>>(numStripes);
+		for (int s=0; s < numStripes; s++) {
+			final int stripe = s;
+			futures.add(pool.submit(new Callable<Void>() {
+				public Void call() {
+					IndexMetrics m = engine.metrics;
+					long start = m == null ? 0 : System.nanoTime();
+					HashMap<String,ArrayList<Occurrence>> index = stripes.get(stripe);
+					for (ArrayList<ArrayList<Map.Entry<String,Occurrence>>> doc : scanned) {
+						for (Map.Entry<String,Occurrence> e : doc.get(stripe)) {
+							engine.mergeOccurrence(index, e.getKey(), e.getValue());
+						}
+					}
+					if (m != null) {
+						m.stage(IndexMetrics.Stage.MERGE, System.nanoTime() - start);
+					}
+					return null;
+				}
+			}));
+		}
+		for (Future<Void> f : futures) {
+			await(f);
+		}
+	}
+
+	/**
+	 * Records a scanned document in the engine, as mergeKeywords does.
+	 *
+	 * @param doc Keywords of the document, split into stripes
+	 */
+	private void registerDocument(ArrayList<ArrayList<Map.Entry<String,Occurrence>>> doc) {
+		HashMap<String,Occurrence> kws = new HashMap<String,Occurrence>();
+		for (ArrayList<Map.Entry<String,Occurrence>> part : doc) {
+			for (Map.Entry<String,Occurrence> e : part) {
+				kws.put(e.getKey(), e.getValue());
+			}
+		}
+		engine.recordDocument(kws);
+	}
+
+	/**
+	 * Returns the stripe that owns a keyword.
+	 *
+	 * @param word Keyword
+	 * @return Stripe number, in 0..numStripes-1
+	 */
+	int stripeOf(String word) {
+		int h = word.hashCode();
+		h ^= (h >>> 16);
+		return (h & 0x7fffffff) % numStripes;
+	}
+
+	/**
+	 * Waits for a task to finish, passing on any FileNotFoundException it threw.
+	 */
+	private static <T> T await(Future<T> f)
+	throws FileNotFoundException {
+		try {
+			return f.get();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("indexing interrupted", ie);
+		} catch (ExecutionException ee) {
+			Throwable cause = ee.getCause();
+			if (cause instanceof FileNotFoundException) {
+				throw (FileNotFoundException)cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException)cause;
+			}
+			throw new IllegalStateException(cause);
+		}
+	}
+
+	/**
+	 * Indexes the same documents with 1, 2, 4, ... threads, up to the number of available
+	 * processors (or the given maximum), and prints the indexing rate for each thread count.
+	 * Each parallel index is checked against the sequential makeIndex.
+	 *
+	 * Usage: ParallelIndexer docsFile noiseWordsFile [maxThreads]
+	 */
+	public static void main(String[] args)
+	throws FileNotFoundException {
+		if (args.length < 2) {
+			System.out.println("Usage: ParallelIndexer docsFile noiseWordsFile [maxThreads]");
+			return;
+		}
+		String docsFile = args[0], noiseWordsFile = args[1];
+		int maxThreads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		int numDocs = LittleSearchEngine.readDocumentList(docsFile).size();
+
+		long start = System.nanoTime();
+		LittleSearchEngine sequential = new LittleSearchEngine();
+		sequential.makeIndex(docsFile, noiseWordsFile);
+		double seqSecs = (System.nanoTime() - start) / 1e9;
+		System.out.printf("sequential: %d docs in %.3f s, %.1f docs/sec%n", numDocs, seqSecs, numDocs/seqSecs);
+
+		for (int t=1; ; t = Math.min(t*2, maxThreads)) {
+			start = System.nanoTime();
+			LittleSearchEngine parallel = new LittleSearchEngine();
+			parallel.makeIndex(docsFile, noiseWordsFile, t);
+			double secs = (System.nanoTime() - start) / 1e9;
+			boolean same = sameIndex(sequential.keywordsIndex, parallel.keywordsIndex);
+			System.out.printf("%2d threads: %.3f s, %.1f docs/sec, speedup %.2f, %s%n",
+					t, secs, numDocs/secs, seqSecs/secs, same ? "same index" : "INDEX DIFFERS");
+			if (t == maxThreads) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Tells if two indexes have the same keywords, with the same Occurrence lists in the same order.
+	 */
+	static boolean sameIndex(HashMap<String,ArrayList<Occurrence>> a, HashMap<String,ArrayList<Occurrence>> b) {
+		if (a.size() != b.size()) {
+			return false;
+		}
+		for (Map.Entry<String,ArrayList<Occurrence>> e : a.entrySet()) {
+			ArrayList<Occurrence> other = b.get(e.getKey());
+			if (other == null || other.size() != e.getValue().size()) {
+				return false;
+			}
+			for (int i=0; i < other.size(); i++) {
+				Occurrence x = e.getValue().get(i), y = other.get(i);
+				if (!x.document.equals(y.document) || x.frequency != y.frequency) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,196 @@
+package lse;
+
+import java.util.*;
+
+/**
+ * This class answers phrase and proximity searches from the keyword positions recorded
+ * by an engine in positional mode (see LittleSearchEngine.enablePositions).
+ *
+ * Both searches work in two steps. First, the documents that contain all the keywords
+ * are found by intersecting the keywords' Occurrence lists without looking at any
+ * positions: the documents of the shortest list are taken in doc id order, and looked up
+ * in doc id ordered views of the other lists (see LittleSearchEngine.docOrderedPostings)
+ * by galloping forward, so a query costs about the length of the shortest list once the
+ * views of its keywords are built. Then only the positions of those candidate documents
+ * are decoded and checked.
+ *
+ * Results are ordered by number of matches, most first, with ties in document order.
+ *
+ */
+class PhraseSearch {
+
+	// prevent instantiation
+	private PhraseSearch() {
+	}
+
+	/**
+	 * Finds the documents that contain a phrase. Each word of the phrase is passed through
+	 * getKeyword; words that are not keywords (noise words, for instance) are not checked,
+	 * but still take up their place in the phrase, so "alice was beginning" matches "alice"
+	 * followed by any one word and then "beginning".
+	 *
+	 * @param engine Engine in positional mode
+	 * @param k Maximum number of documents in the result
+	 * @param phrase Phrase, words separated by white space
+	 * @return Documents that contain the phrase, most matches first; null if there are none
+	 */
+	static ArrayList<String> phrase(LittleSearchEngine engine, int k, String phrase) {
+		String[] words = phrase.trim().split("\\s+");
+		ArrayList<String> keywords = new ArrayList<String>();
+		ArrayList<Integer> offsets = new ArrayList<Integer>();
+		for (int i=0; i < words.length; i++) {
+			String kw = words[i].isEmpty() ? null : engine.getKeyword(words[i]);
+			if (kw != null) {
+				keywords.add(kw);
+				offsets.add(i);
+			}
+		}
+		int[] off = new int[offsets.size()];
+		for (int i=0; i < off.length; i++) {
+			off[i] = offsets.get(i);
+		}
+		return search(engine, k, keywords.toArray(new String[keywords.size()]), off, 0);
+	}
+
+	/**
+	 * Finds the documents in which all the keywords occur within some distance of the first
+	 * keyword: for some position p of the first keyword, every other keyword occurs at a
+	 * position in p-within..p+within. Each such p counts as one match.
+	 *
+	 * @param engine Engine in positional mode
+	 * @param k Maximum number of documents in the result
+	 * @param within Maximum distance, in words
+	 * @param keywords Keywords
+	 * @return Matching documents, most matches first; null if there are none
+	 */
+	static ArrayList<String> proximity(LittleSearchEngine engine, int k, int within, String... keywords) {
+		if (within < 0) {
+			throw new IllegalArgumentException("within must not be negative");
+		}
+		String[] kws = new String[keywords.length];
+		for (int i=0; i < kws.length; i++) {
+			kws[i] = keywords[i].toLowerCase();
+		}
+		return search(engine, k, kws, new int[kws.length], within);
+	}
+
+	/**
+	 * Finds documents in which, for some position p of the first keyword, every keyword i
+	 * occurs within slack of p + offsets[i] - offsets[0].
+	 */
+	private static ArrayList<String> search(LittleSearchEngine engine, int k, String[] keywords, int[] offsets, int slack) {
+		if (keywords.length == 0) {
+			return null;
+		}
+		if (!engine.positional) {
+			throw new IllegalStateException("keyword positions are not recorded, call enablePositions before makeIndex");
+		}
+		ArrayList<ArrayList<Occurrence>> lists = new ArrayList<ArrayList<Occurrence>>();
+		int shortest = 0;
+		for (int i=0; i < keywords.length; i++) {
+			ArrayList<Occurrence> occs = engine.postingList(keywords[i]);
+			if (occs == null) {
+				return null;
+			}
+			lists.add(occs);
+			if (occs.size() < lists.get(shortest).size()) {
+				shortest = i;
+			}
+		}
+
+		// step 1: candidate documents, from the shortest list in doc id order, found in the
+		// doc id ordered views of the other lists by galloping forward
+		final DocumentTable documents = engine.documents;
+		ArrayList<Occurrence> first = lists.get(shortest);
+		long[] order = new long[first.size()];
+		for (int j=0; j < order.length; j++) {
+			order[j] = ((long)documents.idOf(first.get(j).document) << 32) | j;
+		}
+		Arrays.sort(order);
+		DocIdPostings[] views = new DocIdPostings[keywords.length];
+		int[] at = new int[keywords.length];
+		for (int i=0; i < keywords.length; i++) {
+			if (i != shortest) {
+				views[i] = engine.docOrderedPostings(keywords[i], lists.get(i));
+			}
+		}
+		ArrayList<String> candidates = new ArrayList<String>();
+		ArrayList<Occurrence[]> candidateOccs = new ArrayList<Occurrence[]>();
+		for (long o : order) {
+			int id = (int)(o >>> 32);
+			Occurrence occ = first.get((int)o);
+			Occurrence[] occs = new Occurrence[keywords.length];
+			occs[shortest] = occ;
+			boolean all = true;
+			for (int i=0; i < keywords.length && all; i++) {
+				if (i != shortest) {
+					DocIdPostings view = views[i];
+					at[i] = view.advance(at[i], id);
+					all = at[i] < view.size() && view.docIds[at[i]] == id;
+					if (all) {
+						// the view holds the position of the Occurrence in the list
+						occs[i] = lists.get(i).get(view.freqs[at[i]]);
+					}
+				}
+			}
+			if (all) {
+				candidates.add(occ.document);
+				candidateOccs.add(occs);
+			}
+		}
+
+		// step 2: positions of the candidates only
+		final HashMap<String,Integer> matches = new HashMap<String,Integer>();
+		ArrayList<String> found = new ArrayList<String>();
+		for (int c=0; c < candidates.size(); c++) {
+			Occurrence[] occs = candidateOccs.get(c);
+			int[][] pos = new int[occs.length][];
+			for (int i=0; i < occs.length; i++) {
+				if (!(occs[i] instanceof PositionalOccurrence)) {
+					throw new IllegalStateException(occs[i].document + " was indexed without positions");
+				}
+				pos[i] = ((PositionalOccurrence)occs[i]).positions();
+			}
+			int n = countMatches(pos, offsets, slack);
+			if (n > 0) {
+				matches.put(candidates.get(c), n);
+				found.add(candidates.get(c));
+			}
+		}
+		if (found.isEmpty()) {
+			return null;
+		}
+		Collections.sort(found, new Comparator<String>() {
+			public int compare(String d1, String d2) {
+				int c = matches.get(d2) - matches.get(d1);
+				return c != 0 ? c : documents.idOf(d1) - documents.idOf(d2);
+			}
+		});
+		return new ArrayList<String>(found.subList(0, Math.min(k, found.size())));
+	}
+
+	/**
+	 * Counts the positions p of the first keyword for which every keyword i has a position
+	 * within slack of p + offsets[i] - offsets[0].
+	 */
+	static int countMatches(int[][] pos, int[] offsets, int slack) {
+		int[] next = new int[pos.length];
+		int count = 0;
+		for (int p : pos[0]) {
+			boolean all = true;
+			for (int i=1; i < pos.length && all; i++) {
+				int target = p + offsets[i] - offsets[0];
+				// positions only move forward as p does, so each list is scanned once
+				int[] q = pos[i];
+				while (next[i] < q.length && q[next[i]] < target - slack) {
+					next[i]++;
+				}
+				all = next[i] < q.length && q[next[i]] <= target + slack;
+			}
+			if (all) {
+				count++;
+			}
+		}
+		return count;
+	}
+}
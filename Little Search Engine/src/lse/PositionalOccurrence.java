@@ -0,0 +1,58 @@
+package lse;
+
+import java.util.*;
+
+/**
+ * This class is an Occurrence that also records where in the document the keyword
+ * occurs. Positions count all the words of the document, keywords or not, from 0.
+ * They are stored in ascending order as the differences between successive positions,
+ * each as a variable length integer (7 bits per byte, high bit set on all but the last
+ * byte), so a keyword that occurs often costs about one byte per occurrence.
+ *
+ */
+public class PositionalOccurrence extends Occurrence {
+
+	/**
+	 * Encoded positions; there are frequency of them.
+	 */
+	byte[] positions;
+
+	/**
+	 * Initializes this occurrence with the given document, frequency and positions.
+	 *
+	 * @param doc Document name
+	 * @param freq Frequency
+	 * @param pos Positions, in ascending order; only the first freq are used
+	 */
+	public PositionalOccurrence(String doc, int freq, int[] pos) {
+		super(doc, freq);
+		CompactIndex.VarIntWriter out = new CompactIndex.VarIntWriter(freq + 4);
+		int prev = 0;
+		for (int i=0; i < freq; i++) {
+			out.write(pos[i] - prev);
+			prev = pos[i];
+		}
+		positions = Arrays.copyOf(out.buf, out.size);
+	}
+
+	/**
+	 * Decodes the positions of the keyword in the document.
+	 *
+	 * @return Positions, in ascending order
+	 */
+	public int[] positions() {
+		int[] pos = new int[frequency];
+		int p = 0, prev = 0;
+		for (int i=0; i < frequency; i++) {
+			int b = positions[p++];
+			int v = b & 0x7f;
+			for (int shift = 7; b < 0; shift += 7) {
+				b = positions[p++];
+				v |= (b & 0x7f) << shift;
+			}
+			prev += v;
+			pos[i] = prev;
+		}
+		return pos;
+	}
+}
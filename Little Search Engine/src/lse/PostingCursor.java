@@ -0,0 +1,27 @@
+package lse;
+
+/**
+ * This class steps through the postings of one keyword, in descending order of
+ * frequencies. Each posting is a (document id, frequency) pair. Before the first
+ * call to next, there is no current posting.
+ *
+ */
+abstract class PostingCursor {
+
+	/**
+	 * Document id of the current posting.
+	 */
+	int docId;
+
+	/**
+	 * Frequency of the current posting.
+	 */
+	int frequency;
+
+	/**
+	 * Moves to the next posting.
+	 *
+	 * @return True if there is a next posting, false if the list is done
+	 */
+	abstract boolean next();
+}
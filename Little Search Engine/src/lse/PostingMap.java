@@ -0,0 +1,287 @@
+package lse;
+
+import java.util.*;
+
+/**
+ * This class is the immutable keyword to postings map of an IndexSnapshot, built so that
+ * the next snapshot can share most of it.
+ *
+ * Keywords are spread by hash over buckets of a few keywords each, and the buckets are
+ * the leaves of a tree of fixed depth whose nodes have FANOUT children. Making a new map
+ * with some keywords changed copies only the buckets of those keywords and the nodes on
+ * the paths down to them; every other node and bucket is shared with the old map. A
+ * publish after one document is added therefore copies a few hundred references per
+ * changed keyword, instead of the whole vocabulary.
+ *
+ * The tree gets one level deeper, and is built again from scratch, when the number of
+ * keywords grows past BUCKET_SIZE keywords per bucket.
+ *
+ */
+final class PostingMap {
+
+	/**
+	 * Children of each node.
+	 */
+	static final int FANOUT = 32;
+
+	/**
+	 * Bits of the bucket number taken at each level.
+	 */
+	static final int FANOUT_BITS = 5;
+
+	/**
+	 * Average number of keywords per bucket the tree is sized for.
+	 */
+	static final int BUCKET_SIZE = 4;
+
+	/**
+	 * Deepest tree; the bucket number is at most 30 bits.
+	 */
+	static final int MAX_DEPTH = 6;
+
+	/**
+	 * Map with no keywords.
+	 */
+	static final PostingMap EMPTY = new PostingMap(new Object[FANOUT], 1, 0);
+
+	/**
+	 * Keywords of one leaf, with their postings. Buckets are never modified; a change
+	 * makes a new bucket.
+	 */
+	static final class Bucket {
+		final String[] keys;
+		final int[][] values;
+
+		Bucket(String[] keys, int[][] values) {
+			this.keys = keys;
+			this.values = values;
+		}
+
+		int find(String key) {
+			for (int i=0; i < keys.length; i++) {
+				if (keys[i].equals(key)) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * Returns a bucket with a keyword's postings set, or removed if pairs is null;
+		 * null if that leaves the bucket empty.
+		 */
+		Bucket with(String key, int[] pairs) {
+			int i = find(key);
+			if (pairs == null) {
+				if (keys.length == 1) {
+					return null;
+				}
+				String[] k = new String[keys.length-1];
+				int[][] v = new int[keys.length-1][];
+				System.arraycopy(keys, 0, k, 0, i);
+				System.arraycopy(keys, i+1, k, i, k.length-i);
+				System.arraycopy(values, 0, v, 0, i);
+				System.arraycopy(values, i+1, v, i, v.length-i);
+				return new Bucket(k, v);
+			}
+			if (i >= 0) {
+				int[][] v = values.clone();
+				v[i] = pairs;
+				return new Bucket(keys, v);
+			}
+			String[] k = Arrays.copyOf(keys, keys.length+1);
+			int[][] v = Arrays.copyOf(values, values.length+1);
+			k[keys.length] = key;
+			v[values.length] = pairs;
+			return new Bucket(k, v);
+		}
+	}
+
+	/**
+	 * Root node. Nodes are Object arrays of FANOUT children, each a node, a Bucket on the
+	 * last level, or null.
+	 */
+	final Object[] root;
+
+	/**
+	 * Number of levels of nodes.
+	 */
+	final int depth;
+
+	/**
+	 * Number of keywords.
+	 */
+	final int size;
+
+	private PostingMap(Object[] root, int depth, int size) {
+		this.root = root;
+		this.depth = depth;
+		this.size = size;
+	}
+
+	/**
+	 * Returns a map holding the postings of all the keywords of a hash map.
+	 *
+	 * @param postings Postings, by keyword
+	 * @return New map
+	 */
+	static PostingMap of(Map<String,int[]> postings) {
+		return new PostingMap(new Object[FANOUT], depthFor(postings.size()), 0).with(postings);
+	}
+
+	/**
+	 * Returns the number of levels of a tree for a number of keywords.
+	 */
+	static int depthFor(int size) {
+		int depth = 1;
+		long buckets = FANOUT;
+		while (depth < MAX_DEPTH && buckets * BUCKET_SIZE < size) {
+			depth++;
+			buckets *= FANOUT;
+		}
+		return depth;
+	}
+
+	/**
+	 * Returns the bucket number of a keyword in a tree of some depth.
+	 */
+	static int bucketOf(String key, int depth) {
+		return (key.hashCode() * 0x9E3779B9) >>> (32 - depth*FANOUT_BITS);
+	}
+
+	/**
+	 * Returns the postings of a keyword.
+	 *
+	 * @param key Keyword
+	 * @return (document id, frequency) pairs, null if the keyword is not in the map
+	 */
+	int[] get(String key) {
+		int b = bucketOf(key, depth);
+		Object node = root;
+		for (int shift = (depth-1)*FANOUT_BITS; node != null && shift >= 0; shift -= FANOUT_BITS) {
+			node = ((Object[])node)[(b >>> shift) & (FANOUT-1)];
+		}
+		if (node == null) {
+			return null;
+		}
+		Bucket bucket = (Bucket)node;
+		int i = bucket.find(key);
+		return i < 0 ? null : bucket.values[i];
+	}
+
+	/**
+	 * Returns the number of keywords.
+	 *
+	 * @return Number of keywords
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Returns all the keywords, in no particular order.
+	 *
+	 * @return Keywords
+	 */
+	ArrayList<String> keys() {
+		ArrayList<String> keys = new ArrayList<String>(size);
+		addKeys(root, depth, keys);
+		return keys;
+	}
+
+	private static void addKeys(Object node, int levels, ArrayList<String> keys) {
+		if (node == null) {
+			return;
+		}
+		if (levels == 0) {
+			Collections.addAll(keys, ((Bucket)node).keys);
+			return;
+		}
+		for (Object child : (Object[])node) {
+			addKeys(child, levels-1, keys);
+		}
+	}
+
+	/**
+	 * Returns a map with some keywords' postings changed, sharing everything else with
+	 * this map, which is left as it is.
+	 *
+	 * @param changes New postings of the changed keywords; a null value removes the keyword
+	 * @return New map
+	 */
+	PostingMap with(Map<String,int[]> changes) {
+		int added = 0;
+		for (int[] pairs : changes.values()) {
+			if (pairs != null) {
+				added++;
+			}
+		}
+		if (depthFor(size + added) > depth) {
+			// build a deeper tree from scratch
+			HashMap<String,int[]> all = new HashMap<String,int[]>((size + added)*2);
+			for (String key : keys()) {
+				all.put(key, get(key));
+			}
+			for (Map.Entry<String,int[]> e : changes.entrySet()) {
+				if (e.getValue() == null) {
+					all.remove(e.getKey());
+				} else {
+					all.put(e.getKey(), e.getValue());
+				}
+			}
+			return new PostingMap(new Object[FANOUT], depthFor(all.size()), 0).with(all);
+		}
+
+		// nodes copied by this call, which it can change in place
+		Set<Object[]> copied = Collections.newSetFromMap(new IdentityHashMap<Object[],Boolean>());
+		Object[] newRoot = root.clone();
+		copied.add(newRoot);
+		int newSize = size;
+		for (Map.Entry<String,int[]> e : changes.entrySet()) {
+			String key = e.getKey();
+			int[] pairs = e.getValue();
+			int b = bucketOf(key, depth);
+			Object[] node = newRoot;
+			int shift = (depth-1)*FANOUT_BITS;
+			for (; shift > 0; shift -= FANOUT_BITS) {
+				int c = (b >>> shift) & (FANOUT-1);
+				Object[] child = (Object[])node[c];
+				if (child == null) {
+					if (pairs == null) {
+						break;
+					}
+					child = new Object[FANOUT];
+					copied.add(child);
+					node[c] = child;
+				} else if (!copied.contains(child)) {
+					child = child.clone();
+					copied.add(child);
+					node[c] = child;
+				}
+				node = child;
+			}
+			if (shift > 0) {
+				// removing a keyword that is not there
+				continue;
+			}
+			int c = b & (FANOUT-1);
+			Bucket bucket = (Bucket)node[c];
+			boolean present = bucket != null && bucket.find(key) >= 0;
+			if (pairs == null) {
+				if (present) {
+					node[c] = bucket.with(key, null);
+					newSize--;
+				}
+			} else if (bucket == null) {
+				node[c] = new Bucket(new String[] {key}, new int[][] {pairs});
+				newSize++;
+			} else {
+				node[c] = bucket.with(key, pairs);
+				if (!present) {
+					newSize++;
+				}
+			}
+		}
+		return new PostingMap(newRoot, depth, newSize);
+	}
+}
@@ -0,0 +1,85 @@
+package lse;
+
+import java.util.*;
+
+/**
+ * This program measures the heap used per posting by the keywordsIndex of a
+ * LittleSearchEngine (ArrayList of Occurrence objects) and by a CompactIndex
+ * built from it, on a synthetic index.
+ *
+ * Usage: PostingMemoryBenchmark [numPostings] [numDocs]
+ *
+ * Run it with enough heap for the uncompressed index, e.g. -Xmx1g for a million postings.
+ */
+public class PostingMemoryBenchmark {
+
+	public static void main(String[] args) {
+		int numPostings = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int numDocs = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+		int postingsPerTerm = Math.min(numDocs, 50);
+		int numTerms = (numPostings + postingsPerTerm - 1) / postingsPerTerm;
+		Random rand = new Random(112);
+
+		// names are shared by both forms of the index, so they are made up front
+		String[] docNames = new String[numDocs];
+		for (int i=0; i < numDocs; i++) {
+			docNames[i] = "doc" + i + ".txt";
+		}
+		String[] terms = new String[numTerms];
+		for (int i=0; i < numTerms; i++) {
+			terms[i] = "term" + i;
+		}
+		LittleSearchEngine engine = new LittleSearchEngine();
+		// document ids would already be assigned by makeIndex, so they are not part of either measurement
+		for (String d : docNames) {
+			engine.documents.add(d);
+		}
+		long base = usedHeap();
+
+		int made = 0;
+		for (int t=0; t < numTerms && made < numPostings; t++) {
+			ArrayList<Occurrence> occs = new ArrayList<Occurrence>();
+			int freq = 1 + rand.nextInt(100);
+			int doc = rand.nextInt(numDocs);
+			for (int p=0; p < postingsPerTerm && made < numPostings; p++, made++) {
+				occs.add(new Occurrence(docNames[doc], freq));
+				doc = (doc + 1 + rand.nextInt(7)) % numDocs;
+				if (freq > 1 && rand.nextInt(3) == 0) {
+					freq -= 1 + rand.nextInt(Math.min(freq-1, 3));
+				}
+			}
+			engine.keywordsIndex.put(terms[t], occs);
+		}
+		long withIndex = usedHeap();
+
+		CompactIndex compact = new CompactIndex(engine);
+		engine.keywordsIndex = null;
+		long withCompact = usedHeap();
+
+		double perPosting = (double)(withIndex - base) / made;
+		double compactPerPosting = (double)(withCompact - base) / made;
+		System.out.printf("postings: %d, terms: %d, documents: %d%n", made, numTerms, numDocs);
+		System.out.printf("keywordsIndex: %.1f bytes/posting%n", perPosting);
+		System.out.printf("CompactIndex:  %.1f bytes/posting (%d bytes of encoded postings)%n",
+				compactPerPosting, compact.postings.length);
+		System.out.printf("reduction: %.1fx%n", perPosting / compactPerPosting);
+	}
+
+	/**
+	 * Returns the used heap after a few rounds of garbage collection.
+	 */
+	static long usedHeap() {
+		Runtime rt = Runtime.getRuntime();
+		long used = Long.MAX_VALUE;
+		for (int i=0; i < 5; i++) {
+			System.gc();
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			}
+			used = Math.min(used, rt.totalMemory() - rt.freeMemory());
+		}
+		return used;
+	}
+}
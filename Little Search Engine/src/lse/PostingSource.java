@@ -0,0 +1,25 @@
+package lse;
+
+/**
+ * An index that can be searched through posting cursors, such as an IndexSnapshot or a
+ * MappedIndex.
+ *
+ */
+interface PostingSource {
+
+	/**
+	 * Returns a cursor over the postings of a keyword.
+	 *
+	 * @param kw Keyword (lower case)
+	 * @return Cursor over the keyword's postings, null if the keyword is not in the index
+	 */
+	PostingCursor cursor(String kw);
+
+	/**
+	 * Returns the name of a document.
+	 *
+	 * @param id Document id
+	 * @return Document name
+	 */
+	String document(int id);
+}
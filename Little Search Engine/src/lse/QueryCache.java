@@ -0,0 +1,228 @@
+package lse;
+
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class is a bounded cache of search results, with least recently used eviction.
+ *
+ * Results are cached by K and the lower cased keywords, in order (since keyword order
+ * breaks ties), together with the generation of the index they were computed from. A
+ * cached result from any other generation is treated as a miss and dropped, so results
+ * are never served from an index that has since changed. Results of the engine and of
+ * its published snapshots are cached under different keys, since while there are
+ * unpublished changes they are computed from different generations.
+ *
+ * The cache is split into SEGMENTS segments by the hash code of the key, each a small
+ * LRU table with its own lock and its share of the capacity, so that lookups from many
+ * threads seldom wait for each other. The counters are LongAdders.
+ *
+ */
+public class QueryCache {
+
+	/**
+	 * Number of segments, a power of 2. Smaller caches get fewer, so that every segment
+	 * can hold at least one result.
+	 */
+	static final int SEGMENTS = 16;
+
+	/**
+	 * Cached result, with the generation it was computed from.
+	 */
+	static class Entry {
+		final long generation;
+		final List<String> result;
+
+		Entry(long generation, List<String> result) {
+			this.generation = generation;
+			this.result = result;
+		}
+	}
+
+	/**
+	 * One segment: results in access order, least recently used first.
+	 */
+	class Segment extends LinkedHashMap<String,Entry> {
+		private static final long serialVersionUID = 1L;
+
+		final int capacity;
+
+		Segment(int capacity) {
+			super(Math.min(capacity, 1 << 16)*2, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		protected boolean removeEldestEntry(Map.Entry<String,Entry> eldest) {
+			if (size() > capacity) {
+				evictions.increment();
+				return true;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Maximum number of cached results.
+	 */
+	final int capacity;
+
+	/**
+	 * Segments, picked by the hash code of the key.
+	 */
+	final Segment[] segments;
+
+	/**
+	 * Counters for the stats.
+	 */
+	final LongAdder hits = new LongAdder(), misses = new LongAdder(),
+			evictions = new LongAdder(), invalidations = new LongAdder();
+
+	/**
+	 * Initializes an empty cache.
+	 *
+	 * @param capacity Maximum number of cached results
+	 */
+	public QueryCache(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be at least 1");
+		}
+		this.capacity = capacity;
+		int n = Math.min(SEGMENTS, Integer.highestOneBit(capacity));
+		segments = new Segment[n];
+		for (int i=0; i < n; i++) {
+			// spread the capacity, the first segments taking the remainder
+			segments[i] = new Segment(capacity / n + (i < capacity % n ? 1 : 0));
+		}
+	}
+
+	/**
+	 * Returns the cache key for a query.
+	 *
+	 * @param k Maximum number of documents in the result
+	 * @param snapshot True for a search of a published snapshot, false for a search of
+	 *        the engine
+	 * @param keywords Keywords, in order
+	 * @return Key with the lower cased keywords, each after its length, so that no two
+	 *         different queries get the same key even if their keywords contain spaces
+	 */
+	static String key(int k, boolean snapshot, String... keywords) {
+		StringBuilder sb = new StringBuilder(16*keywords.length);
+		sb.append(snapshot ? 'S' : 'E').append(k);
+		for (String kw : keywords) {
+			String lower = kw.toLowerCase();
+			sb.append(' ').append(lower.length()).append(':').append(lower);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Returns the segment of a key.
+	 */
+	Segment segment(String key) {
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		return segments[h & (segments.length-1)];
+	}
+
+	/**
+	 * Looks up a result.
+	 *
+	 * @param key Cache key, from key()
+	 * @param generation Current generation of the index
+	 * @return Cache entry, null if not cached or cached from another generation
+	 */
+	Entry get(String key, long generation) {
+		Segment seg = segment(key);
+		Entry e;
+		synchronized (seg) {
+			e = seg.get(key);
+			if (e != null && e.generation != generation) {
+				seg.remove(key);
+				invalidations.increment();
+				e = null;
+			}
+		}
+		if (e == null) {
+			misses.increment();
+		} else {
+			hits.increment();
+		}
+		return e;
+	}
+
+	/**
+	 * Stores a result.
+	 *
+	 * @param key Cache key, from key()
+	 * @param generation Generation of the index the result was computed from
+	 * @param result Result, which must not be changed after this
+	 */
+	void put(String key, long generation, List<String> result) {
+		Segment seg = segment(key);
+		synchronized (seg) {
+			seg.put(key, new Entry(generation, result));
+		}
+	}
+
+	/**
+	 * Empties the cache. The stats are kept.
+	 */
+	public void clear() {
+		for (Segment seg : segments) {
+			synchronized (seg) {
+				seg.clear();
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of cached results.
+	 *
+	 * @return Number of cached results
+	 */
+	public int size() {
+		int size = 0;
+		for (Segment seg : segments) {
+			synchronized (seg) {
+				size += seg.size();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Returns the number of lookups that found a result.
+	 *
+	 * @return Number of hits
+	 */
+	public long hits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Returns the number of lookups that did not find a result.
+	 *
+	 * @return Number of misses
+	 */
+	public long misses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Returns the fraction of lookups that found a result.
+	 *
+	 * @return Hit rate, 0 if there have been no lookups
+	 */
+	public double hitRate() {
+		long h = hits.sum(), total = h + misses.sum();
+		return total == 0 ? 0 : (double)h / total;
+	}
+
+	/**
+	 * Returns the cache stats as a string.
+	 */
+	public String toString() {
+		return String.format("size=%d/%d hits=%d misses=%d hitRate=%.3f evictions=%d invalidations=%d",
+				size(), capacity, hits(), misses(), hitRate(), evictions.sum(), invalidations.sum());
+	}
+}
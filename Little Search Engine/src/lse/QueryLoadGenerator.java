@@ -0,0 +1,196 @@
+package lse;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * This class puts a QueryServer under load from many concurrent clients, and reports the
+ * throughput and the latency percentiles of the requests.
+ *
+ * Each client has its own connection and thread, and sends TOPK requests for random
+ * keywords of the index, keeping up to a given number of them in flight (the pipeline
+ * depth). The latency of a request is the time from when it is written until its
+ * response is read, so with pipelining it includes the time spent queued behind the
+ * client's earlier requests.
+ *
+ */
+public class QueryLoadGenerator {
+
+	/**
+	 * Address of the server.
+	 */
+	final InetSocketAddress address;
+
+	/**
+	 * Keywords to make queries from.
+	 */
+	final String[] words;
+
+	/**
+	 * Initializes a load generator.
+	 *
+	 * @param address Address of the server
+	 * @param words Keywords to make queries from
+	 */
+	QueryLoadGenerator(InetSocketAddress address, String[] words) {
+		this.address = address;
+		this.words = words;
+	}
+
+	/**
+	 * Runs the given number of clients to completion.
+	 *
+	 * @param clients Number of concurrent clients
+	 * @param requests Number of requests per client
+	 * @param depth Maximum number of requests a client has in flight
+	 * @return Latencies of all the requests, in nanoseconds, sorted
+	 * @throws IOException If a client fails
+	 */
+	long[] run(int clients, final int requests, final int depth)
+	throws IOException {
+		final CountDownLatch start = new CountDownLatch(1);
+		ExecutorService pool = Executors.newFixedThreadPool(clients, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(null, r, "load-client", QueryServer.STACK_SIZE);
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		ArrayList<Future<long[]>> futures = new ArrayList<Future<long[]>>(clients);
+		for (int c=0; c < clients; c++) {
+			final long seed = c;
+			futures.add(pool.submit(new Callable<long[]>() {
+				public long[] call() throws Exception {
+					return client(new Random(seed), requests, depth, start);
+				}
+			}));
+		}
+		start.countDown();
+		long[] all = new long[clients * requests];
+		int n = 0;
+		try {
+			for (Future<long[]> f : futures) {
+				long[] latencies = f.get();
+				System.arraycopy(latencies, 0, all, n, latencies.length);
+				n += latencies.length;
+			}
+		} catch (ExecutionException ee) {
+			Throwable cause = ee.getCause();
+			throw cause instanceof IOException ? (IOException)cause : new IOException(cause);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while waiting for clients");
+		} finally {
+			pool.shutdownNow();
+		}
+		Arrays.sort(all);
+		return all;
+	}
+
+	/**
+	 * Runs one client.
+	 *
+	 * @return Latencies of its requests, in nanoseconds
+	 */
+	long[] client(Random random, int requests, int depth, CountDownLatch start)
+	throws IOException, InterruptedException {
+		Socket socket = new Socket(address.getAddress(), address.getPort());
+		try {
+			socket.setTcpNoDelay(true);
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+			Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+			long[] sentAt = new long[requests];
+			long[] latencies = new long[requests];
+			start.await();
+			int sent = 0, received = 0;
+			while (received < requests) {
+				if (sent < requests && sent - received < depth) {
+					while (sent < requests && sent - received < depth) {
+						out.write("TOPK 5 " + words[random.nextInt(words.length)] + " " + words[random.nextInt(words.length)] + "\n");
+						sentAt[sent++] = System.nanoTime();
+					}
+					out.flush();
+				}
+				String response = in.readLine();
+				if (response == null) {
+					throw new EOFException("server closed the connection");
+				}
+				if (!response.startsWith("OK")) {
+					throw new IOException("server error: " + response);
+				}
+				latencies[received] = System.nanoTime() - sentAt[received];
+				received++;
+			}
+			out.write("QUIT\n");
+			out.flush();
+			return latencies;
+		} finally {
+			socket.close();
+		}
+	}
+
+	/**
+	 * Returns the given percentile of sorted latencies.
+	 */
+	static long percentile(long[] sorted, double p) {
+		int i = (int)Math.ceil(p / 100 * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(i, sorted.length-1))];
+	}
+
+	/**
+	 * Indexes a docs file, serves it with a QueryServer (or uses one that is already
+	 * running), and reports throughput and latency percentiles under load.
+	 *
+	 * Usage: QueryLoadGenerator docsFile noiseWordsFile clients requestsPerClient [depth [host port]]
+	 */
+	public static void main(String[] args)
+	throws IOException {
+		if (args.length < 4) {
+			System.out.println("Usage: QueryLoadGenerator docsFile noiseWordsFile clients requestsPerClient [depth [host port]]");
+			return;
+		}
+		int clients = Integer.parseInt(args[2]);
+		int requests = Integer.parseInt(args[3]);
+		int depth = args.length > 4 ? Integer.parseInt(args[4]) : 1;
+
+		LittleSearchEngine engine = new LittleSearchEngine();
+		engine.makeIndex(args[0], args[1], Runtime.getRuntime().availableProcessors());
+		IndexSnapshot snapshot = engine.publish();
+		String[] words = engine.keywordsIndex.keySet().toArray(new String[0]);
+		if (words.length == 0) {
+			System.out.println("No keywords in the index");
+			return;
+		}
+
+		QueryServer server = null;
+		InetSocketAddress address;
+		if (args.length > 6) {
+			address = new InetSocketAddress(args[5], Integer.parseInt(args[6]));
+		} else {
+			server = new QueryServer(snapshot, 0);
+			server.start();
+			address = new InetSocketAddress(InetAddress.getLoopbackAddress(), server.port());
+		}
+		try {
+			QueryLoadGenerator generator = new QueryLoadGenerator(address, words);
+			// warm up, then measure
+			generator.run(Math.min(clients, 16), Math.max(requests/10, 100), depth);
+			long start = System.nanoTime();
+			long[] latencies = generator.run(clients, requests, depth);
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.out.printf("%d clients x %d requests, pipeline depth %d: %.0f requests/s%n",
+					clients, requests, depth, latencies.length / seconds);
+			System.out.printf("latency us: p50 %.0f  p90 %.0f  p99 %.0f  p99.9 %.0f  max %.0f%n",
+					percentile(latencies, 50) / 1e3, percentile(latencies, 90) / 1e3,
+					percentile(latencies, 99) / 1e3, percentile(latencies, 99.9) / 1e3,
+					latencies[latencies.length-1] / 1e3);
+		} finally {
+			if (server != null) {
+				server.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,317 @@
+package lse;
+
+import java.io.*;
+import java.lang.reflect.Method;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * This class serves searches of an index over a line protocol, so the engine can be used
+ * as a service rather than through the interactive driver.
+ *
+ * All searches run on one shared IndexSnapshot, which is immutable, so connections never
+ * wait for each other. The snapshot can be swapped for a newer one with setSnapshot; a
+ * batch is always answered from a single snapshot.
+ *
+ * Each connection is served by its own thread: a virtual thread when the Java runtime has
+ * them, and otherwise a daemon platform thread with a small stack, so that thousands of
+ * connections can be open at once.
+ *
+ * Requests are lines in UTF-8:
+ *
+ *   TOPK k kw1 kw2 ... kwN     top K by frequency, as LittleSearchEngine.topKSearch
+ *   RANK k kw1 kw2 ... kwN     top K by BM25 score, as LittleSearchEngine.rankedSearch
+ *   BOOL k query               boolean query, as LittleSearchEngine.booleanSearch
+ *   WILD k pattern             prefix or wildcard query, as LittleSearchEngine.wildcardSearch
+ *   BATCH n                    followed by n requests, answered from the same snapshot;
+ *                              n is at most MAX_BATCH
+ *   QUIT                       closes the connection
+ *
+ * K is at most MAX_K. Each request gets one response line, "OK" followed by the matching
+ * documents separated by spaces, or "ERR" followed by a message. Responses come in the
+ * order of the requests, and a client may send any number of requests without waiting
+ * for responses (pipelining): the server only flushes its responses when it has read all
+ * the requests that have arrived so far.
+ *
+ */
+public class QueryServer implements Closeable {
+
+	/**
+	 * Stack size of platform connection threads. Requests need very little stack.
+	 */
+	static final long STACK_SIZE = 256 * 1024;
+
+	/**
+	 * Largest k a request may ask for, so that no request can make a search allocate
+	 * more than a client could want to read.
+	 */
+	static final int MAX_K = 10000;
+
+	/**
+	 * Largest number of requests in a batch.
+	 */
+	static final int MAX_BATCH = 100000;
+
+	/**
+	 * Number of characters of batch responses that are gathered before they are sent.
+	 */
+	static final int BATCH_CHUNK = 8192;
+
+	/**
+	 * Snapshot that searches run on.
+	 */
+	volatile IndexSnapshot snapshot;
+
+	/**
+	 * Listening socket.
+	 */
+	final ServerSocket server;
+
+	/**
+	 * Threads serving connections.
+	 */
+	final ExecutorService connections = newConnectionExecutor();
+
+	/**
+	 * Initializes a server for a snapshot, and opens its listening socket on the loopback
+	 * address, since the protocol has no authentication.
+	 *
+	 * @param snapshot Snapshot to search
+	 * @param port Port to listen on, 0 for any free port
+	 * @throws IOException If the socket cannot be opened
+	 */
+	public QueryServer(IndexSnapshot snapshot, int port)
+	throws IOException {
+		this(snapshot, port, InetAddress.getLoopbackAddress());
+	}
+
+	/**
+	 * Initializes a server for a snapshot, and opens its listening socket on a given
+	 * address.
+	 *
+	 * @param snapshot Snapshot to search
+	 * @param port Port to listen on, 0 for any free port
+	 * @param bindAddress Address to listen on; null listens on every interface
+	 * @throws IOException If the socket cannot be opened
+	 */
+	public QueryServer(IndexSnapshot snapshot, int port, InetAddress bindAddress)
+	throws IOException {
+		this.snapshot = snapshot;
+		server = new ServerSocket(port, 4096, bindAddress);
+	}
+
+	/**
+	 * Returns an executor that runs each task on a new virtual thread if the runtime has
+	 * them, or else on a pooled daemon platform thread.
+	 */
+	static ExecutorService newConnectionExecutor() {
+		try {
+			Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService)m.invoke(null);
+		} catch (ReflectiveOperationException roe) {
+			// no virtual threads before Java 21
+		}
+		return Executors.newCachedThreadPool(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(null, r, "query-connection", STACK_SIZE);
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Returns the port this server listens on.
+	 *
+	 * @return Port
+	 */
+	public int port() {
+		return server.getLocalPort();
+	}
+
+	/**
+	 * Replaces the snapshot that searches run on. Requests already being answered finish
+	 * on the old one.
+	 *
+	 * @param snapshot New snapshot
+	 */
+	public void setSnapshot(IndexSnapshot snapshot) {
+		this.snapshot = snapshot;
+	}
+
+	/**
+	 * Accepts and serves connections until the server is closed.
+	 */
+	public void serve() {
+		while (!server.isClosed()) {
+			final Socket socket;
+			try {
+				socket = server.accept();
+			} catch (IOException ioe) {
+				// closed
+				break;
+			}
+			connections.execute(new Runnable() {
+				public void run() {
+					serve(socket);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Serves connections on a background thread.
+	 */
+	public void start() {
+		Thread t = new Thread(new Runnable() {
+			public void run() {
+				serve();
+			}
+		}, "query-accept");
+		t.setDaemon(true);
+		t.start();
+	}
+
+	/**
+	 * Serves the requests of one connection until it is closed.
+	 */
+	void serve(Socket socket) {
+		try {
+			socket.setTcpNoDelay(true);
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+			Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+			StringBuilder sb = new StringBuilder(256);
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.trim().equals("QUIT")) {
+					break;
+				}
+				sb.setLength(0);
+				IndexSnapshot snap = snapshot;
+				if (line.startsWith("BATCH")) {
+					batch(line, in, snap, sb, out);
+				} else {
+					answer(line, snap, sb);
+				}
+				out.append(sb);
+				if (!in.ready()) {
+					// no more pipelined requests have arrived; send what we have
+					out.flush();
+				}
+			}
+			out.flush();
+		} catch (IOException ioe) {
+			// the client went away; nothing to answer
+		} finally {
+			try {
+				socket.close();
+			} catch (IOException ioe) {
+				// already gone
+			}
+		}
+	}
+
+	/**
+	 * Answers a batch of requests from one snapshot. The responses are sent every
+	 * BATCH_CHUNK characters, so a big batch does not pile up in memory.
+	 */
+	private void batch(String line, BufferedReader in, IndexSnapshot snap, StringBuilder sb, Writer out)
+	throws IOException {
+		int n;
+		try {
+			n = Integer.parseInt(line.substring(5).trim());
+		} catch (NumberFormatException nfe) {
+			sb.append("ERR bad request: ").append(line).append('\n');
+			return;
+		}
+		if (n < 0 || n > MAX_BATCH) {
+			sb.append("ERR batch size must be from 0 to ").append(MAX_BATCH).append('\n');
+			return;
+		}
+		for (int i=0; i < n; i++) {
+			String request = in.readLine();
+			if (request == null) {
+				throw new EOFException("batch cut short");
+			}
+			answer(request, snap, sb);
+			if (sb.length() >= BATCH_CHUNK) {
+				out.append(sb);
+				out.flush();
+				sb.setLength(0);
+			}
+		}
+	}
+
+	/**
+	 * Answers one request.
+	 *
+	 * @param request Request line
+	 * @param snap Snapshot to search
+	 * @param sb Builder the response line is appended to
+	 */
+	static void answer(String request, IndexSnapshot snap, StringBuilder sb) {
+		String[] words = request.trim().split("\\s+");
+		try {
+			if (words.length < 3) {
+				throw new IllegalArgumentException("bad request: " + request);
+			}
+			int k = Integer.parseInt(words[1]);
+			if (k < 1 || k > MAX_K) {
+				throw new IllegalArgumentException("k must be from 1 to " + MAX_K);
+			}
+			String[] args = Arrays.copyOfRange(words, 2, words.length);
+			ArrayList<String> docs;
+			if (words[0].equals("TOPK")) {
+				docs = snap.topKSearch(k, args);
+			} else if (words[0].equals("RANK")) {
+				docs = snap.bm25().search(k, args);
+			} else if (words[0].equals("BOOL")) {
+				docs = snap.booleanSearch(k, request.trim().split("\\s+", 3)[2]);
+			} else if (words[0].equals("WILD")) {
+				docs = snap.wildcardSearch(k, words[2]);
+			} else {
+				throw new IllegalArgumentException("unknown request: " + words[0]);
+			}
+			sb.append("OK");
+			if (docs != null) {
+				for (String doc : docs) {
+					sb.append(' ').append(doc);
+				}
+			}
+			sb.append('\n');
+		} catch (IllegalArgumentException iae) {
+			sb.append("ERR ").append(iae.getMessage()).append('\n');
+		}
+	}
+
+	/**
+	 * Stops accepting connections. Connections already open are served until they close.
+	 */
+	public void close() throws IOException {
+		server.close();
+		connections.shutdown();
+	}
+
+	/**
+	 * Indexes a docs file and serves it. Prints "READY port" once the index is built. The
+	 * server listens on the loopback address unless a bind address is given.
+	 *
+	 * Usage: QueryServer docsFile noiseWordsFile [port [bindAddress]]
+	 */
+	public static void main(String[] args)
+	throws IOException {
+		if (args.length < 2) {
+			System.out.println("Usage: QueryServer docsFile noiseWordsFile [port [bindAddress]]");
+			return;
+		}
+		InetAddress bindAddress = args.length > 3 ? InetAddress.getByName(args[3]) : InetAddress.getLoopbackAddress();
+		LittleSearchEngine engine = new LittleSearchEngine();
+		engine.makeIndex(args[0], args[1], Runtime.getRuntime().availableProcessors());
+		QueryServer server = new QueryServer(engine.publish(), args.length > 2 ? Integer.parseInt(args[2]) : 0, bindAddress);
+		System.out.println("READY " + server.port());
+		System.out.flush();
+		server.serve();
+	}
+}
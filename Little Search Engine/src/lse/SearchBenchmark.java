@@ -0,0 +1,392 @@
+package lse;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * This program benchmarks the stages of indexing and searching on a SyntheticCorpus, so
+ * that a performance change can be measured against a saved baseline.
+ *
+ * Each benchmark runs a number of warmup iterations, whose results are thrown away, and
+ * then a number of measured iterations. An iteration calls the benchmark's operation
+ * over and over for a fixed time, and its score is the number of items the operations
+ * handled (words, documents, occurrences, queries) per second. Results of the operations
+ * are folded into a volatile field, so the JIT cannot drop the work as dead code.
+ *
+ * The benchmarks are:
+ *
+ *   getKeyword                 words of the corpus through getKeyword
+ *   loadKeywordsFromDocument   documents scanned
+ *   mergeKeywords              loaded documents merged into an empty index
+ *   insertLastOccurrence       occurrences inserted into one growing list
+ *   makeIndex                  documents indexed end to end, from the docs file
+ *   makeIndexParallel          the same with the parallel makeIndex, one thread per core
+ *   top5search.uniform         queries of two keywords drawn uniformly
+ *   top5search.zipf1.0         queries of two keywords drawn with Zipf probabilities by
+ *                              their rank in number of documents, s = 1.0
+ *   top5search.zipf1.5         the same with s = 1.5
+ *
+ * Usage: SearchBenchmark [-dir corpusDir] [-docs n] [-words n] [-vocab n] [-zipf s]
+ *                        [-wi warmupIterations] [-i iterations] [-time millisPerIteration]
+ *                        [-filter text] [-save file] [-baseline file]
+ *
+ * The corpus is written to corpusDir (a temporary directory by default) unless that
+ * directory already has a docs.txt. With -save, the scores are written to a file; with
+ * -baseline, each score is compared with the one in a file saved earlier.
+ */
+public class SearchBenchmark {
+
+	/**
+	 * Folded results of the operations.
+	 */
+	static volatile long sink;
+
+	/**
+	 * A benchmark: an operation, and the state it runs on.
+	 */
+	static abstract class Benchmark {
+		final String name, unit;
+
+		Benchmark(String name, String unit) {
+			this.name = name;
+			this.unit = unit;
+		}
+
+		/**
+		 * Prepares the state, before the warmup.
+		 */
+		void setUp() throws IOException {
+		}
+
+		/**
+		 * Runs the operation once.
+		 *
+		 * @return Number of items handled
+		 */
+		abstract long run() throws IOException;
+
+		/**
+		 * Releases the state.
+		 */
+		void tearDown() {
+		}
+	}
+
+	/**
+	 * Docs file and noise words file of the corpus.
+	 */
+	final String docsFile, noiseWordsFile;
+
+	/**
+	 * Number of warmup and measured iterations.
+	 */
+	final int warmups, iterations;
+
+	/**
+	 * Length of an iteration, in nanoseconds.
+	 */
+	final long iterationNanos;
+
+	SearchBenchmark(File dir, int warmups, int iterations, long iterationMillis) {
+		this.docsFile = new File(dir, "docs.txt").getPath();
+		this.noiseWordsFile = new File(dir, "noisewords.txt").getPath();
+		this.warmups = warmups;
+		this.iterations = iterations;
+		this.iterationNanos = iterationMillis * 1000000;
+	}
+
+	/**
+	 * Returns an engine with the noise words of the corpus loaded and nothing indexed.
+	 */
+	LittleSearchEngine emptyEngine() throws FileNotFoundException {
+		LittleSearchEngine engine = new LittleSearchEngine();
+		engine.loadNoiseWords(noiseWordsFile);
+		return engine;
+	}
+
+	/**
+	 * Returns all the benchmarks.
+	 */
+	ArrayList<Benchmark> benchmarks() throws IOException {
+		final ArrayList<String> docFiles = LittleSearchEngine.readDocumentList(docsFile);
+		ArrayList<Benchmark> all = new ArrayList<Benchmark>();
+
+		all.add(new Benchmark("getKeyword", "words/s") {
+			LittleSearchEngine engine;
+			ArrayList<String> words = new ArrayList<String>();
+
+			void setUp() throws IOException {
+				engine = emptyEngine();
+				for (String doc : docFiles) {
+					Scanner sc = new Scanner(new File(doc));
+					while (sc.hasNext() && words.size() < 1000000) {
+						words.add(sc.next());
+					}
+					sc.close();
+				}
+			}
+
+			long run() {
+				long h = 0;
+				for (String w : words) {
+					String kw = engine.getKeyword(w);
+					if (kw != null) {
+						h += kw.length();
+					}
+				}
+				sink += h;
+				return words.size();
+			}
+		});
+
+		all.add(new Benchmark("loadKeywordsFromDocument", "docs/s") {
+			LittleSearchEngine engine;
+			int next;
+
+			void setUp() throws IOException {
+				engine = emptyEngine();
+			}
+
+			long run() throws IOException {
+				sink += engine.loadKeywordsFromDocument(docFiles.get(next)).size();
+				next = (next + 1) % docFiles.size();
+				return 1;
+			}
+		});
+
+		all.add(new Benchmark("mergeKeywords", "docs/s") {
+			ArrayList<HashMap<String,Occurrence>> loaded = new ArrayList<HashMap<String,Occurrence>>();
+
+			void setUp() throws IOException {
+				LittleSearchEngine engine = emptyEngine();
+				for (String doc : docFiles) {
+					loaded.add(engine.loadKeywordsFromDocument(doc));
+				}
+			}
+
+			long run() throws IOException {
+				LittleSearchEngine engine = emptyEngine();
+				for (HashMap<String,Occurrence> kws : loaded) {
+					engine.mergeKeywords(kws);
+				}
+				sink += engine.keywordsIndex.size();
+				return loaded.size();
+			}
+
+			void tearDown() {
+				loaded = null;
+			}
+		});
+
+		all.add(new Benchmark("insertLastOccurrence", "occurrences/s") {
+			LittleSearchEngine engine = new LittleSearchEngine();
+			Occurrence[] occs;
+
+			void setUp() {
+				// frequencies of one keyword over the documents, as in a long posting list
+				Random random = new Random(5);
+				occs = new Occurrence[Math.max(docFiles.size(), 1000)];
+				for (int i=0; i < occs.length; i++) {
+					occs[i] = new Occurrence("doc" + i, 1 + (int)(20 / (0.05 + random.nextDouble())));
+				}
+			}
+
+			long run() {
+				ArrayList<Occurrence> list = new ArrayList<Occurrence>(occs.length);
+				list.add(occs[0]);
+				for (int i=1; i < occs.length; i++) {
+					list.add(occs[i]);
+					engine.insertLastOccurrence(list);
+				}
+				sink += list.get(0).frequency;
+				return occs.length - 1;
+			}
+		});
+
+		all.add(new Benchmark("makeIndex", "docs/s") {
+			long run() throws IOException {
+				LittleSearchEngine engine = new LittleSearchEngine();
+				engine.makeIndex(docsFile, noiseWordsFile);
+				sink += engine.keywordsIndex.size();
+				return docFiles.size();
+			}
+		});
+
+		all.add(new Benchmark("makeIndexParallel", "docs/s") {
+			long run() throws IOException {
+				LittleSearchEngine engine = new LittleSearchEngine();
+				engine.makeIndex(docsFile, noiseWordsFile, Runtime.getRuntime().availableProcessors());
+				sink += engine.keywordsIndex.size();
+				return docFiles.size();
+			}
+		});
+
+		for (final double s : new double[] { 0, 1.0, 1.5 }) {
+			all.add(new Benchmark(s == 0 ? "top5search.uniform" : "top5search.zipf" + s, "queries/s") {
+				LittleSearchEngine engine;
+				String[][] queries;
+
+				void setUp() throws IOException {
+					engine = new LittleSearchEngine();
+					engine.makeIndex(docsFile, noiseWordsFile);
+					// keywords ranked by number of documents
+					final HashMap<String,ArrayList<Occurrence>> index = engine.keywordsIndex;
+					String[] keywords = index.keySet().toArray(new String[0]);
+					Arrays.sort(keywords, new Comparator<String>() {
+						public int compare(String a, String b) {
+							int c = index.get(b).size() - index.get(a).size();
+							return c != 0 ? c : a.compareTo(b);
+						}
+					});
+					SyntheticCorpus.ZipfSampler sampler = new SyntheticCorpus.ZipfSampler(keywords.length, s);
+					Random random = new Random(7);
+					queries = new String[1 << 16][];
+					for (int q=0; q < queries.length; q++) {
+						queries[q] = new String[] { keywords[sampler.next(random)], keywords[sampler.next(random)] };
+					}
+				}
+
+				long run() {
+					long h = 0;
+					for (String[] q : queries) {
+						ArrayList<String> result = engine.top5search(q[0], q[1]);
+						if (result != null) {
+							h += result.size();
+						}
+					}
+					sink += h;
+					return queries.length;
+				}
+
+				void tearDown() {
+					engine = null;
+				}
+			});
+		}
+		return all;
+	}
+
+	/**
+	 * Runs one iteration of a benchmark.
+	 *
+	 * @return Items handled per second
+	 */
+	double iteration(Benchmark b) throws IOException {
+		long items = 0;
+		long start = System.nanoTime(), elapsed;
+		do {
+			items += b.run();
+			elapsed = System.nanoTime() - start;
+		} while (elapsed < iterationNanos);
+		return items / (elapsed / 1e9);
+	}
+
+	/**
+	 * Runs a benchmark.
+	 *
+	 * @return Scores of the measured iterations
+	 */
+	double[] measure(Benchmark b) throws IOException {
+		b.setUp();
+		try {
+			for (int i=0; i < warmups; i++) {
+				iteration(b);
+			}
+			double[] scores = new double[iterations];
+			for (int i=0; i < iterations; i++) {
+				scores[i] = iteration(b);
+			}
+			return scores;
+		} finally {
+			b.tearDown();
+		}
+	}
+
+	/**
+	 * Returns the mean of scores.
+	 */
+	static double mean(double[] scores) {
+		double sum = 0;
+		for (double x : scores) {
+			sum += x;
+		}
+		return sum / scores.length;
+	}
+
+	/**
+	 * Returns the sample standard deviation of scores.
+	 */
+	static double stddev(double[] scores) {
+		if (scores.length < 2) {
+			return 0;
+		}
+		double m = mean(scores), sum = 0;
+		for (double x : scores) {
+			sum += (x-m) * (x-m);
+		}
+		return Math.sqrt(sum / (scores.length-1));
+	}
+
+	public static void main(String[] args)
+	throws IOException {
+		HashMap<String,String> opts = new HashMap<String,String>();
+		for (int i=0; i+1 < args.length; i += 2) {
+			if (!args[i].startsWith("-")) {
+				System.out.println("Unexpected argument: " + args[i]);
+				return;
+			}
+			opts.put(args[i].substring(1), args[i+1]);
+		}
+		int numDocs = Integer.parseInt(value(opts, "docs", "2000"));
+		int wordsPerDoc = Integer.parseInt(value(opts, "words", "1000"));
+		int vocabulary = Integer.parseInt(value(opts, "vocab", "50000"));
+		double exponent = Double.parseDouble(value(opts, "zipf", "1.0"));
+		File dir = opts.containsKey("dir") ? new File(opts.get("dir")) :
+				new File(System.getProperty("java.io.tmpdir"), "lse-corpus-" + numDocs + "-" + wordsPerDoc + "-" + vocabulary + "-" + exponent);
+		if (!new File(dir, "docs.txt").exists()) {
+			System.out.println("Writing corpus to " + dir);
+			new SyntheticCorpus(numDocs, wordsPerDoc, vocabulary, exponent, 100, 1).write(dir);
+		}
+
+		SearchBenchmark bench = new SearchBenchmark(dir,
+				Integer.parseInt(value(opts, "wi", "3")), Integer.parseInt(value(opts, "i", "5")),
+				Long.parseLong(value(opts, "time", "1000")));
+		Properties baseline = new Properties();
+		if (opts.containsKey("baseline")) {
+			InputStream in = new FileInputStream(opts.get("baseline"));
+			try {
+				baseline.load(in);
+			} finally {
+				in.close();
+			}
+		}
+		Properties saved = new Properties();
+		String filter = value(opts, "filter", "");
+
+		System.out.printf("%-28s %4s %16s %14s  %-14s %s%n", "Benchmark", "Cnt", "Score", "Error", "Units", "vs baseline");
+		for (Benchmark b : bench.benchmarks()) {
+			if (!b.name.contains(filter)) {
+				continue;
+			}
+			double[] scores = bench.measure(b);
+			double mean = mean(scores);
+			String base = baseline.getProperty(b.name);
+			System.out.printf("%-28s %4d %16.1f +- %11.1f  %-14s %s%n", b.name, scores.length, mean, stddev(scores), b.unit,
+					base == null ? "" : String.format("%.2fx", mean / Double.parseDouble(base)));
+			saved.setProperty(b.name, Double.toString(mean));
+		}
+		if (opts.containsKey("save")) {
+			OutputStream out = new FileOutputStream(opts.get("save"));
+			try {
+				saved.store(out, "SearchBenchmark scores, items per second");
+			} finally {
+				out.close();
+			}
+		}
+	}
+
+	private static String value(HashMap<String,String> opts, String key, String dflt) {
+		String v = opts.get(key);
+		return v == null ? dflt : v;
+	}
+}
@@ -0,0 +1,488 @@
+package lse;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class is an index made of immutable segment files, for long ingestion runs.
+ *
+ * Added documents are indexed into an in-memory buffer, which is written out as a new
+ * segment file (see MappedIndex) every flushDocs documents, or on flush. A document can
+ * be searched once its segment is written. Segments are never changed: a background
+ * merge thread combines runs of small adjacent segments into larger ones, as chosen by a
+ * TieredMergePolicy, and swaps the merged segment in for them, so the number of segments
+ * a query has to search stays small. Merges write their segment through a throttle, so
+ * that they do not take all the disk bandwidth from ingestion.
+ *
+ * Searches run on the list of segments current when they start, without locking, and
+ * rank documents exactly as LittleSearchEngine.topKSearch would over all the documents
+ * in the order they were added: each segment finds its own top K, and the lists are
+ * merged by frequency, then keyword index, then segment order (see ShardCoordinator).
+ *
+ * The index is written to a directory, but is not reopened from it; each SegmentedIndex
+ * starts empty. Documents cannot be removed.
+ *
+ */
+public class SegmentedIndex implements Closeable {
+
+	/**
+	 * Default number of documents per flushed segment.
+	 */
+	static final int DEFAULT_FLUSH_DOCS = 64;
+
+	/**
+	 * Default size ratio between tiers, and number of segments per tier.
+	 */
+	static final int DEFAULT_SEGMENTS_PER_TIER = 8;
+
+	/**
+	 * Segment file, with its merge state.
+	 */
+	static class Segment {
+		final MappedIndex index;
+		final File file;
+		final int numDocs;
+
+		/**
+		 * True if the segment is being merged. Guarded by the SegmentedIndex.
+		 */
+		boolean merging;
+
+		Segment(File file) throws IOException {
+			this.file = file;
+			this.index = new MappedIndex(file.getPath());
+			this.numDocs = index.numDocuments();
+		}
+	}
+
+	/**
+	 * Directory of the segment files.
+	 */
+	final File dir;
+
+	/**
+	 * Noise words.
+	 */
+	final HashSet<String> noiseWords;
+
+	/**
+	 * Merge policy.
+	 */
+	final TieredMergePolicy policy;
+
+	/**
+	 * Maximum rate, in bytes per second, at which merges write segment files; 0 for no limit.
+	 */
+	final long mergeBytesPerSecond;
+
+	/**
+	 * Segments, in the order their documents were added. The list is never changed; a
+	 * flush or merge publishes a new one.
+	 */
+	volatile List<Segment> segments = Collections.emptyList();
+
+	/**
+	 * Index of the documents added since the last flush, null if there are none.
+	 */
+	LittleSearchEngine buffer;
+
+	/**
+	 * Names of all the documents added.
+	 */
+	HashSet<String> documents = new HashSet<String>();
+
+	/**
+	 * Number of segment files created, for naming them.
+	 */
+	int segmentCount;
+
+	/**
+	 * Thread that runs the merges, one at a time.
+	 */
+	final ExecutorService merger = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "segment-merger");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	/**
+	 * Merge stats, guarded by this.
+	 */
+	long flushes, merges, mergedDocs, mergedBytes, mergeNanos, throttleNanos;
+
+	/**
+	 * First merge failure, if any, guarded by this.
+	 */
+	IOException mergeFailure;
+
+	/**
+	 * Query stats: number of queries, total and largest number of segments searched.
+	 */
+	final AtomicLong queries = new AtomicLong(), fanOut = new AtomicLong(), maxFanOut = new AtomicLong();
+
+	/**
+	 * Initializes an empty index with the default merge policy and no merge throttle.
+	 *
+	 * @param dir Directory for the segment files, created if needed
+	 * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+	 * @throws IOException If the directory cannot be created or the noise words file cannot be read
+	 */
+	public SegmentedIndex(String dir, String noiseWordsFile)
+	throws IOException {
+		this(dir, noiseWordsFile, DEFAULT_FLUSH_DOCS, DEFAULT_SEGMENTS_PER_TIER, DEFAULT_SEGMENTS_PER_TIER, 0);
+	}
+
+	/**
+	 * Initializes an empty index.
+	 *
+	 * @param dir Directory for the segment files, created if needed
+	 * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+	 * @param flushDocs Number of documents per flushed segment
+	 * @param tierFactor Size ratio between consecutive tiers
+	 * @param segmentsPerTier Number of adjacent segments of a tier that are merged
+	 * @param mergeBytesPerSecond Maximum rate at which merges write, 0 for no limit
+	 * @throws IOException If the directory cannot be created or the noise words file cannot be read
+	 */
+	public SegmentedIndex(String dir, String noiseWordsFile, int flushDocs, int tierFactor, int segmentsPerTier,
+			long mergeBytesPerSecond)
+	throws IOException {
+		this.dir = new File(dir);
+		if (!this.dir.isDirectory() && !this.dir.mkdirs()) {
+			throw new IOException("cannot create directory " + dir);
+		}
+		this.policy = new TieredMergePolicy(flushDocs, tierFactor, segmentsPerTier);
+		this.mergeBytesPerSecond = mergeBytesPerSecond;
+		LittleSearchEngine words = new LittleSearchEngine();
+		words.loadNoiseWords(noiseWordsFile);
+		noiseWords = words.noiseWords;
+	}
+
+	/**
+	 * Adds a document. It can be searched once its segment is flushed.
+	 *
+	 * @param docFile Name of the document file to be added
+	 * @throws IOException If the document cannot be read, or a segment cannot be written
+	 * @throws IllegalArgumentException If the document has already been added
+	 */
+	public synchronized void addDocument(String docFile)
+	throws IOException {
+		if (documents.contains(docFile)) {
+			throw new IllegalArgumentException(docFile + " is already indexed");
+		}
+		if (buffer == null) {
+			buffer = new LittleSearchEngine();
+			buffer.noiseWords.addAll(noiseWords);
+		}
+		buffer.mergeKeywords(buffer.loadKeywordsFromDocument(docFile));
+		documents.add(docFile);
+		if (buffer.documents.size() >= policy.flushDocs) {
+			flush();
+		}
+	}
+
+	/**
+	 * Writes the documents added since the last flush to a new segment, and makes them
+	 * searchable.
+	 *
+	 * @throws IOException If the segment cannot be written
+	 */
+	public synchronized void flush()
+	throws IOException {
+		if (buffer == null) {
+			return;
+		}
+		if (buffer.documents.size() > 0) {
+			File f = newSegmentFile();
+			MappedIndex.save(new CompactIndex(buffer), noiseWords, new FileOutputStream(f));
+			ArrayList<Segment> list = new ArrayList<Segment>(segments);
+			list.add(new Segment(f));
+			segments = Collections.unmodifiableList(list);
+			flushes++;
+		}
+		buffer = null;
+		scheduleMerges();
+	}
+
+	private synchronized File newSegmentFile() {
+		return new File(dir, String.format("seg%06d.lseg", segmentCount++));
+	}
+
+	/**
+	 * Hands every merge the policy finds to the merge thread.
+	 */
+	private synchronized void scheduleMerges() {
+		if (merger.isShutdown()) {
+			return;
+		}
+		int start;
+		while ((start = policy.findMerge(segments)) >= 0) {
+			final ArrayList<Segment> group = new ArrayList<Segment>(segments.subList(start, start + policy.segmentsPerTier));
+			for (Segment seg : group) {
+				seg.merging = true;
+			}
+			merger.execute(new Runnable() {
+				public void run() {
+					merge(group);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Merges a run of adjacent segments into one, streaming their postings through
+	 * MappedIndex.merge, and swaps it in for them.
+	 */
+	void merge(ArrayList<Segment> group) {
+		long start = System.nanoTime();
+		try {
+			int numDocs = 0;
+			ArrayList<MappedIndex> inputs = new ArrayList<MappedIndex>(group.size());
+			for (Segment seg : group) {
+				inputs.add(seg.index);
+				numDocs += seg.numDocs;
+			}
+			File f = newSegmentFile();
+			ThrottledOutputStream out = new ThrottledOutputStream(new FileOutputStream(f), mergeBytesPerSecond);
+			MappedIndex.merge(inputs, noiseWords, new File(f.getPath() + ".postings"), out);
+			Segment result = new Segment(f);
+
+			synchronized (this) {
+				ArrayList<Segment> list = new ArrayList<Segment>(segments);
+				int at = list.indexOf(group.get(0));
+				for (int i=0; i < group.size(); i++) {
+					list.remove(at);
+				}
+				list.add(at, result);
+				segments = Collections.unmodifiableList(list);
+				merges++;
+				mergedDocs += numDocs;
+				mergedBytes += out.written;
+				mergeNanos += System.nanoTime() - start;
+				throttleNanos += out.sleptNanos;
+			}
+			// searches that still hold the old list keep their mappings after the files are gone
+			for (Segment seg : group) {
+				seg.file.delete();
+			}
+			scheduleMerges();
+		} catch (IOException ioe) {
+			synchronized (this) {
+				if (mergeFailure == null) {
+					mergeFailure = ioe;
+				}
+				for (Segment seg : group) {
+					seg.merging = false;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Search result for "kw1 or kw2 or ... or kwN" over the flushed documents, with the
+	 * same rules as LittleSearchEngine.topKSearch.
+	 *
+	 * @param k Maximum number of documents in the result
+	 * @param keywords Keywords, in order of precedence for breaking ties
+	 * @return List of documents in which any of the keywords occurs, null if there are no matches
+	 * @throws IllegalArgumentException If k is less than 1
+	 */
+	public ArrayList<String> topKSearch(int k, String... keywords) {
+		TopKSearch.checkK(k);
+		List<Segment> segs = segments;
+		queries.incrementAndGet();
+		fanOut.addAndGet(segs.size());
+		for (long max = maxFanOut.get(); segs.size() > max && !maxFanOut.compareAndSet(max, segs.size()); ) {
+			max = maxFanOut.get();
+		}
+		ArrayList<ArrayList<ShardCoordinator.Hit>> lists = new ArrayList<ArrayList<ShardCoordinator.Hit>>(segs.size());
+		for (int s=0; s < segs.size(); s++) {
+			MappedIndex index = segs.get(s).index;
+			PostingCursor[] cursors = new PostingCursor[keywords.length];
+			boolean any = false;
+			for (int i=0; i < keywords.length; i++) {
+				cursors[i] = index.cursor(keywords[i].toLowerCase());
+				any |= cursors[i] != null;
+			}
+			if (!any) {
+				continue;
+			}
+			TopKSearch.Ranked top = TopKSearch.searchRanked(cursors, k);
+			int[] ids = top.ids, ranks = top.ranks;
+			ArrayList<ShardCoordinator.Hit> hits = new ArrayList<ShardCoordinator.Hit>(ids.length);
+			for (int i=0; i < ids.length; i++) {
+				hits.add(new ShardCoordinator.Hit(ranks[2*i], ranks[2*i+1], s, index.document(ids[i])));
+			}
+			lists.add(hits);
+		}
+		return ShardCoordinator.merge(lists, k);
+	}
+
+	/**
+	 * Search result for "kw1 or kw2", with the same rules as LittleSearchEngine.top5search.
+	 *
+	 * @param kw1 First keyword
+	 * @param kw2 Second keyword
+	 * @return List of documents in which either kw1 or kw2 occurs, null if there are no matches
+	 */
+	public ArrayList<String> top5search(String kw1, String kw2) {
+		return topKSearch(5, kw1, kw2);
+	}
+
+	/**
+	 * Returns the number of segments.
+	 *
+	 * @return Number of segments
+	 */
+	public int numSegments() {
+		return segments.size();
+	}
+
+	/**
+	 * Returns the merge and query stats as a string.
+	 */
+	public synchronized String stats() {
+		long q = queries.get();
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("segments=%d docs=%d flushes=%d merges=%d mergedDocs=%d mergedBytes=%d mergeMs=%.1f throttleMs=%.1f",
+				segments.size(), documents.size(), flushes, merges, mergedDocs, mergedBytes, mergeNanos/1e6, throttleNanos/1e6));
+		sb.append(String.format(" queries=%d avgFanOut=%.2f maxFanOut=%d", q, q == 0 ? 0 : (double)fanOut.get()/q, maxFanOut.get()));
+		if (mergeFailure != null) {
+			sb.append(" mergeFailure=").append(mergeFailure);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Flushes the buffered documents, and waits for the merges in progress to finish.
+	 *
+	 * @throws IOException If the buffer cannot be flushed, or a merge has failed
+	 */
+	public void close()
+	throws IOException {
+		flush();
+		synchronized (this) {
+			merger.shutdown();
+		}
+		try {
+			merger.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while waiting for merges");
+		}
+		synchronized (this) {
+			if (mergeFailure != null) {
+				throw mergeFailure;
+			}
+		}
+	}
+
+	/**
+	 * Output stream that keeps its average write rate under a limit by sleeping.
+	 */
+	static class ThrottledOutputStream extends FilterOutputStream {
+		final long bytesPerSecond;
+		final long start = System.nanoTime();
+		long written, sleptNanos;
+
+		ThrottledOutputStream(OutputStream out, long bytesPerSecond) {
+			super(out);
+			this.bytesPerSecond = bytesPerSecond;
+		}
+
+		public void write(int b) throws IOException {
+			out.write(b);
+			throttle(1);
+		}
+
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			throttle(len);
+		}
+
+		private void throttle(int len) throws IOException {
+			written += len;
+			if (bytesPerSecond <= 0) {
+				return;
+			}
+			long due = start + written * 1000000000L / bytesPerSecond;
+			long ahead = due - System.nanoTime();
+			if (ahead > 0) {
+				try {
+					Thread.sleep(ahead / 1000000, (int)(ahead % 1000000));
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("interrupted while throttled");
+				}
+				sleptNanos += ahead;
+			}
+		}
+	}
+
+	/**
+	 * Adds the documents of a docs file to a segmented index one by one, while another
+	 * thread runs queries, and reports query latency and fan-out as ingestion goes on,
+	 * then the merge stats.
+	 *
+	 * Usage: SegmentedIndex docsFile noiseWordsFile directory [flushDocs [segmentsPerTier [mergeBytesPerSecond]]]
+	 */
+	public static void main(String[] args)
+	throws IOException {
+		if (args.length < 3) {
+			System.out.println("Usage: SegmentedIndex docsFile noiseWordsFile directory [flushDocs [segmentsPerTier [mergeBytesPerSecond]]]");
+			return;
+		}
+		int flushDocs = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_FLUSH_DOCS;
+		int perTier = args.length > 4 ? Integer.parseInt(args[4]) : DEFAULT_SEGMENTS_PER_TIER;
+		long rate = args.length > 5 ? Long.parseLong(args[5]) : 0;
+		final ArrayList<String> docs = LittleSearchEngine.readDocumentList(args[0]);
+		final SegmentedIndex index = new SegmentedIndex(args[2], args[1], flushDocs, perTier, perTier, rate);
+
+		// query words: the keywords of the first few documents
+		LittleSearchEngine sample = new LittleSearchEngine();
+		sample.noiseWords.addAll(index.noiseWords);
+		final ArrayList<String> words = new ArrayList<String>();
+		for (int i=0; i < Math.min(docs.size(), 10); i++) {
+			words.addAll(sample.loadKeywordsFromDocument(docs.get(i)).keySet());
+		}
+		if (words.isEmpty()) {
+			words.add("nosuchword");
+		}
+
+		final AtomicBoolean done = new AtomicBoolean();
+		Thread reader = new Thread(new Runnable() {
+			public void run() {
+				Random random = new Random(1);
+				long[] latencies = new long[1000];
+				int n = 0;
+				while (!done.get()) {
+					long t = System.nanoTime();
+					index.topKSearch(10, words.get(random.nextInt(words.size())), words.get(random.nextInt(words.size())));
+					latencies[n++] = System.nanoTime() - t;
+					if (n == latencies.length) {
+						Arrays.sort(latencies);
+						System.out.printf("segments=%d  p50 %.0f us  p99 %.0f us%n", index.numSegments(),
+								latencies[n/2] / 1e3, latencies[n*99/100] / 1e3);
+						n = 0;
+					}
+				}
+			}
+		}, "query");
+		reader.start();
+		for (String doc : docs) {
+			index.addDocument(doc);
+		}
+		index.close();
+		done.set(true);
+		try {
+			reader.join();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+		System.out.println(index.stats());
+	}
+}
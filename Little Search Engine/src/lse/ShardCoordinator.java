@@ -0,0 +1,322 @@
+package lse;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * This class searches a sharded index: it scatters each query to all the ShardServers,
+ * and merges their partial top K lists into one.
+ *
+ * Every shard ranks its documents with the same rules as LittleSearchEngine.topKSearch,
+ * and reports the frequency and keyword index each document was ranked by, along with the
+ * document's ordinal in the docs file. In a single index of all the documents, a document
+ * comes before another if its frequency is higher, or, for the same frequency, if it was
+ * ranked by an earlier keyword, or, for the same keyword, if it comes earlier in the docs
+ * file. Each shard's list is in that order, and the documents of the shards are disjoint,
+ * so merging the lists in that order gives exactly the single index ranking.
+ *
+ * Each shard has one connection, used by one query at a time; queries from several threads
+ * are sent to a shard one after the other.
+ *
+ */
+public class ShardCoordinator implements Closeable {
+
+	/**
+	 * Connection to a shard.
+	 */
+	static class Shard {
+		final Socket socket;
+		final BufferedReader in;
+		final Writer out;
+
+		Shard(InetSocketAddress address) throws IOException {
+			socket = new Socket(address.getAddress(), address.getPort());
+			socket.setTcpNoDelay(true);
+			in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+			out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+		}
+
+		/**
+		 * Sends a request, and reads the response.
+		 *
+		 * @return Hits in rank order
+		 */
+		synchronized ArrayList<Hit> topK(String request) throws IOException {
+			out.write(request);
+			out.flush();
+			String line = in.readLine();
+			if (line == null) {
+				throw new EOFException("shard " + socket.getRemoteSocketAddress() + " closed the connection");
+			}
+			if (line.startsWith("ERR ")) {
+				throw new IOException("shard " + socket.getRemoteSocketAddress() + ": " + line.substring(4));
+			}
+			int n = Integer.parseInt(line);
+			ArrayList<Hit> hits = new ArrayList<Hit>(n);
+			for (int i=0; i < n; i++) {
+				String[] f = in.readLine().split(" ", 4);
+				hits.add(new Hit(Integer.parseInt(f[0]), Integer.parseInt(f[1]), Integer.parseInt(f[2]), f[3]));
+			}
+			return hits;
+		}
+	}
+
+	/**
+	 * A document in a partial result, with what it was ranked by. The ordinal orders the
+	 * documents of the same frequency and keyword across the partial results.
+	 */
+	static class Hit {
+		final int frequency, keyword, ordinal;
+		final String document;
+
+		Hit(int frequency, int keyword, int ordinal, String document) {
+			this.frequency = frequency;
+			this.keyword = keyword;
+			this.ordinal = ordinal;
+			this.document = document;
+		}
+
+		/**
+		 * Tells if this hit ranks before another in a single index.
+		 */
+		boolean before(Hit h) {
+			if (frequency != h.frequency) {
+				return frequency > h.frequency;
+			}
+			if (keyword != h.keyword) {
+				return keyword < h.keyword;
+			}
+			return ordinal < h.ordinal;
+		}
+	}
+
+	/**
+	 * Connections to the shards.
+	 */
+	final Shard[] shards;
+
+	/**
+	 * Threads that send the requests to the shards.
+	 */
+	final ExecutorService scatter;
+
+	/**
+	 * Shard processes started by launch, destroyed on close.
+	 */
+	final ArrayList<Process> processes = new ArrayList<Process>();
+
+	/**
+	 * Connects to running shards.
+	 *
+	 * @param addresses Addresses of the shards
+	 * @throws IOException If a shard cannot be reached
+	 */
+	public ShardCoordinator(List<InetSocketAddress> addresses)
+	throws IOException {
+		shards = new Shard[addresses.size()];
+		for (int i=0; i < shards.length; i++) {
+			shards[i] = new Shard(addresses.get(i));
+		}
+		scatter = Executors.newFixedThreadPool(shards.length, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "shard-scatter");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Starts a ShardServer process on this host for each shard of a docs file, waits until
+	 * they have all indexed their documents, and connects to them. The processes run with
+	 * the same Java and class path as this one, and are destroyed when the coordinator is
+	 * closed.
+	 *
+	 * @param docsFile Name of file that has a list of all the document file names, one name per line
+	 * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+	 * @param numShards Number of shards
+	 * @return Coordinator of the shards
+	 * @throws IOException If a shard cannot be started or reached
+	 */
+	public static ShardCoordinator launch(String docsFile, String noiseWordsFile, int numShards)
+	throws IOException {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		ArrayList<Process> processes = new ArrayList<Process>();
+		ArrayList<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>();
+		try {
+			for (int i=0; i < numShards; i++) {
+				ProcessBuilder pb = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+						ShardServer.class.getName(), docsFile, noiseWordsFile, "" + i, "" + numShards);
+				pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+				processes.add(pb.start());
+			}
+			for (Process p : processes) {
+				BufferedReader in = new BufferedReader(new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8));
+				String line;
+				while ((line = in.readLine()) != null && !line.startsWith("READY ")) {
+					// skip anything else the shard prints
+				}
+				if (line == null) {
+					throw new IOException("shard process exited before it was ready");
+				}
+				addresses.add(new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(line.substring(6).trim())));
+			}
+			ShardCoordinator coordinator = new ShardCoordinator(addresses);
+			coordinator.processes.addAll(processes);
+			return coordinator;
+		} catch (IOException ioe) {
+			for (Process p : processes) {
+				p.destroy();
+			}
+			throw ioe;
+		}
+	}
+
+	/**
+	 * Search result for "kw1 or kw2", as LittleSearchEngine.top5search over all the shards.
+	 *
+	 * @param kw1 First keyword
+	 * @param kw2 Second keyword
+	 * @return List of documents in which either kw1 or kw2 occurs, null if there are no matches
+	 * @throws IOException If a shard fails
+	 */
+	public ArrayList<String> top5search(String kw1, String kw2)
+	throws IOException {
+		return topKSearch(5, kw1, kw2);
+	}
+
+	/**
+	 * Search result for "kw1 or kw2 or ... or kwN", as LittleSearchEngine.topKSearch over
+	 * all the shards.
+	 *
+	 * @param k Maximum number of documents in the result
+	 * @param keywords Keywords, in order of precedence for breaking ties
+	 * @return List of documents in which any of the keywords occurs, null if there are no matches
+	 * @throws IOException If a shard fails
+	 * @throws IllegalArgumentException If k is less than 1
+	 */
+	public ArrayList<String> topKSearch(int k, String... keywords)
+	throws IOException {
+		TopKSearch.checkK(k);
+		if (keywords.length == 0) {
+			return null;
+		}
+		StringBuilder sb = new StringBuilder("TOPK ").append(k);
+		for (String kw : keywords) {
+			sb.append(' ').append(kw);
+		}
+		final String request = sb.append('\n').toString();
+
+		// scatter
+		ArrayList<Future<ArrayList<Hit>>> futures = new ArrayList<Future<ArrayList<Hit>>>(shards.length);
+		for (final Shard shard : shards) {
+			futures.add(scatter.submit(new Callable<ArrayList<Hit>>() {
+				public ArrayList<Hit> call() throws IOException {
+					return shard.topK(request);
+				}
+			}));
+		}
+		ArrayList<ArrayList<Hit>> lists = new ArrayList<ArrayList<Hit>>(shards.length);
+		for (Future<ArrayList<Hit>> f : futures) {
+			try {
+				lists.add(f.get());
+			} catch (ExecutionException ee) {
+				Throwable cause = ee.getCause();
+				throw cause instanceof IOException ? (IOException)cause : new IOException(cause);
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("interrupted while waiting for shards");
+			}
+		}
+
+		return merge(lists, k);
+	}
+
+	/**
+	 * Merges lists of hits, each in rank order and with documents no other list has, into
+	 * the top k documents of them all.
+	 *
+	 * @param lists Lists of hits
+	 * @param k Maximum number of documents in the result
+	 * @return Documents in rank order, null if there are none
+	 */
+	static ArrayList<String> merge(ArrayList<ArrayList<Hit>> lists, int k) {
+		// take the best head each time
+		int[] next = new int[lists.size()];
+		ArrayList<String> result = new ArrayList<String>(Math.min(k, 1024));
+		while (result.size() < k) {
+			int best = -1;
+			for (int s=0; s < lists.size(); s++) {
+				if (next[s] < lists.get(s).size() &&
+						(best < 0 || lists.get(s).get(next[s]).before(lists.get(best).get(next[best])))) {
+					best = s;
+				}
+			}
+			if (best < 0) {
+				break;
+			}
+			result.add(lists.get(best).get(next[best]++).document);
+		}
+		return result.isEmpty() ? null : result;
+	}
+
+	/**
+	 * Closes the connections to the shards, and destroys the shard processes started by launch.
+	 */
+	public void close() throws IOException {
+		scatter.shutdownNow();
+		for (Shard shard : shards) {
+			shard.socket.close();
+		}
+		for (Process p : processes) {
+			p.destroy();
+		}
+	}
+
+	/**
+	 * Starts shard processes for a docs file, and checks that random queries get the same
+	 * results from the shards as from a single index of all the documents.
+	 *
+	 * Usage: ShardCoordinator docsFile noiseWordsFile numShards [queries]
+	 */
+	public static void main(String[] args)
+	throws IOException {
+		if (args.length < 3) {
+			System.out.println("Usage: ShardCoordinator docsFile noiseWordsFile numShards [queries]");
+			return;
+		}
+		String docsFile = args[0], noiseWordsFile = args[1];
+		int numShards = Integer.parseInt(args[2]);
+		int queries = args.length > 3 ? Integer.parseInt(args[3]) : 10000;
+
+		LittleSearchEngine single = new LittleSearchEngine();
+		single.makeIndex(docsFile, noiseWordsFile);
+		String[] words = single.keywordsIndex.keySet().toArray(new String[0]);
+		Arrays.sort(words);
+
+		ShardCoordinator coordinator = launch(docsFile, noiseWordsFile, numShards);
+		try {
+			Random random = new Random(1);
+			int mismatches = 0;
+			long start = System.nanoTime();
+			for (int q=0; q < queries; q++) {
+				String[] kws = new String[1 + random.nextInt(3)];
+				for (int i=0; i < kws.length; i++) {
+					kws[i] = words.length == 0 || random.nextInt(10) == 0 ? "nosuchword" : words[random.nextInt(words.length)];
+				}
+				int k = 1 + random.nextInt(10);
+				if (!Objects.equals(single.topKSearch(k, kws), coordinator.topKSearch(k, kws))) {
+					mismatches++;
+				}
+			}
+			double ms = (System.nanoTime() - start) / 1e6;
+			System.out.printf("%d queries on %d shards, %d mismatches, %.1f us/query%n",
+					queries, numShards, mismatches, ms*1000/queries);
+		} finally {
+			coordinator.close();
+		}
+	}
+}
@@ -0,0 +1,210 @@
+package lse;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * This class serves one shard of a sharded index over a local socket, for a
+ * ShardCoordinator.
+ *
+ * The documents of a docs file are dealt out to the shards in turn: the document with
+ * ordinal i (its position in the docs file, from 0) goes to shard i mod numShards. Each
+ * shard indexes its documents in ordinal order, so its Occurrence lists hold tied
+ * documents in ordinal order, just as a single index of all the documents would. Searches
+ * run on a published snapshot of the shard's index.
+ *
+ * The protocol is line based, in UTF-8. A request is
+ *
+ *   TOPK k kw1 kw2 ... kwN
+ *
+ * and the response is a line with the number n of documents found, followed by n lines of
+ *
+ *   frequency keywordIndex ordinal documentName
+ *
+ * in rank order, giving what each document was ranked by (see TopKSearch). A request that
+ * cannot be served gets a single "ERR message" line. A connection may carry any number of
+ * requests, and is served by its own thread.
+ *
+ */
+public class ShardServer implements Closeable {
+
+	/**
+	 * Index of this shard's documents.
+	 */
+	final LittleSearchEngine engine;
+
+	/**
+	 * Snapshot that searches run on.
+	 */
+	final IndexSnapshot snapshot;
+
+	/**
+	 * Ordinal of each document, by document id in the snapshot.
+	 */
+	final int[] ordinals;
+
+	/**
+	 * Listening socket.
+	 */
+	final ServerSocket server;
+
+	/**
+	 * Threads serving connections.
+	 */
+	final ExecutorService connections = Executors.newCachedThreadPool(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "shard-connection");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	/**
+	 * Indexes one shard of a docs file, and opens a listening socket for it.
+	 *
+	 * @param docsFile Name of file that has a list of all the document file names, one name per line
+	 * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+	 * @param shard Index of this shard, from 0
+	 * @param numShards Number of shards
+	 * @param port Port to listen on, 0 for any free port
+	 * @throws IOException If there is a problem reading the input files or opening the socket
+	 */
+	public ShardServer(String docsFile, String noiseWordsFile, int shard, int numShards, int port)
+	throws IOException {
+		if (shard < 0 || shard >= numShards) {
+			throw new IllegalArgumentException("no shard " + shard + " of " + numShards);
+		}
+		ArrayList<String> all = LittleSearchEngine.readDocumentList(docsFile);
+		ArrayList<String> docs = new ArrayList<String>();
+		HashMap<String,Integer> ordinalOf = new HashMap<String,Integer>();
+		for (int i=shard; i < all.size(); i += numShards) {
+			docs.add(all.get(i));
+			ordinalOf.put(all.get(i), i);
+		}
+		engine = new LittleSearchEngine();
+		engine.makeIndex(docs, noiseWordsFile, Runtime.getRuntime().availableProcessors());
+		snapshot = engine.publish();
+		ordinals = new int[snapshot.numDocs];
+		for (int id=0; id < ordinals.length; id++) {
+			ordinals[id] = ordinalOf.get(snapshot.document(id));
+		}
+		server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+	}
+
+	/**
+	 * Returns the port this shard listens on.
+	 *
+	 * @return Port
+	 */
+	public int port() {
+		return server.getLocalPort();
+	}
+
+	/**
+	 * Accepts and serves connections until the server is closed.
+	 */
+	public void serve() {
+		while (!server.isClosed()) {
+			final Socket socket;
+			try {
+				socket = server.accept();
+			} catch (IOException ioe) {
+				// closed
+				break;
+			}
+			connections.execute(new Runnable() {
+				public void run() {
+					serve(socket);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Serves the requests of one connection until it is closed.
+	 */
+	void serve(Socket socket) {
+		try {
+			socket.setTcpNoDelay(true);
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+			Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+			String line;
+			while ((line = in.readLine()) != null) {
+				out.write(answer(line));
+				out.flush();
+			}
+		} catch (IOException ioe) {
+			// the coordinator went away; nothing to answer
+		} finally {
+			try {
+				socket.close();
+			} catch (IOException ioe) {
+				// already gone
+			}
+		}
+	}
+
+	/**
+	 * Answers one request.
+	 *
+	 * @param request Request line
+	 * @return Response lines
+	 */
+	String answer(String request) {
+		String[] words = request.trim().split("\\s+");
+		try {
+			if (!words[0].equals("TOPK") || words.length < 3) {
+				throw new IllegalArgumentException("bad request: " + request);
+			}
+			int k = Integer.parseInt(words[1]);
+			if (k < 1 || k > QueryServer.MAX_K) {
+				throw new IllegalArgumentException("k must be from 1 to " + QueryServer.MAX_K);
+			}
+			PostingCursor[] cursors = new PostingCursor[words.length-2];
+			for (int i=0; i < cursors.length; i++) {
+				cursors[i] = snapshot.cursor(words[i+2].toLowerCase());
+			}
+			TopKSearch.Ranked top = TopKSearch.searchRanked(cursors, k);
+			int[] ids = top.ids, ranks = top.ranks;
+			StringBuilder sb = new StringBuilder(32*(ids.length+1));
+			sb.append(ids.length).append('\n');
+			for (int i=0; i < ids.length; i++) {
+				sb.append(ranks[2*i]).append(' ').append(ranks[2*i+1]).append(' ')
+				.append(ordinals[ids[i]]).append(' ').append(snapshot.document(ids[i])).append('\n');
+			}
+			return sb.toString();
+		} catch (IllegalArgumentException iae) {
+			return "ERR " + iae.getMessage() + "\n";
+		}
+	}
+
+	/**
+	 * Stops accepting connections. Connections already open are served until they close.
+	 */
+	public void close() throws IOException {
+		server.close();
+		connections.shutdown();
+	}
+
+	/**
+	 * Runs a shard server. Once the shard is indexed, prints "READY port" on a line of its
+	 * own, so that a process that started it knows where to connect.
+	 *
+	 * Usage: ShardServer docsFile noiseWordsFile shard numShards [port]
+	 */
+	public static void main(String[] args)
+	throws IOException {
+		if (args.length < 4) {
+			System.out.println("Usage: ShardServer docsFile noiseWordsFile shard numShards [port]");
+			return;
+		}
+		ShardServer shard = new ShardServer(args[0], args[1], Integer.parseInt(args[2]), Integer.parseInt(args[3]),
+				args.length > 4 ? Integer.parseInt(args[4]) : 0);
+		System.out.println("READY " + shard.port());
+		System.out.flush();
+		shard.serve();
+	}
+}
@@ -0,0 +1,396 @@
+package lse;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * This class indexes documents of any size into a LittleSearchEngine within a fixed
+ * memory budget.
+ *
+ * A document is scanned through the reusable buffers of a KeywordTokenizer, one chunk at
+ * a time. Whenever the term table of the tokenizer outgrows the budget, the keyword counts
+ * in it are sorted and written to a run file, and the table is cleared. At the end of the
+ * document, the runs and the counts still in memory are merged in keyword order, summing
+ * the counts of each keyword, and each keyword's Occurrence goes straight to its pending
+ * list in the engine, as with addDocument. No map of all the document's keywords is ever
+ * built, and at most MAX_RUNS run files are ever open at once (when there would be more,
+ * the ones written so far are first merged into one), so the memory used does not grow
+ * with the size of the document. (The budget is checked after each chunk, so the table
+ * may go over it by the new keywords of one chunk.)
+ *
+ */
+class StreamingIndexer {
+
+	/**
+	 * Estimated bytes taken by one entry of the term table: the term String and its char
+	 * array, and its slots in the table arrays. The letters themselves are counted apart.
+	 */
+	static final int BYTES_PER_TERM = 96;
+
+	/**
+	 * Maximum number of run files merged at once.
+	 */
+	static final int MAX_RUNS = 32;
+
+	/**
+	 * Size of the buffer of each run file.
+	 */
+	static final int RUN_BUFFER_SIZE = 1 << 13;
+
+	/**
+	 * The engine being indexed. Its noise words must already be loaded.
+	 */
+	LittleSearchEngine engine;
+
+	/**
+	 * Memory budget in bytes for the term table.
+	 */
+	long budget;
+
+	/**
+	 * Initializes this indexer for the given engine.
+	 *
+	 * @param engine Engine to add documents to
+	 * @param budget Memory budget in bytes for the keyword counts of a document
+	 */
+	StreamingIndexer(LittleSearchEngine engine, long budget) {
+		if (budget < 1) {
+			throw new IllegalArgumentException("memory budget must be positive");
+		}
+		this.engine = engine;
+		this.budget = budget;
+	}
+
+	/**
+	 * Indexes a document.
+	 *
+	 * @param docFile Name of the document file to index
+	 * @throws FileNotFoundException If the document file is not found on disk
+	 */
+	void index(String docFile)
+	throws FileNotFoundException {
+		if (engine.positional) {
+			throw new IllegalStateException("positions are not recorded in streaming mode");
+		}
+		IndexMetrics m = engine.metrics;
+		long start = m == null ? 0 : System.nanoTime();
+		SpillingTokenizer tok = new SpillingTokenizer(engine.noiseMatcher());
+		tok.timeReads = m != null;
+		ArrayList<Run> runs = new ArrayList<Run>();
+		try {
+			tok.scan(docFile);
+			for (File f : tok.runs) {
+				runs.add(new FileRun(f));
+			}
+			runs.add(new MemoryRun(tok));
+			final String doc = docFile;
+			final ArrayList<String> words = new ArrayList<String>();
+			final long[] length = new long[1];
+			merge(runs, new Sink() {
+				void add(String term, int count) {
+					engine.addPending(term, new Occurrence(doc, count));
+					words.add(term);
+					length[0] += count;
+				}
+			});
+			if (!words.isEmpty()) {
+				engine.recordDocument(docFile, words.toArray(new String[words.size()]), (int)Math.min(length[0], Integer.MAX_VALUE));
+			}
+			if (m != null) {
+				// the merge of the runs counts as part of tokenizing
+				m.documentLoaded(docFile, tok.bytesRead, tok.readNanos, System.nanoTime() - start, words.size());
+			}
+		} catch (IOException ioe) {
+			throw new UncheckedIOException(docFile, ioe);
+		} finally {
+			// the merge has closed the runs unless it failed
+			for (Run r : runs) {
+				try {
+					r.close();
+				} catch (IOException ioe) {
+					// being deleted anyway
+				}
+			}
+			for (File f : tok.runs) {
+				f.delete();
+			}
+		}
+	}
+
+	/**
+	 * Receiver of merged (keyword, count) entries, in keyword order.
+	 */
+	static abstract class Sink {
+		abstract void add(String term, int count) throws IOException;
+	}
+
+	/**
+	 * Merges runs of sorted keyword counts, summing the counts of each keyword, and closes them.
+	 */
+	static void merge(ArrayList<Run> runs, Sink sink)
+	throws IOException {
+		PriorityQueue<Run> heap = new PriorityQueue<Run>(runs.size(), new Comparator<Run>() {
+			public int compare(Run a, Run b) {
+				return a.term.compareTo(b.term);
+			}
+		});
+		try {
+			for (Run r : runs) {
+				if (r.next()) {
+					heap.add(r);
+				} else {
+					r.close();
+				}
+			}
+			while (!heap.isEmpty()) {
+				String term = heap.peek().term;
+				int count = 0;
+				while (!heap.isEmpty() && heap.peek().term.equals(term)) {
+					Run r = heap.poll();
+					count += r.count;
+					if (r.next()) {
+						heap.add(r);
+					} else {
+						r.close();
+					}
+				}
+				sink.add(term, count);
+			}
+		} finally {
+			for (Run r : heap) {
+				r.close();
+			}
+		}
+	}
+
+	/**
+	 * Tokenizer that spills its counts to run files when its term table outgrows the budget.
+	 */
+	class SpillingTokenizer extends KeywordTokenizer {
+
+		/**
+		 * Run files written so far, in order.
+		 */
+		ArrayList<File> runs = new ArrayList<File>();
+
+		/**
+		 * Estimated bytes taken by the letters of the terms in the table.
+		 */
+		long letterBytes;
+
+		/**
+		 * Number of terms whose letters are counted in letterBytes.
+		 */
+		int counted;
+
+		SpillingTokenizer(NoiseWordMatcher noiseWords) {
+			super(noiseWords);
+		}
+
+		void chunkScanned() {
+			for (; counted < numTerms; counted++) {
+				letterBytes += 2*terms[counted].length();
+			}
+			if ((long)numTerms * BYTES_PER_TERM + letterBytes > budget) {
+				spill();
+			}
+		}
+
+		/**
+		 * Writes the counts of the touched terms to a new run file, in term order, and
+		 * clears the term table.
+		 */
+		void spill() {
+			final int[] ids = sortedTouched(this);
+			try {
+				if (ids.length > 0) {
+					if (runs.size() == MAX_RUNS) {
+						compact();
+					}
+					runs.add(writeRun(new RunSource() {
+						void writeTo(Sink sink) throws IOException {
+							for (int id : ids) {
+								sink.add(terms[id], counts[id]);
+							}
+						}
+					}));
+				}
+			} catch (IOException ioe) {
+				throw new UncheckedIOException("cannot write run file", ioe);
+			}
+			clearTerms();
+			letterBytes = 0;
+			counted = 0;
+		}
+
+		/**
+		 * Merges all the run files written so far into one.
+		 */
+		private void compact() throws IOException {
+			final ArrayList<Run> open = new ArrayList<Run>(runs.size());
+			try {
+				for (File f : runs) {
+					open.add(new FileRun(f));
+				}
+				File merged = writeRun(new RunSource() {
+					void writeTo(Sink sink) throws IOException {
+						merge(open, sink);
+					}
+				});
+				for (File f : runs) {
+					f.delete();
+				}
+				runs.clear();
+				runs.add(merged);
+			} finally {
+				for (Run r : open) {
+					r.close();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Source of the entries of a run file.
+	 */
+	static abstract class RunSource {
+		abstract void writeTo(Sink sink) throws IOException;
+	}
+
+	/**
+	 * Writes a new run file: the number of entries, then each keyword (as the length of
+	 * its UTF-8 bytes and the bytes) and its count.
+	 *
+	 * @param source Entries, in keyword order
+	 * @return Run file
+	 */
+	static File writeRun(RunSource source) throws IOException {
+		// run files are deleted as soon as they are merged, or on the error paths; not with
+		// deleteOnExit, whose list would grow with every spill
+		File f = File.createTempFile("lse-run", ".tmp");
+		boolean written = false;
+		final RandomAccessFile raf = new RandomAccessFile(f, "rw");
+		try {
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(raf.getFD()), RUN_BUFFER_SIZE));
+			final int[] n = new int[1];
+			out.writeInt(0);
+			source.writeTo(new Sink() {
+				void add(String term, int count) throws IOException {
+					// writeUTF cannot take more than 65535 bytes, and a keyword can be any length
+					byte[] bytes = term.getBytes(StandardCharsets.UTF_8);
+					out.writeInt(bytes.length);
+					out.write(bytes);
+					out.writeInt(count);
+					n[0]++;
+				}
+			});
+			out.flush();
+			// go back and fill in the number of entries
+			raf.seek(0);
+			raf.writeInt(n[0]);
+			written = true;
+		} finally {
+			raf.close();
+			if (!written) {
+				f.delete();
+			}
+		}
+		return f;
+	}
+
+	/**
+	 * Returns the ids of a tokenizer's touched terms, in term order.
+	 */
+	static int[] sortedTouched(final KeywordTokenizer tok) {
+		Integer[] ids = new Integer[tok.numTouched];
+		for (int i=0; i < ids.length; i++) {
+			ids[i] = tok.touched[i];
+		}
+		Arrays.sort(ids, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return tok.terms[a].compareTo(tok.terms[b]);
+			}
+		});
+		int[] sorted = new int[ids.length];
+		for (int i=0; i < ids.length; i++) {
+			sorted[i] = ids[i];
+		}
+		return sorted;
+	}
+
+	/**
+	 * Sorted run of (keyword, count) entries.
+	 */
+	static abstract class Run {
+		String term;
+		int count;
+
+		/**
+		 * Moves to the next entry.
+		 *
+		 * @return False if there are no more entries
+		 */
+		abstract boolean next() throws IOException;
+
+		void close() throws IOException {
+		}
+	}
+
+	/**
+	 * Run read back from a run file.
+	 */
+	static class FileRun extends Run {
+		DataInputStream in;
+		int left;
+		byte[] bytes = new byte[64];
+
+		FileRun(File f) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(f), RUN_BUFFER_SIZE));
+			left = in.readInt();
+		}
+
+		boolean next() throws IOException {
+			if (left == 0) {
+				return false;
+			}
+			left--;
+			int length = in.readInt();
+			if (length > bytes.length) {
+				bytes = new byte[Math.max(length, bytes.length*2)];
+			}
+			in.readFully(bytes, 0, length);
+			term = new String(bytes, 0, length, StandardCharsets.UTF_8);
+			count = in.readInt();
+			return true;
+		}
+
+		void close() throws IOException {
+			in.close();
+		}
+	}
+
+	/**
+	 * Run of the counts still in a tokenizer's term table.
+	 */
+	static class MemoryRun extends Run {
+		KeywordTokenizer tok;
+		int[] ids;
+		int next;
+
+		MemoryRun(KeywordTokenizer tok) {
+			this.tok = tok;
+			ids = sortedTouched(tok);
+		}
+
+		boolean next() {
+			if (next == ids.length) {
+				return false;
+			}
+			term = tok.terms[ids[next]];
+			count = tok.counts[ids[next++]];
+			return true;
+		}
+	}
+}
@@ -0,0 +1,278 @@
+package lse;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * This class generates a synthetic corpus of any size for the search engine: a docs file,
+ * a noise words file, and documents whose words follow a Zipf distribution, as the words
+ * of natural text do (the word of rank r comes up with probability proportional to
+ * 1/r^s).
+ *
+ * The vocabulary is made of distinct made-up words. The most frequent ones are written to
+ * the noise words file, since in real text the most frequent words are noise words. Some
+ * words get a capital letter or trailing punctuation, and a few get characters that make
+ * them non-keywords, so that all the rules of getKeyword are exercised. The same
+ * parameters and seed always give the same corpus.
+ *
+ */
+public class SyntheticCorpus {
+
+	/**
+	 * Draws ranks 0..n-1 with Zipf probabilities, by binary search in the cumulative
+	 * distribution.
+	 */
+	public static class ZipfSampler {
+		final double[] cdf;
+
+		/**
+		 * Initializes a sampler.
+		 *
+		 * @param n Number of ranks
+		 * @param exponent Zipf exponent s; 0 gives a uniform distribution
+		 */
+		public ZipfSampler(int n, double exponent) {
+			if (n < 1) {
+				throw new IllegalArgumentException("need at least one rank");
+			}
+			cdf = new double[n];
+			double sum = 0;
+			for (int r=0; r < n; r++) {
+				sum += 1 / Math.pow(r+1, exponent);
+				cdf[r] = sum;
+			}
+			for (int r=0; r < n; r++) {
+				cdf[r] /= sum;
+			}
+		}
+
+		/**
+		 * Draws a rank.
+		 *
+		 * @param random Source of randomness
+		 * @return Rank, 0 for the most frequent
+		 */
+		public int next(Random random) {
+			double u = random.nextDouble();
+			int lo = 0, hi = cdf.length-1;
+			while (lo < hi) {
+				int mid = (lo+hi) >>> 1;
+				if (cdf[mid] < u) {
+					lo = mid+1;
+				} else {
+					hi = mid;
+				}
+			}
+			return lo;
+		}
+	}
+
+	/**
+	 * Number of documents.
+	 */
+	final int numDocs;
+
+	/**
+	 * Number of words in each document.
+	 */
+	final int wordsPerDoc;
+
+	/**
+	 * Number of noise words, taken from the top of the vocabulary.
+	 */
+	final int numNoiseWords;
+
+	/**
+	 * Vocabulary, most frequent first.
+	 */
+	final String[] vocabulary;
+
+	/**
+	 * Ranks of the words.
+	 */
+	final ZipfSampler sampler;
+
+	/**
+	 * Seed of the document contents.
+	 */
+	final long seed;
+
+	/**
+	 * Initializes a corpus generator.
+	 *
+	 * @param numDocs Number of documents
+	 * @param wordsPerDoc Number of words in each document
+	 * @param vocabularySize Number of distinct words
+	 * @param exponent Zipf exponent s, about 1 for natural text
+	 * @param numNoiseWords Number of most frequent words that are noise words
+	 * @param seed Seed for the vocabulary and the documents
+	 */
+	public SyntheticCorpus(int numDocs, int wordsPerDoc, int vocabularySize, double exponent, int numNoiseWords, long seed) {
+		if (numNoiseWords >= vocabularySize) {
+			throw new IllegalArgumentException("noise words must be fewer than the vocabulary");
+		}
+		this.numDocs = numDocs;
+		this.wordsPerDoc = wordsPerDoc;
+		this.numNoiseWords = numNoiseWords;
+		this.seed = seed;
+		vocabulary = makeVocabulary(vocabularySize, new Random(seed));
+		sampler = new ZipfSampler(vocabularySize, exponent);
+	}
+
+	/**
+	 * Makes distinct lower case words of 2 to 12 letters, shorter ones more often.
+	 */
+	static String[] makeVocabulary(int n, Random random) {
+		String consonants = "bcdfghjklmnprstvwz", vowels = "aeiou";
+		HashSet<String> seen = new HashSet<String>(n*2);
+		String[] words = new String[n];
+		StringBuilder sb = new StringBuilder();
+		for (int i=0; i < n; ) {
+			sb.setLength(0);
+			int syllables = 1 + Math.min(random.nextInt(3) + random.nextInt(3) + random.nextInt(2), 5);
+			for (int s=0; s < syllables; s++) {
+				sb.append(consonants.charAt(random.nextInt(consonants.length())));
+				sb.append(vowels.charAt(random.nextInt(vowels.length())));
+			}
+			if (random.nextInt(3) == 0) {
+				sb.append(consonants.charAt(random.nextInt(consonants.length())));
+			}
+			String w = sb.toString();
+			if (seen.add(w)) {
+				words[i++] = w;
+			}
+		}
+		return words;
+	}
+
+	/**
+	 * Returns the name of a document file.
+	 *
+	 * @param i Document number
+	 * @return File name, relative to the corpus directory
+	 */
+	static String documentName(int i) {
+		return "doc" + i + ".txt";
+	}
+
+	/**
+	 * Appends one word of text, as it could appear in a document.
+	 */
+	void appendWord(StringBuilder sb, Random random) {
+		String w = vocabulary[sampler.next(random)];
+		int style = random.nextInt(100);
+		if (style < 8) {
+			// capitalized
+			sb.append(Character.toUpperCase(w.charAt(0))).append(w, 1, w.length());
+		} else {
+			sb.append(w);
+		}
+		if (style >= 90 && style < 97) {
+			sb.append(".,;:!?".charAt(random.nextInt(6)));
+			if (style == 96) {
+				sb.append('!');
+			}
+		} else if (style >= 97) {
+			// not a keyword
+			sb.append(style == 97 ? "'s" : style == 98 ? "-" + w : "42");
+		}
+	}
+
+	/**
+	 * Returns the text of a document. Each document has its own stream of random numbers,
+	 * so documents can be made in any order, or alone.
+	 *
+	 * @param i Document number
+	 * @return Text, about 12 words per line
+	 */
+	public String document(int i) {
+		Random random = new Random(seed * 31 + i);
+		StringBuilder sb = new StringBuilder(wordsPerDoc * 8);
+		for (int w=0; w < wordsPerDoc; w++) {
+			appendWord(sb, random);
+			sb.append(w % 12 == 11 ? '\n' : ' ');
+		}
+		return sb.append('\n').toString();
+	}
+
+	/**
+	 * Returns the noise words.
+	 *
+	 * @return Noise words, most frequent first
+	 */
+	public String[] noiseWords() {
+		return Arrays.copyOf(vocabulary, numNoiseWords);
+	}
+
+	/**
+	 * Returns the keywords of the vocabulary, most frequent first.
+	 *
+	 * @return Keywords
+	 */
+	public String[] keywords() {
+		return Arrays.copyOfRange(vocabulary, numNoiseWords, vocabulary.length);
+	}
+
+	/**
+	 * Writes the corpus to a directory: the documents, "docs.txt" with their paths, and
+	 * "noisewords.txt".
+	 *
+	 * @param dir Directory, made if it does not exist
+	 * @return The docs file
+	 * @throws IOException If a file cannot be written
+	 */
+	public File write(File dir)
+	throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("cannot make directory " + dir);
+		}
+		File docsFile = new File(dir, "docs.txt");
+		PrintWriter docs = new PrintWriter(new BufferedWriter(new FileWriter(docsFile)));
+		try {
+			for (int i=0; i < numDocs; i++) {
+				File f = new File(dir, documentName(i));
+				Writer out = new BufferedWriter(new FileWriter(f));
+				try {
+					out.write(document(i));
+				} finally {
+					out.close();
+				}
+				docs.println(f.getPath());
+			}
+		} finally {
+			docs.close();
+		}
+		PrintWriter noise = new PrintWriter(new BufferedWriter(new FileWriter(new File(dir, "noisewords.txt"))));
+		try {
+			for (String w : noiseWords()) {
+				noise.println(w);
+			}
+		} finally {
+			noise.close();
+		}
+		return docsFile;
+	}
+
+	/**
+	 * Writes a synthetic corpus.
+	 *
+	 * Usage: SyntheticCorpus dir numDocs wordsPerDoc [vocabularySize [exponent [noiseWords [seed]]]]
+	 */
+	public static void main(String[] args)
+	throws IOException {
+		if (args.length < 3) {
+			System.out.println("Usage: SyntheticCorpus dir numDocs wordsPerDoc [vocabularySize [exponent [noiseWords [seed]]]]");
+			return;
+		}
+		int numDocs = Integer.parseInt(args[1]);
+		int wordsPerDoc = Integer.parseInt(args[2]);
+		int vocabularySize = args.length > 3 ? Integer.parseInt(args[3]) : 50000;
+		double exponent = args.length > 4 ? Double.parseDouble(args[4]) : 1.0;
+		int noiseWords = args.length > 5 ? Integer.parseInt(args[5]) : 100;
+		long seed = args.length > 6 ? Long.parseLong(args[6]) : 1;
+		long start = System.nanoTime();
+		File docsFile = new SyntheticCorpus(numDocs, wordsPerDoc, vocabularySize, exponent, noiseWords, seed).write(new File(args[0]));
+		System.out.printf("Wrote %d documents of %d words to %s in %.1f s%n",
+				numDocs, wordsPerDoc, docsFile, (System.nanoTime() - start) / 1e9);
+	}
+}
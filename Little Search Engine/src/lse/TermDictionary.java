@@ -0,0 +1,213 @@
+package lse;
+
+import java.util.*;
+
+/**
+ * This class is a sorted dictionary of the keywords of an index, for prefix and wildcard
+ * queries. The keywords are held in a sorted array, and indexed by a compressed trie built
+ * the same way as trie.Trie: each node holds a substring of one of the words as a
+ * (word index, start index, end index) triplet, and has a first child and a sibling.
+ *
+ * Since the words are sorted, the words under any node of the trie are a contiguous range
+ * of the array, and each node records that range. A prefix is expanded by walking down
+ * the trie along the prefix, one node per compressed substring, and taking the range of
+ * the node where the prefix ends; the cost depends on the length of the prefix, not on
+ * the size of the vocabulary.
+ *
+ * A wildcard pattern may hold '*', for any run of characters, and '?', for any one
+ * character. It is expanded by taking the range of its literal prefix (the characters
+ * before the first wildcard) and matching each word in it against the rest of the pattern.
+ *
+ */
+class TermDictionary {
+
+	/**
+	 * Compressed trie node, as trie.TrieNode with the range of words under it.
+	 */
+	static class Node {
+
+		/**
+		 * Substring held at this node: characters startIndex to endIndex of word wordIndex.
+		 */
+		final int wordIndex, startIndex, endIndex;
+
+		/**
+		 * Range of words under this node, first to last inclusive.
+		 */
+		final int first, last;
+
+		Node firstChild, sibling;
+
+		Node(int wordIndex, int startIndex, int endIndex, int first, int last) {
+			this.wordIndex = wordIndex;
+			this.startIndex = startIndex;
+			this.endIndex = endIndex;
+			this.first = first;
+			this.last = last;
+		}
+	}
+
+	/**
+	 * Keywords, in sorted order.
+	 */
+	final String[] words;
+
+	/**
+	 * Root of the trie, which holds no substring.
+	 */
+	final Node root;
+
+	/**
+	 * Builds the dictionary of a set of keywords.
+	 *
+	 * @param keywords Keywords, which must be distinct
+	 */
+	TermDictionary(Collection<String> keywords) {
+		words = keywords.toArray(new String[keywords.size()]);
+		Arrays.sort(words);
+		root = new Node(-1, 0, -1, 0, words.length-1);
+		root.firstChild = children(0, words.length, 0);
+	}
+
+	/**
+	 * Builds the nodes for the words in [lo, hi), which all share their first depth
+	 * characters, and returns the first of them; the others are chained as its siblings.
+	 */
+	private Node children(int lo, int hi, int depth) {
+		if (lo < hi && words[lo].length() == depth) {
+			// a word that ends at the parent, which sorts first
+			lo++;
+		}
+		Node first = null, prev = null;
+		while (lo < hi) {
+			// the group of words with the same next character
+			char c = words[lo].charAt(depth);
+			int end = lo+1;
+			while (end < hi && words[end].charAt(depth) == c) {
+				end++;
+			}
+			// sorted, so the common prefix of the group is that of its first and last words
+			int lcp = commonPrefix(words[lo], words[end-1]);
+			Node n = new Node(lo, depth, lcp-1, lo, end-1);
+			if (end - lo > 1) {
+				n.firstChild = children(lo, end, lcp);
+			}
+			if (prev == null) {
+				first = n;
+			} else {
+				prev.sibling = n;
+			}
+			prev = n;
+			lo = end;
+		}
+		return first;
+	}
+
+	private static int commonPrefix(String a, String b) {
+		int n = Math.min(a.length(), b.length()), i = 0;
+		while (i < n && a.charAt(i) == b.charAt(i)) {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * Returns the number of keywords.
+	 *
+	 * @return Number of keywords
+	 */
+	int size() {
+		return words.length;
+	}
+
+	/**
+	 * Finds the range of keywords that start with a prefix.
+	 *
+	 * @param prefix Prefix (lower case)
+	 * @return First and last index in words of the matching keywords, null if there are none
+	 */
+	int[] prefixRange(String prefix) {
+		if (words.length == 0) {
+			return null;
+		}
+		Node node = root;
+		int depth = 0;
+		while (depth < prefix.length()) {
+			char c = prefix.charAt(depth);
+			Node child = node.firstChild;
+			while (child != null && words[child.wordIndex].charAt(child.startIndex) != c) {
+				child = child.sibling;
+			}
+			if (child == null) {
+				return null;
+			}
+			String w = words[child.wordIndex];
+			for (int i=child.startIndex; i <= child.endIndex && depth < prefix.length(); i++, depth++) {
+				if (w.charAt(i) != prefix.charAt(depth)) {
+					return null;
+				}
+			}
+			node = child;
+		}
+		return new int[] {node.first, node.last};
+	}
+
+	/**
+	 * Expands a prefix or wildcard pattern into the keywords it matches.
+	 *
+	 * @param pattern Pattern, with '*' for any run of characters and '?' for any one character
+	 * @return Matching keywords, in sorted order; empty if there are none
+	 */
+	ArrayList<String> expand(String pattern) {
+		String p = pattern.toLowerCase();
+		int wild = 0;
+		while (wild < p.length() && p.charAt(wild) != '*' && p.charAt(wild) != '?') {
+			wild++;
+		}
+		ArrayList<String> terms = new ArrayList<String>();
+		int[] range = prefixRange(p.substring(0, wild));
+		if (range == null) {
+			return terms;
+		}
+		boolean prefixOnly = wild == p.length()-1 && p.charAt(wild) == '*';
+		if (wild == p.length()) {
+			// no wildcard: the keyword itself, if it is in the dictionary
+			if (words[range[0]].equals(p)) {
+				terms.add(p);
+			}
+			return terms;
+		}
+		for (int i=range[0]; i <= range[1]; i++) {
+			if (prefixOnly || matches(p, wild, words[i], wild)) {
+				terms.add(words[i]);
+			}
+		}
+		return terms;
+	}
+
+	/**
+	 * Tells if word, from index w on, matches pattern, from index p on.
+	 */
+	static boolean matches(String pattern, int p, String word, int w) {
+		// greedy matching, backtracking to the last '*'
+		int star = -1, starW = 0;
+		while (w < word.length()) {
+			if (p < pattern.length() && (pattern.charAt(p) == '?' || pattern.charAt(p) == word.charAt(w))) {
+				p++;
+				w++;
+			} else if (p < pattern.length() && pattern.charAt(p) == '*') {
+				star = p++;
+				starW = w;
+			} else if (star >= 0) {
+				p = star+1;
+				w = ++starW;
+			} else {
+				return false;
+			}
+		}
+		while (p < pattern.length() && pattern.charAt(p) == '*') {
+			p++;
+		}
+		return p == pattern.length();
+	}
+}
@@ -0,0 +1,92 @@
+package lse;
+
+import java.util.*;
+
+/**
+ * This class decides which segments of a SegmentedIndex to merge.
+ *
+ * Segments are put in size tiers by their number of documents: tier 0 holds segments of
+ * up to flushDocs documents, and each tier holds segments up to tierFactor times as large
+ * as the one below it. When segmentsPerTier segments of the same tier sit next to each
+ * other, they are merged into one, which usually lands in the next tier up. Only adjacent
+ * segments are merged, so that the documents of the index stay in the order they were
+ * added, which ranking ties depend on. Since new segments are added at the end, the
+ * segments end up in descending tiers, and the number of segments a query has to search
+ * grows only with the logarithm of the number of documents.
+ *
+ */
+class TieredMergePolicy {
+
+	/**
+	 * Largest number of documents of a tier 0 segment.
+	 */
+	final int flushDocs;
+
+	/**
+	 * Size ratio between consecutive tiers.
+	 */
+	final int tierFactor;
+
+	/**
+	 * Number of adjacent segments of a tier that are merged.
+	 */
+	final int segmentsPerTier;
+
+	/**
+	 * Initializes a merge policy.
+	 *
+	 * @param flushDocs Largest number of documents of a tier 0 segment
+	 * @param tierFactor Size ratio between consecutive tiers, at least 2
+	 * @param segmentsPerTier Number of adjacent segments of a tier that are merged, at least 2
+	 */
+	TieredMergePolicy(int flushDocs, int tierFactor, int segmentsPerTier) {
+		if (flushDocs < 1 || tierFactor < 2 || segmentsPerTier < 2) {
+			throw new IllegalArgumentException("bad merge policy: flushDocs=" + flushDocs +
+					" tierFactor=" + tierFactor + " segmentsPerTier=" + segmentsPerTier);
+		}
+		this.flushDocs = flushDocs;
+		this.tierFactor = tierFactor;
+		this.segmentsPerTier = segmentsPerTier;
+	}
+
+	/**
+	 * Returns the tier of a segment.
+	 *
+	 * @param numDocs Number of documents in the segment
+	 * @return Tier, from 0
+	 */
+	int tier(int numDocs) {
+		int t = 0;
+		for (long limit = flushDocs; numDocs > limit; limit *= tierFactor) {
+			t++;
+		}
+		return t;
+	}
+
+	/**
+	 * Finds the first run of segmentsPerTier adjacent segments of the same tier, none of
+	 * which is already being merged.
+	 *
+	 * @param segments Segments, in order
+	 * @return Index of the first segment of the run, -1 if there is none
+	 */
+	int findMerge(List<SegmentedIndex.Segment> segments) {
+		int runStart = 0, runTier = -1;
+		for (int i=0; i < segments.size(); i++) {
+			SegmentedIndex.Segment seg = segments.get(i);
+			int t = tier(seg.numDocs);
+			if (seg.merging) {
+				runTier = -1;
+				continue;
+			}
+			if (t != runTier) {
+				runStart = i;
+				runTier = t;
+			}
+			if (i - runStart + 1 == segmentsPerTier) {
+				return runStart;
+			}
+		}
+		return -1;
+	}
+}
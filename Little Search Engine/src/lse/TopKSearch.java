@@ -0,0 +1,162 @@
+package lse;
+
+import java.util.*;
+
+/**
+ * This class finds the top K documents for "kw1 or kw2 or ... or kwN", with the same
+ * rules as LittleSearchEngine.top5search: a document's rank is its highest frequency
+ * for any of the keywords, each document appears only once, and ties in frequency are
+ * broken in favor of the earlier keyword.
+ *
+ * The posting lists of the keywords are merged with a heap that holds the current
+ * posting of each list, ordered by frequency and then by keyword position. Since every
+ * list is in descending order of frequencies, the top of the heap is a threshold on the
+ * rank of every document not seen yet (as in Fagin's threshold algorithm, with max as
+ * the aggregate): the first time a document comes off the heap, its rank is final, and
+ * it goes straight to the result. The merge stops as soon as K documents are found, so
+ * at most K postings plus the duplicates among them are ever read.
+ *
+ */
+class TopKSearch {
+
+	// prevent instantiation
+	private TopKSearch() {
+	}
+
+	/**
+	 * Checks the k of a search.
+	 *
+	 * @param k Maximum number of documents in the result
+	 * @throws IllegalArgumentException If k is less than 1
+	 */
+	static void checkK(int k) {
+		if (k < 1) {
+			throw new IllegalArgumentException("k must be at least 1");
+		}
+	}
+
+	/**
+	 * Top documents of a search, and what they were ranked by.
+	 */
+	static class Ranked {
+		/**
+		 * Ids of the top documents, in rank order.
+		 */
+		final int[] ids;
+
+		/**
+		 * Frequency and keyword index each document was ranked by, in pairs, or null if
+		 * they were not asked for.
+		 */
+		final int[] ranks;
+
+		Ranked(int[] ids, int[] ranks) {
+			this.ids = ids;
+			this.ranks = ranks;
+		}
+	}
+
+	/**
+	 * Finds the ids of the top k documents.
+	 *
+	 * @param cursors Posting cursors of the keywords, in keyword order. Null entries are
+	 *        keywords that are not in the index.
+	 * @param k Maximum number of documents in the result
+	 * @return Ids of the top documents, in rank order
+	 */
+	static int[] search(PostingCursor[] cursors, int k) {
+		return search(cursors, k, false).ids;
+	}
+
+	/**
+	 * Finds the ids of the top k documents, and what they were ranked by.
+	 *
+	 * @param cursors Posting cursors of the keywords, in keyword order. Null entries are
+	 *        keywords that are not in the index.
+	 * @param k Maximum number of documents in the result
+	 * @return Ids of the top documents, with the frequency and keyword index each was
+	 *         ranked by
+	 */
+	static Ranked searchRanked(PostingCursor[] cursors, int k) {
+		return search(cursors, k, true);
+	}
+
+	/**
+	 * Runs the merge. The result arrays start small and grow as documents are found, so
+	 * that a huge k costs no more memory than the postings there are.
+	 */
+	private static Ranked search(PostingCursor[] cursors, int k, boolean withRanks) {
+		int[] heap = new int[cursors.length];
+		int size = 0;
+		for (int i=0; i < cursors.length; i++) {
+			if (cursors[i] != null && cursors[i].next()) {
+				heap[size++] = i;
+				siftUp(heap, size-1, cursors);
+			}
+		}
+
+		int[] result = new int[Math.min(k, 16)];
+		int[] ranks = withRanks ? new int[2*result.length] : null;
+		int found = 0;
+		HashSet<Integer> seen = new HashSet<Integer>(Math.min(k, 1024)*2);
+		while (found < k && size > 0) {
+			int top = heap[0];
+			PostingCursor c = cursors[top];
+			if (seen.add(c.docId)) {
+				if (found == result.length) {
+					result = Arrays.copyOf(result, (int)Math.min(k, 2L*found));
+					if (ranks != null) {
+						ranks = Arrays.copyOf(ranks, 2*result.length);
+					}
+				}
+				if (ranks != null) {
+					ranks[2*found] = c.frequency;
+					ranks[2*found+1] = top;
+				}
+				result[found++] = c.docId;
+			}
+			if (!c.next()) {
+				heap[0] = heap[--size];
+			}
+			siftDown(heap, size, cursors);
+		}
+		return new Ranked(found == result.length ? result : Arrays.copyOf(result, found), ranks);
+	}
+
+	/**
+	 * Tells if the current posting of cursor a comes before that of cursor b.
+	 */
+	private static boolean before(int a, int b, PostingCursor[] cursors) {
+		int fa = cursors[a].frequency, fb = cursors[b].frequency;
+		return fa > fb || (fa == fb && a < b);
+	}
+
+	private static void siftUp(int[] heap, int i, PostingCursor[] cursors) {
+		while (i > 0) {
+			int parent = (i-1)/2;
+			if (!before(heap[i], heap[parent], cursors)) {
+				return;
+			}
+			int t = heap[i]; heap[i] = heap[parent]; heap[parent] = t;
+			i = parent;
+		}
+	}
+
+	private static void siftDown(int[] heap, int size, PostingCursor[] cursors) {
+		int i = 0;
+		while (true) {
+			int first = i, left = 2*i+1, right = left+1;
+			if (left < size && before(heap[left], heap[first], cursors)) {
+				first = left;
+			}
+			if (right < size && before(heap[right], heap[first], cursors)) {
+				first = right;
+			}
+			if (first == i) {
+				return;
+			}
+			int t = heap[i]; heap[i] = heap[first]; heap[first] = t;
+			i = first;
+		}
+	}
+}